@@ -23,8 +23,12 @@ import static org.nuxeo.ai.enrichment.EnrichmentUtils.optionAsInteger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -54,6 +58,12 @@ public abstract class AbstractRecordWriter implements RecordWriter, Initializabl
 
     public static final String BLOB_PROVIDER_OPT = "blobProvider";
 
+    public static final String KEEP_FILES_OPEN_OPT = "keepFilesOpen";
+
+    public static final String CHANNEL_IDLE_TIMEOUT_OPT = "channelIdleTimeout";
+
+    public static final int DEFAULT_CHANNEL_IDLE_TIMEOUT_SEC = 300;
+
     protected static final Logger log = LogManager.getLogger(AbstractRecordWriter.class);
 
     private static final String RECORD_STREAM_KV = "RECORD_STREAM_WRITER";
@@ -64,6 +74,15 @@ public abstract class AbstractRecordWriter implements RecordWriter, Initializabl
 
     protected String blobProviderName;
 
+    protected boolean keepFilesOpen;
+
+    protected long channelIdleTimeoutMs;
+
+    // The files kept open by id, until they are completed, released or idle for too long
+    protected final Map<String, OpenChannel> channels = new ConcurrentHashMap<>();
+
+    protected volatile long lastEviction;
+
     public AbstractRecordWriter(String name) {
         this.name = name;
     }
@@ -76,10 +95,30 @@ public abstract class AbstractRecordWriter implements RecordWriter, Initializabl
     public void init(Map<String, String> options) {
         this.bufferSize = optionAsInteger(options, BUFFER_SIZE_OPT, DEFAULT_BUFFER_SIZE);
         this.blobProviderName = options.get(BLOB_PROVIDER_OPT);
+        this.keepFilesOpen = Boolean.parseBoolean(options.getOrDefault(KEEP_FILES_OPEN_OPT, "true"));
+        this.channelIdleTimeoutMs = TimeUnit.SECONDS.toMillis(
+                optionAsInteger(options, CHANNEL_IDLE_TIMEOUT_OPT, DEFAULT_CHANNEL_IDLE_TIMEOUT_SEC));
+    }
+
+    @Override
+    public void release(String id) throws IOException {
+        closeChannel(id);
+    }
+
+    @Override
+    public void close() {
+        for (String id : channels.keySet()) {
+            try {
+                closeChannel(id);
+            } catch (IOException e) {
+                log.warn("Unable to close the file of {} for {}", id, name, e);
+            }
+        }
     }
 
     @Override
     public Optional<Blob> complete(String id) throws IOException {
+        closeChannel(id);
         KeyValueStore kvStore = Framework.getService(KeyValueService.class).getKeyValueStore(RECORD_STREAM_KV);
         String filename = kvStore.getString(makeKey(id, name));
         if (StringUtils.isNoneBlank(filename, blobProviderName)) {
@@ -143,7 +182,85 @@ public abstract class AbstractRecordWriter implements RecordWriter, Initializabl
         }
     }
 
+    /**
+     * Gets a channel appending to the File for this id. The channel is kept open until the id is completed or released
+     * so the file is neither looked up nor opened again for the next records. Channels that were not used for
+     * {@value #CHANNEL_IDLE_TIMEOUT_OPT} seconds are closed, a write must check the channel is still open while it
+     * holds the channel lock.
+     */
+    protected FileChannel getChannel(String id) throws IOException {
+        long now = System.currentTimeMillis();
+        evictIdleChannels(now);
+        OpenChannel open;
+        try {
+            open = channels.computeIfAbsent(id, key -> {
+                try {
+                    return new OpenChannel(FileChannel.open(getFile(key).toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        open.lastUsed = now;
+        return open.channel;
+    }
+
+    /**
+     * Closes the channels that were not used for the idle timeout, at most every half timeout. The files of the
+     * exports that failed or are completed by another node are closed this way.
+     */
+    protected void evictIdleChannels(long now) {
+        if (now - lastEviction < channelIdleTimeoutMs / 2) {
+            return;
+        }
+        lastEviction = now;
+        channels.forEach((id, open) -> {
+            if (now - open.lastUsed > channelIdleTimeoutMs && channels.remove(id, open)) {
+                log.debug("Closing the idle file of {} for {}", id, name);
+                try {
+                    close(open.channel);
+                } catch (IOException e) {
+                    log.warn("Unable to close the idle file of {} for {}", id, name, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the channel for this id, if any.
+     */
+    protected void closeChannel(String id) throws IOException {
+        OpenChannel open = channels.remove(id);
+        if (open != null) {
+            close(open.channel);
+        }
+    }
+
+    protected void close(FileChannel channel) throws IOException {
+        synchronized (channel) {
+            channel.close();
+        }
+    }
+
     protected String sanitize(String name) {
         return name.replace("/", "-");
     }
+
+    /**
+     * A channel kept open and the last time it was used
+     */
+    protected static class OpenChannel {
+
+        protected final FileChannel channel;
+
+        protected volatile long lastUsed;
+
+        protected OpenChannel(FileChannel channel) {
+            this.channel = channel;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
 }
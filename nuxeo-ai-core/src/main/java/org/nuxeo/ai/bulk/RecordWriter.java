@@ -42,9 +42,42 @@ public interface RecordWriter {
 
     boolean write(ExportRecord record) throws IOException;
 
+    /**
+     * Write the records using this writer, in order. Returns, for each record, if it was written. Failed records are
+     * not written.
+     * Implementations can prepare the records concurrently.
+     *
+     * @since 3.5
+     */
+    default boolean[] writeAll(List<ExportRecord> records) throws IOException {
+        boolean[] written = new boolean[records.size()];
+        for (int i = 0; i < written.length; i++) {
+            ExportRecord record = records.get(i);
+            written[i] = !record.isFailed() && write(record);
+        }
+        return written;
+    }
+
     /**
      * Indicates if a file exists for this id
      */
     boolean exists(String id);
 
+    /**
+     * Releases the resources held for this id without completing it, the records already written are kept. Use it when
+     * the writing of an id fails or is aborted.
+     *
+     * @since 3.5
+     */
+    default void release(String id) throws IOException {
+    }
+
+    /**
+     * Releases all the resources held by the writer, it is called when the writer is no longer used.
+     *
+     * @since 3.5
+     */
+    default void close() {
+    }
+
 }
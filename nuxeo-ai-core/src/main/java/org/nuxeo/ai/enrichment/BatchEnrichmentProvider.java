@@ -0,0 +1,38 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.enrichment;
+
+import java.util.Collection;
+import java.util.List;
+import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
+
+/**
+ * An EnrichmentProvider that is able to enrich several documents with a single call to the underlying service.
+ *
+ * @see EnrichingStreamProcessor.BatchEnrichmentComputation
+ */
+public interface BatchEnrichmentProvider extends EnrichmentProvider {
+
+    /**
+     * Enriches a batch of blobs or text in one call. The returned list must be the same size and in the same order as
+     * the provided list. A <code>null</code> entry means the corresponding document could not be enriched.
+     */
+    List<Collection<EnrichmentMetadata>> enrich(List<BlobTextFromDocument> blobTextFromDocs);
+
+}
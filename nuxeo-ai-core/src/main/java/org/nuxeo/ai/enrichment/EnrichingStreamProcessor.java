@@ -19,6 +19,7 @@
 package org.nuxeo.ai.enrichment;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.nuxeo.ai.enrichment.EnrichmentUtils.optionAsInteger;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.fromRecord;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.toRecord;
 import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.STREAM_IN;
@@ -27,14 +28,24 @@ import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.buildName;
 import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.getStreamsList;
 import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.registerMetrics;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.metadata.AIMetadata;
+import org.nuxeo.ai.pipes.services.JacksonUtil.RecordFormat;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
 import org.nuxeo.ai.services.AIComponent;
 import org.nuxeo.ecm.core.api.NuxeoException;
@@ -44,9 +55,15 @@ import org.nuxeo.lib.stream.computation.ComputationContext;
 import org.nuxeo.lib.stream.computation.Record;
 import org.nuxeo.lib.stream.computation.Topology;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
 import org.nuxeo.runtime.metrics.NuxeoMetricSet;
 import org.nuxeo.runtime.stream.StreamProcessorTopology;
 
+import io.dropwizard.metrics5.Histogram;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
+
 import net.jodah.failsafe.CircuitBreaker;
 import net.jodah.failsafe.CircuitBreakerOpenException;
 import net.jodah.failsafe.Failsafe;
@@ -63,6 +80,18 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
 
     public static final String USE_CACHE = "cache";
 
+    public static final String BATCH_SIZE = "batchSize";
+
+    public static final String BATCH_THRESHOLD_MS = "batchThresholdMs";
+
+    public static final int DEFAULT_BATCH_THRESHOLD_MS = 1000;
+
+    public static final String MAX_IN_FLIGHT = "maxInFlight";
+
+    public static final String DRAIN_THRESHOLD_MS = "drainThresholdMs";
+
+    public static final String RECORD_FORMAT = "recordFormat";
+
     @Override
     public Topology getTopology(Map<String, String> options) {
         String streamIn = options.get(STREAM_IN);
@@ -73,12 +102,31 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
         if (isBlank(enricherName)) {
             throw new IllegalArgumentException("Please specify valid config for " + ENRICHER_NAME);
         }
+        int batchSize = optionAsInteger(options, BATCH_SIZE, 1);
+        int batchThreshold = optionAsInteger(options, BATCH_THRESHOLD_MS, DEFAULT_BATCH_THRESHOLD_MS);
+        RecordFormat recordFormat = RecordFormat.of(options.get(RECORD_FORMAT));
         String computationName = buildName(enricherName, streamIn, streamOut);
         EnrichmentMetrics metrics = registerMetrics(new EnrichmentMetrics(computationName), computationName);
+        if (batchSize > 1) {
+            return Topology.builder()
+                           .addComputation(() -> new BatchEnrichmentComputation(streams.size() - 1, computationName,
+                                   enricherName, metrics, shouldCache, batchSize, batchThreshold).withRecordFormat(
+                                   recordFormat), streams)
+                           .build();
+        }
+        int maxInFlight = optionAsInteger(options, MAX_IN_FLIGHT, 1);
+        if (maxInFlight > 1) {
+            int drainThreshold = optionAsInteger(options, DRAIN_THRESHOLD_MS, batchThreshold);
+            return Topology.builder()
+                           .addComputation(() -> new AsyncEnrichmentComputation(streams.size() - 1, computationName,
+                                   enricherName, metrics, shouldCache, maxInFlight, drainThreshold).withRecordFormat(
+                                   recordFormat), streams)
+                           .build();
+        }
         return Topology.builder()
                        .addComputation(
                                () -> new EnrichmentComputation(streams.size() - 1, computationName, enricherName,
-                                       metrics, shouldCache), streams)
+                                       metrics, shouldCache).withRecordFormat(recordFormat), streams)
                        .build();
     }
 
@@ -101,6 +149,8 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
 
         protected CircuitBreaker circuitBreaker;
 
+        protected RecordFormat recordFormat = RecordFormat.JSON;
+
         public EnrichmentComputation(int outputStreams, String computationName, String enricherName,
                 EnrichmentMetrics metrics, boolean useCache) {
             super(computationName, 1, outputStreams);
@@ -109,6 +159,16 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
             this.useCache = useCache;
         }
 
+        /**
+         * Sets the format used to serialize the produced records
+         *
+         * @since 3.5
+         */
+        public EnrichmentComputation withRecordFormat(RecordFormat recordFormat) {
+            this.recordFormat = recordFormat;
+            return this;
+        }
+
         @Override
         public void init(ComputationContext context) {
             log.debug("Starting enrichment computation for {}", metadata.name());
@@ -134,39 +194,16 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
                 log.debug("Processing record " + record);
             }
 
-            BlobTextFromDocument blobTextFromDoc = fromRecord(record, BlobTextFromDocument.class);
+            BlobTextFromDocument blobTextFromDoc = readRecord(record);
             Callable<Collection<AIMetadata>> callable = getProvider(blobTextFromDoc);
 
             if (callable != null) {
-                metrics.called();
                 if (log.isDebugEnabled()) {
                     log.debug("Calling {} for doc {}", enricherName, blobTextFromDoc.getId());
                 }
-                Collection<AIMetadata> result = null;
-                try {
-                    result = callProvider(record, callable);
-                } catch (CircuitBreakerOpenException e) {
-                    metrics.circuitBreaker();
-                    // The circuit break is open, throw NuxeoException, so it doesn't continue processing.
-                    throw new NuxeoException(
-                            "Stream circuit breaker for " + enricherName + ". Stopping processing the stream.");
-                } catch (FatalEnrichmentError fee) {
-                    metrics.fatal();
-                    // Fatal error so throw it to stop processing
-                    throw fee;
-                } catch (RuntimeException e) {
-                    // The error is logged by onFailedAttempt so just move on to the next record.
-                }
-
+                Collection<AIMetadata> result = safeCallProvider(record, callable);
                 if (result != null) {
-                    if (useCache && provider instanceof EnrichmentCachable) {
-                        EnrichmentCachable cachable = (EnrichmentCachable) provider;
-                        cachePut(cachable.getCacheKey(blobTextFromDoc), result, cachable.getTimeToLive());
-                    }
-                    List<Record> results = result.stream()
-                                                 .map(meta -> toRecord(meta.context.documentRef, meta))
-                                                 .collect(Collectors.toList());
-                    writeToStreams(context, results);
+                    handleResult(context, blobTextFromDoc, result);
                 }
             } else {
                 metrics.unsupported();
@@ -176,6 +213,25 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
             context.askForCheckpoint();
         }
 
+        /**
+         * Caches the result, if required, and writes it to the output streams.
+         */
+        protected void handleResult(ComputationContext context, BlobTextFromDocument blobTextFromDoc,
+                Collection<AIMetadata> result) {
+            if (useCache && provider instanceof EnrichmentCachable) {
+                EnrichmentCachable cachable = (EnrichmentCachable) provider;
+                cachePut(cachable.getCacheKey(blobTextFromDoc), result, cachable.getTimeToLive());
+            }
+            List<Record> results;
+            try (Timer.Context ignored = metrics.getSerializationTimer().time()) {
+                results = result.stream()
+                                .map(meta -> toRecord(meta.context.documentRef, meta, recordFormat))
+                                .collect(Collectors.toList());
+            }
+            results.forEach(r -> metrics.getRecordSize().update(r.getData().length));
+            writeToStreams(context, results);
+        }
+
         /**
          * Put an entry in the enrichment cache, specify the TTL in seconds.
          */
@@ -192,10 +248,33 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
             return EnrichmentUtils.cacheGet(cacheKey);
         }
 
+        /**
+         * Calls the provider, stopping the stream if the circuit breaker is open or a fatal error occurs. Any other
+         * error is logged and <code>null</code> is returned so processing can move on to the next record.
+         */
+        protected <T> T safeCallProvider(Object subject, Callable<T> callable) {
+            metrics.called();
+            try {
+                return callProvider(subject, callable);
+            } catch (CircuitBreakerOpenException e) {
+                metrics.circuitBreaker();
+                // The circuit break is open, throw NuxeoException, so it doesn't continue processing.
+                throw new NuxeoException(
+                        "Stream circuit breaker for " + enricherName + ". Stopping processing the stream.");
+            } catch (FatalEnrichmentError fee) {
+                metrics.fatal();
+                // Fatal error so throw it to stop processing
+                throw fee;
+            } catch (RuntimeException e) {
+                // The error is logged by onFailedAttempt so just move on to the next record.
+                return null;
+            }
+        }
+
         /**
          * Calls the provider using the retryPolicy
          */
-        protected Collection<AIMetadata> callProvider(Record record, Callable<Collection<AIMetadata>> callable) {
+        protected <T> T callProvider(Object subject, Callable<T> callable) {
             return Failsafe.with(retryPolicy).onSuccess(r -> {
                 metrics.success();
                 if (log.isDebugEnabled()) {
@@ -203,11 +282,11 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
                 }
             }).onFailedAttempt(failure -> {
                 metrics.error();
-                log.warn("Enrichment error ({}) for record: {} ", enricherName, record, failure);
+                log.warn("Enrichment error ({}) for record: {} ", enricherName, subject, failure);
             }).onRetry(c -> {
                 metrics.retry();
                 if (log.isDebugEnabled()) {
-                    log.debug("Retrying record " + record);
+                    log.debug("Retrying record " + subject);
                 }
             }).with(circuitBreaker).get(callable);
         }
@@ -217,33 +296,68 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
          * otherwise return null,
          */
         protected Callable<Collection<AIMetadata>> getProvider(BlobTextFromDocument blobTextFromDoc) {
+            Collection<AIMetadata> cached = getCachedMetadata(blobTextFromDoc);
+            if (cached != null) {
+                return () -> EnrichmentUtils.copyEnrichmentMetadata(cached, blobTextFromDoc);
+            }
+            if (!isSupported(blobTextFromDoc)) {
+                return null;
+            }
+            return () -> getAiMetadata(blobTextFromDoc);
+        }
+
+        /**
+         * Gets the metadata from the enrichment cache, returns null if caching isn't used or there is no entry.
+         */
+        protected Collection<AIMetadata> getCachedMetadata(BlobTextFromDocument blobTextFromDoc) {
             if (useCache && provider instanceof EnrichmentCachable) {
                 String cacheKey = ((EnrichmentCachable) provider).getCacheKey(blobTextFromDoc);
-                @SuppressWarnings("unchecked")
-                Collection<AIMetadata> metadata = (Collection<AIMetadata>) cacheGet(cacheKey);
-                if (!metadata.isEmpty()) {
+                Collection<? extends AIMetadata> cached;
+                try (Timer.Context ignored = metrics.getCacheTimer().time()) {
+                    cached = cacheGet(cacheKey);
+                }
+                if (!cached.isEmpty()) {
+                    @SuppressWarnings("unchecked")
+                    Collection<AIMetadata> metadata = (Collection<AIMetadata>) cached;
                     metrics.cacheHit();
-                    return () -> EnrichmentUtils.copyEnrichmentMetadata(metadata, blobTextFromDoc);
+                    return metadata;
                 }
             }
+            return null;
+        }
+
+        /**
+         * Checks the blob characteristics of the BlobTextFromDocument against the provider's EnrichmentSupport.
+         */
+        protected boolean isSupported(BlobTextFromDocument blobTextFromDoc) {
             if (!blobTextFromDoc.getBlobs().isEmpty() && enrichmentSupport != null) {
-                for (ManagedBlob blob : blobTextFromDoc.getBlobs().values()) {
-                    // Only checks if the first blob matches
-                    if (enrichmentSupport.supportsMimeType(blob.getMimeType()) && enrichmentSupport.supportsSize(
-                            blob.getLength())) {
-                        return () -> getAiMetadata(blobTextFromDoc);
-                    } else {
-                        log.info("{} does not support a blob with these characteristics {} {}", metadata.name(),
-                                blob.getMimeType(), blob.getLength());
-                        return null;
-                    }
+                // Only checks if the first blob matches
+                ManagedBlob blob = blobTextFromDoc.getBlobs().values().iterator().next();
+                if (!enrichmentSupport.supportsMimeType(blob.getMimeType()) || !enrichmentSupport.supportsSize(
+                        blob.getLength())) {
+                    log.info("{} does not support a blob with these characteristics {} {}", metadata.name(),
+                            blob.getMimeType(), blob.getLength());
+                    return false;
                 }
             }
-            return () -> getAiMetadata(blobTextFromDoc);
+            return true;
         }
 
         protected Collection<AIMetadata> getAiMetadata(BlobTextFromDocument blobTextFromDoc) {
-            return provider.enrich(blobTextFromDoc).stream().map(m -> (AIMetadata) m).collect(Collectors.toList());
+            Collection<EnrichmentMetadata> enriched;
+            try (Timer.Context ignored = metrics.getProviderTimer().time()) {
+                enriched = provider.enrich(blobTextFromDoc);
+            }
+            return enriched.stream().map(m -> (AIMetadata) m).collect(Collectors.toList());
+        }
+
+        /**
+         * Reads the BlobTextFromDocument from the record
+         */
+        protected BlobTextFromDocument readRecord(Record record) {
+            try (Timer.Context ignored = metrics.getSerializationTimer().time()) {
+                return fromRecord(record, BlobTextFromDocument.class);
+            }
         }
 
         @Override
@@ -265,102 +379,417 @@ public class EnrichingStreamProcessor implements StreamProcessorTopology {
     }
 
     /**
-     * Metrics about enrichment providers.
+     * An EnrichmentComputation that accumulates records until either <code>batchSize</code> records are received or
+     * <code>batchThreshold</code> milliseconds have passed, then enriches them with a single call to a
+     * BatchEnrichmentProvider. If the batch call fails each record is retried on its own so a single bad record doesn't
+     * fail the whole batch. The checkpoint is only requested once the batch is processed.
+     */
+    public static class BatchEnrichmentComputation extends EnrichmentComputation {
+
+        protected static final String TIMER_BATCH = "batch";
+
+        protected final int batchSize;
+
+        protected final long batchThreshold;
+
+        protected final List<Record> batch;
+
+        protected BatchEnrichmentProvider batchProvider;
+
+        public BatchEnrichmentComputation(int outputStreams, String computationName, String enricherName,
+                EnrichmentMetrics metrics, boolean useCache, int batchSize, long batchThreshold) {
+            super(outputStreams, computationName, enricherName, metrics, useCache);
+            this.batchSize = batchSize;
+            this.batchThreshold = batchThreshold;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        @Override
+        public void init(ComputationContext context) {
+            super.init(context);
+            if (provider instanceof BatchEnrichmentProvider) {
+                this.batchProvider = (BatchEnrichmentProvider) provider;
+            } else {
+                log.warn("{} is not a BatchEnrichmentProvider, records of {} will be enriched one by one.",
+                        enricherName, metadata.name());
+                this.batchProvider = null;
+            }
+        }
+
+        @Override
+        public void processRecord(ComputationContext context, String input, Record record) {
+            if (log.isDebugEnabled()) {
+                log.debug("Adding record {} to batch", record);
+            }
+            batch.add(record);
+            if (batch.size() >= batchSize) {
+                processBatch(context);
+            } else if (batch.size() == 1) {
+                context.setTimer(TIMER_BATCH, System.currentTimeMillis() + batchThreshold);
+            }
+        }
+
+        @Override
+        public void processTimer(ComputationContext context, String key, long timestamp) {
+            if (TIMER_BATCH.equals(key)) {
+                processBatch(context);
+            }
+        }
+
+        /**
+         * Enriches the current batch, records served by the cache or not supported by the provider are dealt with
+         * individually.
+         */
+        protected void processBatch(ComputationContext context) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Record> toEnrich = new ArrayList<>(batch.size());
+            List<BlobTextFromDocument> blobTexts = new ArrayList<>(batch.size());
+            for (Record record : batch) {
+                BlobTextFromDocument blobTextFromDoc = readRecord(record);
+                Collection<AIMetadata> cached = getCachedMetadata(blobTextFromDoc);
+                if (cached != null) {
+                    handleResult(context, blobTextFromDoc,
+                            EnrichmentUtils.copyEnrichmentMetadata(cached, blobTextFromDoc));
+                } else if (isSupported(blobTextFromDoc)) {
+                    toEnrich.add(record);
+                    blobTexts.add(blobTextFromDoc);
+                } else {
+                    metrics.unsupported();
+                    log.error("Unsupported call to {} for doc {}", enricherName, blobTextFromDoc.getId());
+                }
+            }
+
+            if (batchProvider != null && blobTexts.size() > 1) {
+                enrichBatch(context, toEnrich, blobTexts);
+            } else {
+                for (int i = 0; i < blobTexts.size(); i++) {
+                    enrichOne(context, toEnrich.get(i), blobTexts.get(i));
+                }
+            }
+
+            batch.clear();
+            context.askForCheckpoint();
+        }
+
+        /**
+         * Calls the BatchEnrichmentProvider once for all the documents, falls back to a call per document if the batch
+         * call fails.
+         */
+        protected void enrichBatch(ComputationContext context, List<Record> records,
+                List<BlobTextFromDocument> blobTexts) {
+            if (log.isDebugEnabled()) {
+                log.debug("Calling {} for a batch of {} docs", enricherName, blobTexts.size());
+            }
+            List<String> ids = blobTexts.stream().map(BlobTextFromDocument::getId).collect(Collectors.toList());
+            List<Collection<EnrichmentMetadata>> results = safeCallProvider(ids, () -> {
+                List<Collection<EnrichmentMetadata>> res;
+                try (Timer.Context ignored = metrics.getProviderTimer().time()) {
+                    res = batchProvider.enrich(blobTexts);
+                }
+                if (res == null || res.size() != blobTexts.size()) {
+                    throw new NuxeoException(String.format("%s returned %s results for a batch of %s", enricherName,
+                            res == null ? null : res.size(), blobTexts.size()));
+                }
+                return res;
+            });
+
+            if (results == null) {
+                log.warn("Batch enrichment failed for {}, enriching docs one by one {}", enricherName, ids);
+                for (int i = 0; i < blobTexts.size(); i++) {
+                    enrichOne(context, records.get(i), blobTexts.get(i));
+                }
+                return;
+            }
+
+            for (int i = 0; i < blobTexts.size(); i++) {
+                Collection<EnrichmentMetadata> result = results.get(i);
+                if (result != null) {
+                    handleResult(context, blobTexts.get(i), new ArrayList<>(result));
+                } else {
+                    metrics.error();
+                    log.warn("Enrichment error ({}) for doc {} of the batch", enricherName, ids.get(i));
+                }
+            }
+        }
+
+        /**
+         * Enriches a single document
+         */
+        protected void enrichOne(ComputationContext context, Record record, BlobTextFromDocument blobTextFromDoc) {
+            Collection<AIMetadata> result = safeCallProvider(record, () -> getAiMetadata(blobTextFromDoc));
+            if (result != null) {
+                handleResult(context, blobTextFromDoc, result);
+            }
+        }
+    }
+
+    /**
+     * An EnrichmentComputation that calls the provider asynchronously, with at most <code>maxInFlight</code> calls in
+     * progress. Results are written to the output streams in the order the records were received, a checkpoint is only
+     * requested once all the records received so far have completed. In-flight calls are also all completed every
+     * <code>drainThreshold</code> milliseconds so checkpoints happen regularly under a constant load.
+     */
+    public static class AsyncEnrichmentComputation extends EnrichmentComputation {
+
+        protected static final String TIMER_DRAIN = "drain";
+
+        protected final int maxInFlight;
+
+        protected final long drainThreshold;
+
+        protected final Deque<PendingEnrichment> pending = new ArrayDeque<>();
+
+        protected ExecutorService executor;
+
+        public AsyncEnrichmentComputation(int outputStreams, String computationName, String enricherName,
+                EnrichmentMetrics metrics, boolean useCache, int maxInFlight, long drainThreshold) {
+            super(outputStreams, computationName, enricherName, metrics, useCache);
+            this.maxInFlight = maxInFlight;
+            this.drainThreshold = drainThreshold;
+        }
+
+        @Override
+        public void init(ComputationContext context) {
+            super.init(context);
+            AtomicInteger count = new AtomicInteger();
+            String threadPrefix = metadata.name() + "-async-";
+            this.executor = Executors.newFixedThreadPool(maxInFlight, r -> {
+                Thread thread = new Thread(r, threadPrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public void processRecord(ComputationContext context, String input, Record record) {
+            if (log.isDebugEnabled()) {
+                log.debug("Processing record " + record);
+            }
+
+            BlobTextFromDocument blobTextFromDoc = readRecord(record);
+            Callable<Collection<AIMetadata>> callable = getProvider(blobTextFromDoc);
+            if (callable != null) {
+                // Waits for the oldest call when all the calls are in-flight
+                while (pending.size() >= maxInFlight) {
+                    complete(context, pending.poll());
+                }
+                if (pending.isEmpty()) {
+                    context.setTimer(TIMER_DRAIN, System.currentTimeMillis() + drainThreshold);
+                }
+                pending.add(new PendingEnrichment(blobTextFromDoc,
+                        CompletableFuture.supplyAsync(() -> safeCallProvider(record, callable), executor)));
+            } else {
+                metrics.unsupported();
+                log.error("Unsupported call to {} for doc {}", enricherName, blobTextFromDoc.getId());
+            }
+
+            // Emits the results of the completed calls in order
+            while (!pending.isEmpty() && pending.peek().future.isDone()) {
+                complete(context, pending.poll());
+            }
+            if (pending.isEmpty()) {
+                context.askForCheckpoint();
+            }
+        }
+
+        @Override
+        public void processTimer(ComputationContext context, String key, long timestamp) {
+            if (TIMER_DRAIN.equals(key) && !pending.isEmpty()) {
+                while (!pending.isEmpty()) {
+                    complete(context, pending.poll());
+                }
+                context.askForCheckpoint();
+            }
+        }
+
+        /**
+         * Waits for the enrichment call to complete and handles its result on the computation thread.
+         */
+        protected void complete(ComputationContext context, PendingEnrichment enrichment) {
+            Collection<AIMetadata> result;
+            try {
+                result = enrichment.future.join();
+            } catch (CompletionException e) {
+                // Stop the processing, the records that are still pending will be processed again.
+                pending.forEach(p -> p.future.cancel(true));
+                pending.clear();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new NuxeoException(e.getCause());
+            }
+            if (result != null) {
+                handleResult(context, enrichment.blobTextFromDoc, result);
+            }
+        }
+
+        @Override
+        public void destroy() {
+            super.destroy();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * An enrichment call in progress
+         */
+        protected static class PendingEnrichment {
+
+            protected final BlobTextFromDocument blobTextFromDoc;
+
+            protected final CompletableFuture<Collection<AIMetadata>> future;
+
+            protected PendingEnrichment(BlobTextFromDocument blobTextFromDoc,
+                    CompletableFuture<Collection<AIMetadata>> future) {
+                this.blobTextFromDoc = blobTextFromDoc;
+                this.future = future;
+            }
+        }
+    }
+
+    /**
+     * Metrics about enrichment providers. Counters are striped so they can be updated concurrently by the computation
+     * threads, latencies and sizes are recorded in the shared metric registry.
      */
     public static class EnrichmentMetrics extends NuxeoMetricSet {
 
-        protected long called = 0;
+        protected final LongAdder called = new LongAdder();
+
+        protected final LongAdder success = new LongAdder();
+
+        protected final LongAdder retries = new LongAdder();
+
+        protected final LongAdder errors = new LongAdder();
 
-        protected long success = 0;
+        protected final LongAdder fatal = new LongAdder();
 
-        protected long retries = 0;
+        protected final LongAdder circuitBreaker = new LongAdder();
 
-        protected long errors = 0;
+        protected final LongAdder unsupported = new LongAdder();
 
-        protected long fatal = 0;
+        protected final LongAdder produced = new LongAdder();
 
-        protected long circuitBreaker = 0;
+        protected final LongAdder cacheHit = new LongAdder();
 
-        protected long unsupported = 0;
+        protected final Timer providerTimer;
 
-        protected long produced = 0;
+        protected final Timer cacheTimer;
 
-        protected long cacheHit = 0;
+        protected final Timer serializationTimer;
+
+        protected final Histogram recordSize;
 
         public EnrichmentMetrics(String name) {
             super("nuxeo", "ai", "enrichment", name);
-            this.putGauge(() -> called, "called");
-            this.putGauge(() -> success, "success");
-            this.putGauge(() -> retries, "retries");
-            this.putGauge(() -> errors, "errors");
-            this.putGauge(() -> fatal, "fatal");
-            this.putGauge(() -> circuitBreaker, "circuitbreaker");
-            this.putGauge(() -> produced, "produced");
-            this.putGauge(() -> unsupported, "unsupported");
-            this.putGauge(() -> cacheHit, "cacheHit");
+            this.putGauge(called::sum, "called");
+            this.putGauge(success::sum, "success");
+            this.putGauge(retries::sum, "retries");
+            this.putGauge(errors::sum, "errors");
+            this.putGauge(fatal::sum, "fatal");
+            this.putGauge(circuitBreaker::sum, "circuitbreaker");
+            this.putGauge(produced::sum, "produced");
+            this.putGauge(unsupported::sum, "unsupported");
+            this.putGauge(cacheHit::sum, "cacheHit");
+            MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+            this.providerTimer = registry.timer(MetricRegistry.name("nuxeo.ai.enrichment", name, "providerTime"));
+            this.cacheTimer = registry.timer(MetricRegistry.name("nuxeo.ai.enrichment", name, "cacheTime"));
+            this.serializationTimer = registry.timer(
+                    MetricRegistry.name("nuxeo.ai.enrichment", name, "serializationTime"));
+            this.recordSize = registry.histogram(MetricRegistry.name("nuxeo.ai.enrichment", name, "recordSize"));
         }
 
         /**
          * Increment called
          */
         public void called() {
-            called++;
+            called.increment();
         }
 
         /**
          * Increment success
          */
         public void success() {
-            success++;
+            success.increment();
         }
 
         /**
          * Increment retries
          */
         public void retry() {
-            retries++;
+            retries.increment();
         }
 
         /**
          * Increment errors
          */
         public void error() {
-            errors++;
+            errors.increment();
         }
 
         /**
          * Increment fatal errors
          */
         public void fatal() {
-            fatal++;
+            fatal.increment();
         }
 
         /**
          * Increment circuit breakers
          */
         public void circuitBreaker() {
-            circuitBreaker++;
+            circuitBreaker.increment();
         }
 
         /**
          * Increment unsupported
          */
         public void unsupported() {
-            unsupported++;
+            unsupported.increment();
         }
 
         /**
          * Increment produced
          */
         public void produced() {
-            produced++;
+            produced.increment();
         }
 
         /**
          * Increment cacheHit
          */
         public void cacheHit() {
-            cacheHit++;
+            cacheHit.increment();
+        }
+
+        /**
+         * Latency of a call to the enrichment provider
+         */
+        public Timer getProviderTimer() {
+            return providerTimer;
+        }
+
+        /**
+         * Latency of an enrichment cache lookup
+         */
+        public Timer getCacheTimer() {
+            return cacheTimer;
+        }
+
+        /**
+         * Time spent reading and writing records
+         */
+        public Timer getSerializationTimer() {
+            return serializationTimer;
+        }
+
+        /**
+         * Size in bytes of the produced records
+         */
+        public Histogram getRecordSize() {
+            return recordSize;
         }
     }
 }
@@ -0,0 +1,244 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.enrichment;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.nuxeo.ai.pipes.services.JacksonUtil.mapperFor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ai.metadata.AIMetadata;
+import org.nuxeo.ai.pipes.services.JacksonUtil.RecordFormat;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.metrics.MetricsService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+
+/**
+ * A two level cache of enrichment results. A bounded in-memory cache, local to the node, sits in front of the
+ * {@value EnrichmentUtils#ENRICHMENT_CACHE_KV} KeyValueStore so hot entries are neither fetched nor deserialized again.
+ * <p>
+ * The in-memory cache is bounded by the serialized size of its entries. An entry expires with the TTL it was put with.
+ * Its expiry time is stored next to it in the KeyValueStore, an entry loaded from the KeyValueStore is kept in memory
+ * until then, at most for {@value #CACHE_MEMORY_TTL_CONF_VAR} seconds. Misses are also remembered for
+ * {@value #CACHE_MISS_TTL_CONF_VAR} seconds so repeated lookups of an unknown key don't go to the KeyValueStore.
+ * <p>
+ * Entries are stored in the KeyValueStore using the {@value #CACHE_FORMAT_CONF_VAR} format, JSON by default. Entries
+ * are read whatever their format, Smile should only be enabled once every node of the cluster can read it as nodes of
+ * previous versions fail to read Smile entries and remove them.
+ */
+public class EnrichmentCache {
+
+    public static final String CACHE_MAX_BYTES_CONF_VAR = "nuxeo.ai.enrichment.cache.memory.maxBytes";
+
+    public static final String CACHE_MEMORY_TTL_CONF_VAR = "nuxeo.ai.enrichment.cache.memory.ttl";
+
+    public static final String CACHE_MISS_TTL_CONF_VAR = "nuxeo.ai.enrichment.cache.memory.missTTL";
+
+    public static final String CACHE_FORMAT_CONF_VAR = "nuxeo.ai.enrichment.cache.format";
+
+    public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024;
+
+    public static final long DEFAULT_MEMORY_TTL_SEC = 300;
+
+    public static final long DEFAULT_MISS_TTL_SEC = 10;
+
+    // Suffix of the key of the expiry time of an entry, the entry itself keeps the format read by previous versions
+    protected static final String EXPIRES_SUFFIX = ":expires";
+
+    // Rough size of an entry without its data
+    protected static final int ENTRY_OVERHEAD = 64;
+
+    // Java 8 does not resolve rhv; keep for back compatibility
+    protected static final TypeReference<Collection<EnrichmentMetadata>> ENRICHMENT_LIST_TYPE = new TypeReference<Collection<EnrichmentMetadata>>() {
+    };
+
+    private static final Logger log = LogManager.getLogger(EnrichmentCache.class);
+
+    protected final Cache<String, Entry> memory;
+
+    protected final long memoryTTL;
+
+    protected final long missTTL;
+
+    protected final RecordFormat format;
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    protected final Counter evictions;
+
+    public EnrichmentCache() {
+        this(getLongProperty(CACHE_MAX_BYTES_CONF_VAR, DEFAULT_MAX_BYTES),
+                getLongProperty(CACHE_MEMORY_TTL_CONF_VAR, DEFAULT_MEMORY_TTL_SEC),
+                getLongProperty(CACHE_MISS_TTL_CONF_VAR, DEFAULT_MISS_TTL_SEC),
+                RecordFormat.of(Framework.getProperty(CACHE_FORMAT_CONF_VAR, RecordFormat.JSON.name())));
+    }
+
+    /**
+     * @param maxBytes the maximum serialized size of the in-memory entries
+     * @param memoryTTL TTL in seconds of the entries loaded from the KeyValueStore
+     * @param missTTL TTL in seconds of a miss, 0 to disable
+     * @param format the format used to store the entries in the KeyValueStore
+     */
+    public EnrichmentCache(long maxBytes, long memoryTTL, long missTTL, RecordFormat format) {
+        this.format = format;
+        this.memoryTTL = TimeUnit.SECONDS.toMillis(memoryTTL);
+        this.missTTL = TimeUnit.SECONDS.toMillis(missTTL);
+        this.memory = CacheBuilder.newBuilder()
+                                  .maximumWeight(maxBytes)
+                                  .weigher((String key, Entry entry) -> key.length() + entry.size)
+                                  .removalListener(this::onRemove)
+                                  .build();
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        this.hits = registry.counter(MetricRegistry.name("nuxeo.ai", "enrichmentCache", "hits"));
+        this.misses = registry.counter(MetricRegistry.name("nuxeo.ai", "enrichmentCache", "misses"));
+        this.evictions = registry.counter(MetricRegistry.name("nuxeo.ai", "enrichmentCache", "evictions"));
+    }
+
+    /**
+     * Get an entry from the cache, returns an empty collection if there is no entry.
+     */
+    public Collection<? extends AIMetadata> get(String cacheKey) {
+        if (isBlank(cacheKey)) {
+            return Collections.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = memory.getIfPresent(cacheKey);
+        if (entry != null) {
+            if (entry.expires > now) {
+                if (entry.metadata.isEmpty()) {
+                    misses.inc();
+                } else {
+                    hits.inc();
+                }
+                return entry.metadata;
+            }
+            memory.invalidate(cacheKey);
+        }
+
+        KeyValueStore kvStore = getKVS();
+        byte[] result = kvStore.get(cacheKey);
+        if (result != null) {
+            try {
+                Collection<EnrichmentMetadata> metadata = mapperFor(result).readValue(result, ENRICHMENT_LIST_TYPE);
+                Long expiresAt = kvStore.getLong(cacheKey + EXPIRES_SUFFIX);
+                long expires = expiresAt == null ? now + memoryTTL : Math.min(expiresAt, now + memoryTTL);
+                memory.put(cacheKey, new Entry(metadata, result.length, expires));
+                hits.inc();
+                return metadata;
+            } catch (IOException e) {
+                log.warn(String.format("Failed to read metadata from cache for key %s", cacheKey), e);
+                kvStore.put(cacheKey, (byte[]) null);
+                kvStore.put(cacheKey + EXPIRES_SUFFIX, (Long) null);
+            }
+        }
+        misses.inc();
+        if (missTTL > 0) {
+            memory.put(cacheKey, new Entry(Collections.emptyList(), 0, now + missTTL));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Put an entry in the cache, specify the TTL in seconds, 0 for an entry that doesn't expire.
+     */
+    public void put(String cacheKey, Collection<AIMetadata> metadata, long ttl) {
+        if (isNotBlank(cacheKey) && !metadata.isEmpty()) {
+            if (metadata.stream().allMatch(aiMetadata -> aiMetadata instanceof EnrichmentMetadata)) {
+                try {
+                    byte[] result = format.getMapper().writeValueAsBytes(metadata);
+                    if (result != null) {
+                        KeyValueStore kvStore = getKVS();
+                        kvStore.put(cacheKey, result, ttl);
+                        long now = System.currentTimeMillis();
+                        long expires;
+                        if (ttl > 0) {
+                            expires = now + TimeUnit.SECONDS.toMillis(ttl);
+                            kvStore.put(cacheKey + EXPIRES_SUFFIX, expires, ttl);
+                        } else {
+                            expires = now + memoryTTL;
+                            kvStore.put(cacheKey + EXPIRES_SUFFIX, (Long) null);
+                        }
+                        memory.put(cacheKey, new Entry(new ArrayList<>(metadata), result.length, expires));
+                    }
+                } catch (JsonProcessingException e) {
+                    log.warn(String.format("Failed to serialize metadata to cache for key %s", cacheKey), e);
+                }
+            } else {
+                log.warn("Caching is only currently supported for EnrichmentMetadata.");
+            }
+        }
+    }
+
+    /**
+     * Removes all the in-memory entries
+     */
+    public void clear() {
+        memory.invalidateAll();
+    }
+
+    protected static long getLongProperty(String key, long defaultValue) {
+        return Long.parseLong(Framework.getProperty(key, String.valueOf(defaultValue)));
+    }
+
+    protected KeyValueStore getKVS() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(EnrichmentUtils.ENRICHMENT_CACHE_KV);
+    }
+
+    protected void onRemove(RemovalNotification<String, Entry> notification) {
+        if (notification.wasEvicted()) {
+            evictions.inc();
+        }
+    }
+
+    /**
+     * An in-memory cache entry
+     */
+    protected static class Entry {
+
+        protected final Collection<? extends AIMetadata> metadata;
+
+        protected final int size;
+
+        protected final long expires;
+
+        protected Entry(Collection<? extends AIMetadata> metadata, int size, long expires) {
+            this.metadata = Collections.unmodifiableCollection(metadata);
+            this.size = ENTRY_OVERHEAD + size;
+            this.expires = expires;
+        }
+    }
+}
@@ -41,7 +41,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.metadata.AIMetadata;
-import org.nuxeo.ai.pipes.services.JacksonUtil;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
 import org.nuxeo.ai.services.AIComponent;
 import org.nuxeo.ecm.core.api.Blob;
@@ -57,10 +56,6 @@ import org.nuxeo.ecm.core.transientstore.api.TransientStore;
 import org.nuxeo.ecm.core.transientstore.api.TransientStoreService;
 import org.nuxeo.ecm.platform.picture.api.ImagingConvertConstants;
 import org.nuxeo.runtime.api.Framework;
-import org.nuxeo.runtime.kv.KeyValueService;
-import org.nuxeo.runtime.kv.KeyValueStore;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 
 /**
  * Helper methods for enrichment services
@@ -83,10 +78,6 @@ public class EnrichmentUtils {
 
     public static final String MIME_TYPE_TEXT = "text/plain";
 
-    // Java 8 does not resolve rhv; keep for back compatibility
-    protected static final TypeReference<Collection<EnrichmentMetadata>> ENRICHMENT_LIST_TYPE = new TypeReference<Collection<EnrichmentMetadata>>() {
-    };
-
     private static final Logger log = LogManager.getLogger(EnrichmentUtils.class);
 
     // Static Utility class
@@ -257,47 +248,21 @@ public class EnrichmentUtils {
     }
 
     /**
-     * Get an entry from the enrichment cache
+     * Get an entry from the enrichment cache, returns an empty collection if there is no entry.
      *
-     * @return
+     * @see EnrichmentCache
      */
     public static Collection<? extends AIMetadata> cacheGet(String cacheKey) {
-        if (isNotBlank(cacheKey)) {
-            KeyValueStore kvStore = Framework.getService(KeyValueService.class).getKeyValueStore(ENRICHMENT_CACHE_KV);
-            byte[] result = kvStore.get(cacheKey);
-            if (result != null) {
-                try {
-                    return JacksonUtil.MAPPER.readValue(result, ENRICHMENT_LIST_TYPE);
-                } catch (IOException e) {
-                    log.warn(String.format("Failed to read metadata from cache for key %s", cacheKey), e);
-                    kvStore.put(cacheKey, (byte[]) null);
-                }
-            }
-        }
-        return Collections.emptyList();
+        return Framework.getService(AIComponent.class).getEnrichmentCache().get(cacheKey);
     }
 
     /**
      * Put an entry in the enrichment cache, specify the TTL in seconds.
+     *
+     * @see EnrichmentCache
      */
     public static void cachePut(String cacheKey, Collection<AIMetadata> metadata, long ttl) {
-        if (isNotBlank(cacheKey)) {
-            KeyValueStore kvStore = Framework.getService(KeyValueService.class).getKeyValueStore(ENRICHMENT_CACHE_KV);
-            try {
-                if (!metadata.isEmpty()) {
-                    if (metadata.stream().allMatch(aiMetadata -> aiMetadata instanceof EnrichmentMetadata)) {
-                        byte[] result = JacksonUtil.MAPPER.writeValueAsBytes(metadata);
-                        if (result != null) {
-                            kvStore.put(cacheKey, result, ttl);
-                        }
-                    } else {
-                        log.warn("Caching is only currently supported for EnrichmentMetadata.");
-                    }
-                }
-            } catch (JsonProcessingException e) {
-                log.warn(String.format("Failed to serialize metadata to cache for key %s", cacheKey), e);
-            }
-        }
+        Framework.getService(AIComponent.class).getEnrichmentCache().put(cacheKey, metadata, ttl);
     }
 
     /**
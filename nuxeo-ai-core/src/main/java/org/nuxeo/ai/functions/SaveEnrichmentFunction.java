@@ -18,80 +18,221 @@
  */
 package org.nuxeo.ai.functions;
 
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static org.nuxeo.ai.pipes.services.JacksonUtil.fromRecord;
+import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.STREAM_IN;
+import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.STREAM_OUT;
+import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.buildName;
+import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.getStreamsList;
+import static org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.registerMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.enrichment.EnrichmentMetadata;
+import org.nuxeo.ai.pipes.streams.FunctionStreamProcessor.FunctionMetrics;
 import org.nuxeo.ai.services.DocMetadataService;
 import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentNotFoundException;
 import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.validation.DocumentValidationException;
 import org.nuxeo.ecm.core.api.validation.ValidationViolation;
+import org.nuxeo.lib.stream.computation.AbstractBatchComputation;
+import org.nuxeo.lib.stream.computation.ComputationContext;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.computation.Topology;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.transaction.TransactionHelper;
 
+import io.dropwizard.metrics5.Timer;
+
 /**
- * Saves enrichment metadata
+ * Saves enrichment metadata.
+ * <p>
+ * Records are processed in batches, the size and time window of a batch are set using the <code>batchCapacity</code>
+ * and <code>batchThreshold</code> of the stream processor policy. The metadata of a batch is grouped by document, each
+ * document is fetched and saved once, in a single transaction per repository. If that transaction fails the documents
+ * are saved one by one so a bad document doesn't prevent the others from being saved.
  */
 public class SaveEnrichmentFunction extends AbstractEnrichmentConsumer {
 
     private static final Logger log = LogManager.getLogger(SaveEnrichmentFunction.class);
 
     @Override
-    public void accept(EnrichmentMetadata metadata) {
-        TransactionHelper.runInTransaction(() -> CoreInstance.doPrivileged(metadata.context.repositoryName, session -> {
-            DocMetadataService docMetadataService = Framework.getService(DocMetadataService.class);
+    public Topology getTopology(Map<String, String> options) {
+        String streamIn = options.get(STREAM_IN);
+        String streamOut = options.get(STREAM_OUT);
+        List<String> streams = getStreamsList(streamIn, streamOut);
+        String computationName = buildName(getClass().getSimpleName(), streamIn, streamOut);
+        FunctionMetrics metrics = registerMetrics(new FunctionMetrics(computationName), computationName);
+        return Topology.builder()
+                       .addComputation(
+                               () -> new SaveEnrichmentComputation(streams.size() - 1, computationName, metrics, this),
+                               streams)
+                       .build();
+    }
 
-            log.debug("Saving enrichment for document {}.", metadata.context.documentRef);
-            DocumentModel doc = docMetadataService.saveEnrichment(session, metadata);
+    @Override
+    public void accept(EnrichmentMetadata metadata) {
+        saveAll(singletonList(metadata));
+    }
 
-            if (doc == null) {
-                log.warn("Failed to save enrichment for document {}.", metadata.context.documentRef);
-                return null;
+    /**
+     * Saves all the metadata, each document is only saved once. The documents of a repository are saved in a single
+     * transaction, if it fails each document is saved again in its own transaction and only the documents failing on
+     * their own are skipped.
+     *
+     * @return the references of the documents whose metadata could not be saved
+     */
+    public List<String> saveAll(List<EnrichmentMetadata> metadata) {
+        Map<String, List<EnrichmentMetadata>> byRepository = metadata.stream()
+                                                                     .collect(groupingBy(m -> m.context.repositoryName,
+                                                                             LinkedHashMap::new, toList()));
+        List<String> failed = new ArrayList<>();
+        byRepository.forEach((repositoryName, repositoryMetadata) -> {
+            Map<String, List<EnrichmentMetadata>> byDoc = repositoryMetadata.stream()
+                                                                            .collect(groupingBy(
+                                                                                    m -> m.context.documentRef,
+                                                                                    LinkedHashMap::new, toList()));
+            try {
+                save(repositoryName, byDoc);
+                return;
+            } catch (NuxeoException e) {
+                if (byDoc.size() == 1) {
+                    throw e;
+                }
+                log.warn("Could not save the enrichment of {} documents together, saving them one by one",
+                        byDoc.size(), e);
             }
+            byDoc.forEach((docRef, docMetadata) -> {
+                try {
+                    save(repositoryName, singletonMap(docRef, docMetadata));
+                } catch (NuxeoException e) {
+                    log.error("Failed to save {} enrichment(s) for document {}.", docMetadata.size(), docRef, e);
+                    failed.add(docRef);
+                }
+            });
+        });
+        return failed;
+    }
+
+    /**
+     * Saves the metadata of the documents in a new transaction
+     */
+    protected void save(String repositoryName, Map<String, List<EnrichmentMetadata>> byDoc) {
+        TransactionHelper.runInNewTransaction(() -> CoreInstance.doPrivileged(repositoryName, session -> {
+            byDoc.forEach((docRef, docMetadata) -> save(session, docRef, docMetadata));
+            return null;
+        }));
+    }
 
-            log.debug("Checking if the document is checked out and if a base version exists for the document {}.",
+    /**
+     * Merges the metadata into the document then saves it
+     */
+    protected void save(CoreSession session, String documentRef, List<EnrichmentMetadata> metadata) {
+        DocMetadataService docMetadataService = Framework.getService(DocMetadataService.class);
+
+        log.debug("Saving {} enrichment(s) for document {}.", metadata.size(), documentRef);
+        DocumentModel doc;
+        try {
+            doc = session.getDocument(new IdRef(documentRef));
+        } catch (DocumentNotFoundException e) {
+            log.warn("Failed to save enrichment for missing document {}.", documentRef);
+            return;
+        }
+
+        doc = docMetadataService.saveEnrichments(doc, metadata);
+
+        log.debug("Checking if the document is checked out and if a base version exists for the document {}.",
+                doc.getId());
+
+        DocumentRef baseVersionRef = session.getBaseVersion(doc.getRef());
+
+        if (baseVersionRef == null && !doc.isCheckedOut()) {
+            log.error("Failed to save enrichment for document {}. The document is corrupt and requires a "
+                            + "manual intervention to be fixed. The document is not checked out and no base version was found.",
                     doc.getId());
+            return;
+        }
 
-            DocumentRef baseVersionRef = session.getBaseVersion(doc.getRef());
+        if (doc.isImmutable()) {
+            log.error("Attempt to write into an Immutable Document Model id: {}, AI Model name {}", doc.getId(),
+                    metadata.get(0).getModelName());
+            return;
+        }
 
-            if (baseVersionRef == null && !doc.isCheckedOut()) {
-                log.error("Failed to save enrichment for document {}. The document is corrupt and requires a "
-                                + "manual intervention to be fixed. The document is not checked out and no base version was found.",
-                        doc.getId());
-                return null;
+        try {
+            log.debug("Saving enrichment for document {}.", doc.getId());
+            session.saveDocument(doc);
+            log.debug("Enrichment for document {} was successfully saved.", doc.getId());
+        } catch (DocumentValidationException e) {
+            log.warn("Failed to save document enrichment data for {}; error: {}", documentRef, e.getMessage());
+            if (log.isDebugEnabled()) {
+                // log field violations
+                List<ValidationViolation> violations = e.getReport().asList();
+                for (ValidationViolation violation : violations) {
+                    log.debug("Violation message: {}, Violation message key: {}",
+                            violation.getMessage(new Locale("en")), violation.getMessageKey());
+                }
             }
+        } catch (Exception e) {
+            log.error("An unexpected exception occurred saving enrichment for document with id {}; error: {}",
+                    doc.getId(), e.getMessage());
+            throw e;
+        }
+    }
 
-            if (doc.isImmutable()) {
-                log.error("Attempt to write into an Immutable Document Model id: {}, AI Model name {}", doc.getId(),
-                        metadata.getModelName());
-                return null;
-            }
+    /**
+     * A Computation that saves the enrichment metadata of a batch of records.
+     */
+    public static class SaveEnrichmentComputation extends AbstractBatchComputation {
 
-            try {
-                log.debug("Saving enrichment for document {}.", doc.getId());
-                session.saveDocument(doc);
-                log.debug("Enrichment for document {} was successfully saved.", doc.getId());
-            } catch (DocumentValidationException e) {
-                log.warn("Failed to save document enrichment data for {}; error: {}", metadata.context.documentRef,
-                        e.getMessage());
-                if (log.isDebugEnabled()) {
-                    // log field violations
-                    List<ValidationViolation> violations = e.getReport().asList();
-                    for (ValidationViolation violation : violations) {
-                        log.debug("Violation message: {}, Violation message key: {}",
-                                violation.getMessage(new Locale("en")), violation.getMessageKey());
-                    }
-                }
-            } catch (Exception e) {
-                log.error("An unexpected exception occurred saving enrichment for document with id {}; error: {}",
-                        doc.getId(), e.getMessage());
-                throw e;
+        protected final FunctionMetrics metrics;
+
+        protected final SaveEnrichmentFunction function;
+
+        public SaveEnrichmentComputation(int outputStreams, String name, FunctionMetrics metrics,
+                SaveEnrichmentFunction function) {
+            super(name, 1, outputStreams);
+            this.metrics = metrics;
+            this.function = function;
+        }
+
+        @Override
+        public void batchProcess(ComputationContext context, String inputStreamName, List<Record> records) {
+            List<EnrichmentMetadata> metadata = records.stream()
+                                                       .map(r -> fromRecord(r, EnrichmentMetadata.class))
+                                                       .filter(Objects::nonNull)
+                                                       .collect(toList());
+            records.forEach(r -> metrics.called());
+            List<String> failed;
+            try (Timer.Context ignored = metrics.getFunctionTimer().time()) {
+                failed = function.saveAll(metadata);
+            } catch (NuxeoException e) {
+                log.debug("Problem with a batch of {} records. Error is {}.", records.size(), e.getMessage());
+                metrics.error();
+                throw e; // Throw the error so it can be retried higher up the stack.
             }
+            failed.forEach(docRef -> metrics.error());
+            context.askForCheckpoint();
+        }
 
-            return null;
-        }));
+        @Override
+        public void batchFailure(ComputationContext context, String inputStreamName, List<Record> records) {
+            log.warn("Failed to save the enrichment of a batch of {} records for {}.", records.size(),
+                    metadata.name());
+        }
     }
 }
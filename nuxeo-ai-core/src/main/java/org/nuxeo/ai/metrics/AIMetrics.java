@@ -20,6 +20,7 @@ package org.nuxeo.ai.metrics;
 
 import org.nuxeo.runtime.metrics.MetricsService;
 
+import io.dropwizard.metrics5.Counter;
 import io.dropwizard.metrics5.MetricRegistry;
 import io.dropwizard.metrics5.SharedMetricRegistries;
 import io.dropwizard.metrics5.Timer;
@@ -35,6 +36,12 @@ public class AIMetrics {
 
     protected Timer insightPreConversionTime;
 
+    protected Counter suggestionTimeouts;
+
+    protected Counter suggestionErrors;
+
+    protected Counter suggestionRejections;
+
     /**
      * Method register metrics within shared registry of ${@link MetricRegistry}
      */
@@ -43,6 +50,10 @@ public class AIMetrics {
         // Insight
         insightPredictionTime = registry.timer(MetricRegistry.name(basicName, "insightPredictionTime"));
         insightPreConversionTime = registry.timer(MetricRegistry.name(basicName, "insightPreConversionTime"));
+        // Suggestions
+        suggestionTimeouts = registry.counter(MetricRegistry.name(basicName, "suggestionTimeouts"));
+        suggestionErrors = registry.counter(MetricRegistry.name(basicName, "suggestionErrors"));
+        suggestionRejections = registry.counter(MetricRegistry.name(basicName, "suggestionRejections"));
     }
 
     public Timer getInsightPredictionTime() {
@@ -53,6 +64,27 @@ public class AIMetrics {
         return insightPreConversionTime;
     }
 
+    /**
+     * Counts the models that did not return a suggestion before the deadline
+     */
+    public Counter getSuggestionTimeouts() {
+        return suggestionTimeouts;
+    }
+
+    /**
+     * Counts the models that failed to return a suggestion
+     */
+    public Counter getSuggestionErrors() {
+        return suggestionErrors;
+    }
+
+    /**
+     * Counts the models that were not called because all the prediction threads were busy
+     */
+    public Counter getSuggestionRejections() {
+        return suggestionRejections;
+    }
+
     /**
      * Method removes all class defined metrics from shared registry of ${@link MetricRegistry}
      */
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.apache.commons.io.IOUtils;
@@ -63,6 +64,8 @@ public class RestClient implements AutoCloseable {
 
     public static final String OPTION_DEFAULT_HEADERS = "headers.default";
 
+    public static final String OPTION_POOLED = "pooled";
+
     private static final Log log = LogFactory.getLog(RestClient.class);
 
     protected final String method;
@@ -75,6 +78,8 @@ public class RestClient implements AutoCloseable {
 
     protected final URI uri;
 
+    protected final boolean pooled;
+
     protected CloseableHttpClient client;
 
     /**
@@ -85,7 +90,12 @@ public class RestClient implements AutoCloseable {
     }
 
     /**
-     * Create a rest client with the specified options and a prefix that will be used when getting the options
+     * Create a rest client with the specified options and a prefix that will be used when getting the options.
+     * <p>
+     * The client uses the shared {@link RestConnectionPool} unless the {@value #OPTION_POOLED} option is false. When a
+     * {@code clientBuilderFunc} is given the option defaults to false: a builder with a connection manager ignores the
+     * SSL context, socket factory and connection manager the function may set. Set the option to true to share the
+     * pool when the function doesn't customize the connections.
      */
     public RestClient(Map<String, String> options, String optionPrefix,
             Function<HttpClientBuilder, CloseableHttpClient> clientBuilderFunc) {
@@ -103,13 +113,21 @@ public class RestClient implements AutoCloseable {
             headers.addAll(getDefaultHeaders());
         }
         headers.addAll(getHeaderOptions(options, optionPrefix));
-        HttpClientBuilder clientBuilder = HttpClientBuilder.create();
+        String pooledDefault = String.valueOf(clientBuilderFunc == null);
+        pooled = Boolean.parseBoolean(options.getOrDefault(optionPrefix + OPTION_POOLED, pooledDefault));
+        HttpClientBuilder clientBuilder;
+        if (pooled) {
+            clientBuilder = RestConnectionPool.get().newClientBuilder();
+        } else {
+            clientBuilder = HttpClientBuilder.create();
+        }
         client = clientBuilderFunc != null ? clientBuilderFunc.apply(clientBuilder) : clientBuilder.build();
     }
 
     /**
      * Checks to see if the uri specified returns successfully
      * You can specify an optional prefix for the url options.
+     * The check uses the shared connection pool so no connection is created if one is available.
      */
     public static boolean isLive(Map<String, String> options, String prefix) {
         try (RestClient restClient = new RestClient(options, prefix, null)) {
@@ -159,6 +177,16 @@ public class RestClient implements AutoCloseable {
         return null;
     }
 
+    /**
+     * Make the http request asynchronously, using the executor of the shared {@link RestConnectionPool}.
+     * The number of requests really in progress is limited by the size of the connection pool.
+     */
+    public <T> CompletableFuture<T> callAsync(Function<RequestBuilder, HttpUriRequest> requestBuilderFunc,
+            ResponseHandler<T> handler) {
+        return CompletableFuture.supplyAsync(() -> call(requestBuilderFunc, handler),
+                RestConnectionPool.get().getExecutor());
+    }
+
     protected CloseableHttpClient getClient() {
         return client;
     }
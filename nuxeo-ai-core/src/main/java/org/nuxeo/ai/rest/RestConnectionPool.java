@@ -0,0 +1,186 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.rest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * A pool of http connections shared by all the RestClients of the node, so the number of connections to a remote
+ * service is not limited by the small default pool of each client.
+ * <p>
+ * The pool is created on first use with the <code>nuxeo.ai.rest.*</code> configuration properties and closed when
+ * the AI component stops. It also provides the executor used by {@link RestClient#callAsync}. No timeout is set unless
+ * one is configured.
+ */
+public class RestConnectionPool {
+
+    public static final String POOL_MAX_TOTAL_CONF_VAR = "nuxeo.ai.rest.pool.maxTotal";
+
+    public static final String POOL_MAX_PER_ROUTE_CONF_VAR = "nuxeo.ai.rest.pool.maxPerRoute";
+
+    public static final String POOL_KEEP_ALIVE_CONF_VAR = "nuxeo.ai.rest.pool.keepAliveMs";
+
+    public static final String CONNECT_TIMEOUT_CONF_VAR = "nuxeo.ai.rest.connectTimeoutMs";
+
+    public static final String SOCKET_TIMEOUT_CONF_VAR = "nuxeo.ai.rest.socketTimeoutMs";
+
+    public static final String LEASE_TIMEOUT_CONF_VAR = "nuxeo.ai.rest.pool.leaseTimeoutMs";
+
+    public static final String ASYNC_THREADS_CONF_VAR = "nuxeo.ai.rest.async.threads";
+
+    public static final int DEFAULT_MAX_TOTAL = 200;
+
+    public static final int DEFAULT_MAX_PER_ROUTE = 50;
+
+    public static final int DEFAULT_KEEP_ALIVE_MS = 30_000;
+
+    // A negative timeout is not set, the http client waits indefinitely
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = -1;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT_MS = -1;
+
+    public static final int DEFAULT_LEASE_TIMEOUT_MS = -1;
+
+    public static final int DEFAULT_ASYNC_THREADS = 16;
+
+    // Check a connection is still open if it was idle for longer than this
+    protected static final int VALIDATE_AFTER_INACTIVITY_MS = 2_000;
+
+    private static volatile RestConnectionPool instance;
+
+    protected final PoolingHttpClientConnectionManager connectionManager;
+
+    protected final RequestConfig requestConfig;
+
+    protected final ConnectionKeepAliveStrategy keepAliveStrategy;
+
+    protected final ExecutorService executor;
+
+    /**
+     * @param connectTimeoutMs timeout to connect to the remote service, negative for no timeout
+     * @param socketTimeoutMs timeout waiting for data from the remote service, negative for no timeout
+     * @param leaseTimeoutMs timeout to get a connection from the pool, negative for no timeout
+     */
+    public RestConnectionPool(int maxTotal, int maxPerRoute, long keepAliveMs, int connectTimeoutMs,
+            int socketTimeoutMs, int leaseTimeoutMs, int asyncThreads) {
+        connectionManager = new PoolingHttpClientConnectionManager(keepAliveMs, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MS);
+        requestConfig = RequestConfig.custom()
+                                     .setConnectTimeout(connectTimeoutMs)
+                                     .setConnectionRequestTimeout(leaseTimeoutMs)
+                                     .setSocketTimeout(socketTimeoutMs)
+                                     .build();
+        keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? Math.min(keepAlive, keepAliveMs) : keepAliveMs;
+        };
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(asyncThreads, runnable -> {
+            Thread thread = new Thread(runnable, "ai-rest-async-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the pool of the node, creating it if needed
+     */
+    public static RestConnectionPool get() {
+        RestConnectionPool pool = instance;
+        if (pool == null) {
+            synchronized (RestConnectionPool.class) {
+                pool = instance;
+                if (pool == null) {
+                    pool = new RestConnectionPool(getIntProperty(POOL_MAX_TOTAL_CONF_VAR, DEFAULT_MAX_TOTAL),
+                            getIntProperty(POOL_MAX_PER_ROUTE_CONF_VAR, DEFAULT_MAX_PER_ROUTE),
+                            getIntProperty(POOL_KEEP_ALIVE_CONF_VAR, DEFAULT_KEEP_ALIVE_MS),
+                            getIntProperty(CONNECT_TIMEOUT_CONF_VAR, DEFAULT_CONNECT_TIMEOUT_MS),
+                            getIntProperty(SOCKET_TIMEOUT_CONF_VAR, DEFAULT_SOCKET_TIMEOUT_MS),
+                            getIntProperty(LEASE_TIMEOUT_CONF_VAR, DEFAULT_LEASE_TIMEOUT_MS),
+                            getIntProperty(ASYNC_THREADS_CONF_VAR, DEFAULT_ASYNC_THREADS));
+                    instance = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Closes the pool of the node if it was created, a new one is created on next use.
+     */
+    public static void shutdown() {
+        synchronized (RestConnectionPool.class) {
+            if (instance != null) {
+                instance.close();
+                instance = null;
+            }
+        }
+    }
+
+    /**
+     * Closes the shared connections and stops the executor
+     */
+    public void close() {
+        executor.shutdown();
+        connectionManager.close();
+    }
+
+    protected static int getIntProperty(String key, int defaultValue) {
+        if (Framework.getRuntime() == null) {
+            return defaultValue;
+        }
+        return Integer.parseInt(Framework.getProperty(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * A client builder using the shared connections, closing the built client doesn't close the pool.
+     */
+    public HttpClientBuilder newClientBuilder() {
+        return HttpClientBuilder.create()
+                                .setConnectionManager(connectionManager)
+                                .setConnectionManagerShared(true)
+                                .setKeepAliveStrategy(keepAliveStrategy)
+                                .setDefaultRequestConfig(requestConfig);
+    }
+
+    /**
+     * The executor used for asynchronous calls
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * The shared connection manager
+     */
+    public PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -66,19 +67,36 @@ public abstract class RestEnrichmentProvider extends AbstractEnrichmentProvider
 
     @Override
     public Collection<EnrichmentMetadata> enrich(BlobTextFromDocument blobTextFromDoc) {
-        return client.call(builder -> prepareRequest(builder, blobTextFromDoc), response -> {
-            int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode < 200 || statusCode >= 300) {
-                log.warn(String.format("Unsuccessful call to rest api %s, status is %d", client.uri.toString(),
-                        statusCode));
-                return Collections.emptyList();
-            } else {
-                return handleResponse(response, blobTextFromDoc);
-            }
-        });
+        return client.call(builder -> prepareRequest(builder, blobTextFromDoc),
+                response -> handleStatus(response, blobTextFromDoc));
 
     }
 
+    /**
+     * Enriches asynchronously so several requests can be in progress at the same time.
+     *
+     * @since 3.5
+     */
+    public CompletableFuture<Collection<EnrichmentMetadata>> enrichAsync(BlobTextFromDocument blobTextFromDoc) {
+        return client.callAsync(builder -> prepareRequest(builder, blobTextFromDoc),
+                response -> handleStatus(response, blobTextFromDoc));
+    }
+
+    /**
+     * Checks the response status then handles the response
+     */
+    protected Collection<EnrichmentMetadata> handleStatus(HttpResponse response,
+            BlobTextFromDocument blobTextFromDoc) {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            log.warn(String.format("Unsuccessful call to rest api %s, status is %d", client.uri.toString(),
+                    statusCode));
+            return Collections.emptyList();
+        } else {
+            return handleResponse(response, blobTextFromDoc);
+        }
+    }
+
     /**
      * Prepare the request prior to calling
      */
@@ -23,10 +23,12 @@ import static org.nuxeo.ai.AIConstants.AI_KIND_DIRECTORY;
 
 import org.nuxeo.ai.bulk.RecordWriter;
 import org.nuxeo.ai.bulk.RecordWriterDescriptor;
+import org.nuxeo.ai.enrichment.EnrichmentCache;
 import org.nuxeo.ai.enrichment.EnrichmentDescriptor;
 import org.nuxeo.ai.enrichment.EnrichmentProvider;
 import org.nuxeo.ai.enrichment.EnrichmentSupport;
 import org.nuxeo.ai.metrics.AIMetrics;
+import org.nuxeo.ai.rest.RestConnectionPool;
 import org.nuxeo.ecm.core.schema.types.resolver.ObjectResolverService;
 import org.nuxeo.ecm.core.transientstore.api.TransientStore;
 import org.nuxeo.ecm.core.transientstore.api.TransientStoreService;
@@ -72,6 +74,8 @@ public class AIComponent extends DefaultComponent {
 
     protected DirectoryEntryResolver kindResolver;
 
+    protected EnrichmentCache enrichmentCache;
+
     @Override
     public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
         if (ENRICHMENT_XP.equals(extensionPoint)) {
@@ -99,6 +103,7 @@ public class AIComponent extends DefaultComponent {
     public void start(ComponentContext context) {
         super.start(context);
         metrics.register();
+        enrichmentCache = new EnrichmentCache();
         getKindResolver();
         enrichmentConfigs.values()
                          .forEach(descriptor -> {
@@ -120,6 +125,16 @@ public class AIComponent extends DefaultComponent {
     public void stop(ComponentContext context) throws InterruptedException {
         super.stop(context);
         metrics.unregister();
+        if (enrichmentCache != null) {
+            enrichmentCache.clear();
+            enrichmentCache = null;
+        }
+        // The providers are initialized again on start, their rest clients must not use the closed connections
+        enrichmentProviders.clear();
+        RestConnectionPool.shutdown();
+        // The writers are created again on start, the files they keep open are closed
+        writers.values().forEach(RecordWriter::close);
+        writers.clear();
     }
 
     /**
@@ -129,6 +144,13 @@ public class AIComponent extends DefaultComponent {
         return metrics;
     }
 
+    /**
+     * @return the enrichment cache of this node
+     */
+    public EnrichmentCache getEnrichmentCache() {
+        return enrichmentCache;
+    }
+
     /**
      * Initialize an enrichment descriptor
      */
@@ -40,6 +40,22 @@ public interface DocMetadataService {
      */
     DocumentModel saveEnrichment(CoreSession session, EnrichmentMetadata metadata);
 
+    /**
+     * Merges the enrichment metadata into the provided document and returns it, the document is not saved. Use it to
+     * apply several enrichments to a document that has already been fetched.
+     *
+     * @since 3.5
+     */
+    DocumentModel saveEnrichment(DocumentModel doc, EnrichmentMetadata metadata);
+
+    /**
+     * Merges several enrichment metadata into the provided document and returns it, the document is not saved. The
+     * existing enrichment entries are only read once for all the metadata.
+     *
+     * @since 3.5
+     */
+    DocumentModel saveEnrichments(DocumentModel doc, List<EnrichmentMetadata> metadata);
+
     /**
      * Sets the document properties for autofill/auto correct and history information.
      */
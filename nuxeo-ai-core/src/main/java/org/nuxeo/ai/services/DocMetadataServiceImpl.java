@@ -21,6 +21,7 @@ package org.nuxeo.ai.services;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_FACET;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_INPUT_DOCPROP_PROPERTY;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_ITEMS;
+import static org.nuxeo.ai.AIConstants.ENRICHMENT_ITEMS_PROP;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_MODEL;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_SCHEMA_NAME;
 import static org.nuxeo.ai.AIConstants.SUGGESTION_PROPERTY;
@@ -59,6 +60,7 @@ import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.event.CoreEventConstants;
 import org.nuxeo.ecm.core.api.model.Property;
 import org.nuxeo.ecm.core.api.model.PropertyNotFoundException;
+import org.nuxeo.ecm.core.api.model.impl.ListProperty;
 import org.nuxeo.ecm.core.event.EventService;
 import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
 import org.nuxeo.ecm.platform.audit.api.AuditLogger;
@@ -111,30 +113,89 @@ public class DocMetadataServiceImpl extends DefaultComponent implements DocMetad
             log.warn("Unable to save enrichment data for missing doc {}", metadata.context.documentRef);
             return null;
         }
+        return saveEnrichment(doc, metadata);
+    }
+
+    @Override
+    public DocumentModel saveEnrichment(DocumentModel doc, EnrichmentMetadata metadata) {
+        return saveEnrichments(doc, Collections.singletonList(metadata));
+    }
 
-        Map<String, Object> anItem = metadata.toMap();
-        if (anItem != null) {
+    @Override
+    public DocumentModel saveEnrichments(DocumentModel doc, List<EnrichmentMetadata> metadata) {
+        Map<String, Integer> index = null;
+        for (EnrichmentMetadata enrichment : metadata) {
+            Map<String, Object> anItem = enrichment.toMap();
+            if (anItem == null) {
+                continue;
+            }
             if (!doc.hasFacet(ENRICHMENT_FACET)) {
                 doc.addFacet(ENRICHMENT_FACET);
             }
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> enrichmentList = (List<Map<String, Object>>) doc.getProperty(
-                    ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS);
-            if (enrichmentList == null) {
-                enrichmentList = new ArrayList<>(1);
+            ListProperty items = (ListProperty) doc.getProperty(ENRICHMENT_ITEMS_PROP);
+            if (index == null) {
+                index = indexEnrichments(items);
             }
-            Collection<Map<String, Object>> allEnriched = updateEnrichment(enrichmentList, anItem);
-            doc.setProperty(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS, allEnriched);
+            upsertEnrichment(items, index, anItem);
             doc.putContextData(ENRICHMENT_ADDED, Boolean.TRUE);
             doc.putContextData(ALLOW_VERSION_WRITE, Boolean.FALSE);
-            raiseEvent(doc, ENRICHMENT_MODIFIED, null, metadata.getModelName());
+            raiseEvent(doc, ENRICHMENT_MODIFIED, null, enrichment.getModelName());
         }
         return doc;
     }
 
+    /**
+     * Updates the enrichment list in place, ensures we have one enrichment entry per model/version and input.
+     *
+     * @since 3.5
+     */
+    protected void upsertEnrichment(Property enrichmentList, Map<String, Object> item) {
+        ListProperty items = (ListProperty) enrichmentList;
+        upsertEnrichment(items, indexEnrichments(items), item);
+    }
+
+    /**
+     * Replaces the entry of the index having the same model/version and input as the item, or appends the item and
+     * adds it to the index.
+     *
+     * @param index the positions of the entries by their unique key, see {@link #indexEnrichments(ListProperty)}
+     * @since 3.5
+     */
+    protected void upsertEnrichment(ListProperty items, Map<String, Integer> index, Map<String, Object> item) {
+        String key = uniqueKey(item);
+        Integer position = index.get(key);
+        if (position != null) {
+            // Replace every field so values missing from the new item are cleared
+            for (Property field : items.get(position).getChildren()) {
+                field.setValue(item.get(field.getName()));
+            }
+        } else {
+            items.addValue(item);
+            index.put(key, items.size() - 1);
+        }
+    }
+
+    /**
+     * Indexes the positions of the enrichment entries by their unique key, only their model and input are read.
+     *
+     * @since 3.5
+     */
+    protected Map<String, Integer> indexEnrichments(ListProperty items) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            Property existing = items.get(i);
+            index.put(uniqueKey(existing.getValue(ENRICHMENT_MODEL),
+                    existing.getValue(ENRICHMENT_INPUT_DOCPROP_PROPERTY)), i);
+        }
+        return index;
+    }
+
     /**
      * Updates enrichment, ensures we have one enrichment entry per model/version and input
+     *
+     * @deprecated since 3.5, rewrites the whole list, use {@link #upsertEnrichment(Property, Map)}
      */
+    @Deprecated
     protected Collection<Map<String, Object>> updateEnrichment(List<Map<String, Object>> original,
             Map<String, Object> item) {
         Map<String, Map<String, Object>> enrichmentByKey = new HashMap<>();
@@ -146,17 +207,20 @@ public class DocMetadataServiceImpl extends DefaultComponent implements DocMetad
     /**
      * Generate a unique key for a model/version/input combination
      */
-    @SuppressWarnings("unchecked")
     protected String uniqueKey(Map<String, Object> suggestion) {
+        return uniqueKey(suggestion.get(ENRICHMENT_MODEL), suggestion.get(ENRICHMENT_INPUT_DOCPROP_PROPERTY));
+    }
+
+    @SuppressWarnings("unchecked")
+    protected String uniqueKey(Object model, Object inputs) {
         String input = "";
-        Object inputs = suggestion.get(ENRICHMENT_INPUT_DOCPROP_PROPERTY);
         // This is a little big strange, but it adapts to the type and calls the correct join method.
         if (inputs instanceof Set) {
             input = String.join(";", (Set<String>) inputs);
         } else if (inputs instanceof String[]) {
             input = String.join(";", (String[]) inputs);
         }
-        return suggestion.get(ENRICHMENT_MODEL) + input;
+        return model + input;
     }
 
     @Override
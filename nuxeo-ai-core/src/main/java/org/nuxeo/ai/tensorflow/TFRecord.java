@@ -22,6 +22,7 @@ package org.nuxeo.ai.tensorflow;
 import static com.google.protobuf.WireFormat.WIRETYPE_LENGTH_DELIMITED;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import org.apache.commons.lang3.StringUtils;
 import org.nuxeo.ecm.core.api.NuxeoException;
@@ -187,6 +188,18 @@ public class TFRecord extends GeneratedMessageV3 implements MessageOrBuilder {
         return PARSER.parsePartialFrom(bytes);
     }
 
+    /**
+     * Deserialization method reading the remaining bytes of the buffer without copying them, the position of the
+     * buffer is not changed.
+     *
+     * @param buffer to restore the object
+     * @return restored {@link TFRecord}
+     * @throws InvalidProtocolBufferException in case of broken record
+     */
+    public static TFRecord from(ByteBuffer buffer) throws InvalidProtocolBufferException {
+        return PARSER.parsePartialFrom(CodedInputStream.newInstance(buffer.duplicate()));
+    }
+
     // TODO: Implement the following methods
     @Override
     protected FieldAccessorTable internalGetFieldAccessorTable() {
@@ -26,7 +26,7 @@ import static org.nuxeo.ai.enrichment.EnrichmentUtils.optionAsInteger;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.IMAGE_TYPE;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.LIST_DELIMITER_PATTERN;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.TEXT_TYPE;
-import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
+import static org.nuxeo.ai.pipes.services.JacksonUtil.mapperFor;
 
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
@@ -34,9 +34,18 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -67,8 +76,13 @@ public class TFRecordWriter extends AbstractRecordWriter {
 
     public static final String TFRECORD_MIME_TYPE = "application/x-tensorflow-record";
 
+    public static final String CONVERSION_THREADS_OPT = "conversionThreads";
+
     private static final Logger log = LogManager.getLogger(TFRecordWriter.class);
 
+    // Direct buffers of bufferSize reused by the writing threads
+    protected static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
     protected String imageConversionService;
 
     protected int imageWidth;
@@ -79,6 +93,10 @@ public class TFRecordWriter extends AbstractRecordWriter {
 
     protected String imageFormat;
 
+    protected int conversionThreads;
+
+    protected volatile ExecutorService conversionExecutor;
+
     public TFRecordWriter(String name) {
         super(name);
     }
@@ -135,6 +153,8 @@ public class TFRecordWriter extends AbstractRecordWriter {
                 EnrichmentUtils.DEFAULT_IMAGE_DEPTH);
         this.imageFormat = options.getOrDefault(ImagingConvertConstants.CONVERSION_FORMAT,
                 EnrichmentUtils.DEFAULT_CONVERSATION_FORMAT);
+        this.conversionThreads = optionAsInteger(options, CONVERSION_THREADS_OPT,
+                Runtime.getRuntime().availableProcessors());
     }
 
     @Override
@@ -142,8 +162,8 @@ public class TFRecordWriter extends AbstractRecordWriter {
         int written = 0;
         int skipped = 0;
         if (list != null && !list.isEmpty()) {
-            for (ExportRecord record : list) {
-                if (write(record)) {
+            for (boolean recordWritten : writeAll(list)) {
+                if (recordWritten) {
                     written++;
                 } else {
                     skipped++;
@@ -159,41 +179,204 @@ public class TFRecordWriter extends AbstractRecordWriter {
         return skipped;
     }
 
+    /**
+     * Fetches and converts the blobs of the records concurrently, using up to {@value #CONVERSION_THREADS_OPT}
+     * threads, then writes the converted records in order.
+     */
     @Override
-    public boolean write(ExportRecord record) throws IOException {
-        File file = getFile(record.getId());
-        try (FileOutputStream fos = new FileOutputStream(file, true);
-                BufferedOutputStream bos = new BufferedOutputStream(fos, bufferSize);
-                DataOutputStream dos = new DataOutputStream(bos)) {
+    public boolean[] writeAll(List<ExportRecord> records) throws IOException {
+        List<CompletableFuture<Optional<byte[]>>> converted = records.stream()
+                                                                     .map(record -> CompletableFuture.supplyAsync(
+                                                                             () -> convert(record),
+                                                                             getConversionExecutor()))
+                                                                     .collect(Collectors.toList());
+        boolean[] written = new boolean[records.size()];
+        try {
+            for (int i = 0; i < written.length; i++) {
+                Optional<byte[]> tfRecord = converted.get(i).join();
+                if (tfRecord.isPresent()) {
+                    writeTFRecord(records.get(i).getId(), tfRecord.get());
+                    written[i] = true;
+                } else {
+                    log.warn("Record for {} was skipped.", name);
+                }
+            }
+        } catch (CompletionException e) {
+            converted.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return written;
+    }
 
-            TensorflowWriter writer = new TensorflowWriter(dos);
-            if (write(writer, record)) {
+    protected Optional<byte[]> convert(ExportRecord record) {
+        try {
+            return toTFRecord(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    protected ExecutorService getConversionExecutor() {
+        ExecutorService executor = conversionExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = conversionExecutor;
+                if (executor == null) {
+                    AtomicInteger threadCount = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(conversionThreads, runnable -> {
+                        Thread thread = new Thread(runnable,
+                                sanitize(name) + "-conversion-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    conversionExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Closes the open files and stops the conversion threads, a new pool is started if the writer is used again.
+     */
+    @Override
+    public void close() {
+        super.close();
+        ExecutorService executor;
+        synchronized (this) {
+            executor = conversionExecutor;
+            conversionExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Writes a single record. When the files aren't kept open the record is written by
+     * {@link #write(TensorflowWriter, ExportRecord)} to the reopened file.
+     */
+    @Override
+    public boolean write(ExportRecord record) throws IOException {
+        if (keepFilesOpen) {
+            Optional<byte[]> tfRecord = toTFRecord(record);
+            if (tfRecord.isPresent()) {
+                writeToChannel(record.getId(), tfRecord.get());
                 return true;
             }
+        } else {
+            File file = getFile(record.getId());
+            try (FileOutputStream fos = new FileOutputStream(file, true);
+                    BufferedOutputStream bos = new BufferedOutputStream(fos, bufferSize);
+                    DataOutputStream dos = new DataOutputStream(bos)) {
+                if (write(new TensorflowWriter(dos), record)) {
+                    return true;
+                }
+            }
         }
 
         log.warn("Record for {} was skipped.", name);
         return false;
     }
 
+    /**
+     * Appends a serialized TFRecord to the file of the id
+     */
+    protected void writeTFRecord(String id, byte[] tfRecord) throws IOException {
+        if (keepFilesOpen) {
+            writeToChannel(id, tfRecord);
+        } else {
+            File file = getFile(id);
+            try (FileOutputStream fos = new FileOutputStream(file, true);
+                    BufferedOutputStream bos = new BufferedOutputStream(fos, bufferSize);
+                    DataOutputStream dos = new DataOutputStream(bos)) {
+                new TensorflowWriter(dos).write(tfRecord);
+            }
+        }
+    }
+
+    /**
+     * Frames the record and appends it to the open channel of the id.
+     */
+    protected void writeToChannel(String id, byte[] tfRecord) throws IOException {
+        ByteBuffer buffer = frame(tfRecord);
+        while (true) {
+            FileChannel channel = getChannel(id);
+            // Records of the same id can be written by several threads, a record must not be interleaved with another
+            synchronized (channel) {
+                // An idle channel can be closed once it was got, a new one is opened
+                if (channel.isOpen()) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Frames the record in the pooled direct buffer of the thread. A record larger than the buffer size is framed in a
+     * temporary buffer so the pooled buffers never grow past the buffer size.
+     */
+    protected ByteBuffer frame(byte[] tfRecord) {
+        int length = TensorflowWriter.framedLength(tfRecord.length);
+        ByteBuffer buffer;
+        if (length > bufferSize) {
+            buffer = ByteBuffer.allocate(length);
+        } else {
+            buffer = BUFFERS.get();
+            if (buffer == null || buffer.capacity() < bufferSize) {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+                BUFFERS.set(buffer);
+            }
+            buffer.clear();
+        }
+        TensorflowWriter.frame(buffer, tfRecord);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Converts the record and writes it with the writer, returns false if the record can't be written. Only used by
+     * {@link #write(ExportRecord)} when the files aren't kept open, {@link #writeAll(List)} converts the records
+     * concurrently with {@link #toTFRecord(ExportRecord)}.
+     */
     protected boolean write(TensorflowWriter writer, ExportRecord record) throws IOException {
+        Optional<byte[]> tfRecord = toTFRecord(record);
+        if (tfRecord.isPresent()) {
+            writer.write(tfRecord.get());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Converts the export record to a serialized TFRecord, empty if the record can't be written.
+     */
+    protected Optional<byte[]> toTFRecord(ExportRecord record) throws IOException {
         if (record.isFailed()) {
-            return false;
+            return Optional.empty();
         }
 
         try {
-            BlobTextFromDocument blobText = MAPPER.readValue(record.getData(), BlobTextFromDocument.class);
+            BlobTextFromDocument blobText = mapperFor(record.getData()).readValue(record.getData(),
+                    BlobTextFromDocument.class);
             Optional<Features> allFeatures = writeFeatures(blobText);
             if (allFeatures.isPresent() && allFeatures.get().getFeatureCount() > 0) {
                 TFRecord tfRecord = new TFRecord(blobText.getId(), allFeatures.get());
-                writer.write(tfRecord.toByteArray());
-                return true;
+                return Optional.of(tfRecord.toByteArray());
             } else {
-                return false;
+                return Optional.empty();
             }
         } catch (NuxeoException e) {
             log.warn("Failed to process record {}", record.getId(), e);
-            return false;
+            return Optional.empty();
         }
     }
 
@@ -15,8 +15,8 @@ limitations under the License.
 
 package org.nuxeo.ai.tensorflow.ext;
 
+import java.util.zip.CRC32C;
 import java.util.zip.Checksum;
-import org.apache.commons.codec.digest.PureJavaCrc32C;
 
 /**
  * See https://github.com/tensorflow/ecosystem/blob/master/hadoop/src/main/java/org/tensorflow/hadoop/util/Crc32C.java
@@ -24,7 +24,7 @@ import org.apache.commons.codec.digest.PureJavaCrc32C;
 public class Crc32C implements Checksum {
     private static final int MASK_DELTA = 0xa282ead8;
 
-    private PureJavaCrc32C crc32C;
+    private final CRC32C crc32C;
 
     public static int maskedCrc32c(byte[] data) {
         return maskedCrc32c(data, 0, data.length);
@@ -64,7 +64,7 @@ public class Crc32C implements Checksum {
     }
 
     public Crc32C() {
-        crc32C = new PureJavaCrc32C();
+        crc32C = new CRC32C();
     }
 
     public int getMaskedValue() {
@@ -0,0 +1,199 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.tensorflow.ext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads the records of a TFRecord file through a memory mapped {@link FileChannel}.
+ * <p>
+ * Unlike {@link TFRecordReader} the records are not copied: each record is a read-only slice of the mapped file, valid
+ * until the reader is closed. The checksums are computed with the JDK {@link CRC32C}, straight from the mapped bytes.
+ * The file is mapped by windows, so files larger than 2GB can be read.
+ */
+public class TFRecordChannelReader implements Iterable<ByteBuffer>, Closeable {
+
+    // uint64 length, uint32 masked_crc32_of_length
+    protected static final int HEADER_LENGTH = 12;
+
+    // uint32 masked_crc32_of_data
+    protected static final int FOOTER_LENGTH = 4;
+
+    protected static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    protected final FileChannel channel;
+
+    protected final boolean crcCheck;
+
+    protected final long windowSize;
+
+    protected final CRC32C crc = new CRC32C();
+
+    protected final long size;
+
+    protected MappedByteBuffer window;
+
+    // Position of the window in the file
+    protected long windowStart;
+
+    public TFRecordChannelReader(FileChannel channel, boolean crcCheck) throws IOException {
+        this(channel, crcCheck, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize the size of the mapped windows, a window is larger if a record doesn't fit in it
+     */
+    public TFRecordChannelReader(FileChannel channel, boolean crcCheck, long windowSize) throws IOException {
+        this.channel = channel;
+        this.crcCheck = crcCheck;
+        this.windowSize = windowSize;
+        this.size = channel.size();
+        this.windowStart = channel.position();
+        map(windowStart, 0);
+    }
+
+    public static TFRecordChannelReader open(Path path, boolean crcCheck) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new TFRecordChannelReader(channel, crcCheck);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return a read-only slice of the record data, null at the end of the file
+     */
+    public ByteBuffer read() throws IOException {
+        if (!window.hasRemaining() && windowStart + window.limit() >= size) {
+            return null;
+        }
+        ensure(HEADER_LENGTH);
+        int start = window.position();
+        long len = window.getLong(start);
+        if (crcCheck) {
+            int lenCrc32 = window.getInt(start + 8);
+            int expected = maskedCrc32c(start, 8);
+            if (lenCrc32 != expected) {
+                throw new IOException(
+                        "Length header crc32 checking failed: " + lenCrc32 + " != " + expected + ", length = " + len);
+            }
+        }
+        if (len < 0 || len > Integer.MAX_VALUE - HEADER_LENGTH - FOOTER_LENGTH) {
+            throw new IOException("Record size exceeds max value of int32: " + len);
+        }
+
+        int length = (int) len;
+        ensure(HEADER_LENGTH + length + FOOTER_LENGTH);
+        int dataStart = window.position() + HEADER_LENGTH;
+        if (crcCheck) {
+            int dataCrc32 = window.getInt(dataStart + length);
+            int expected = maskedCrc32c(dataStart, length);
+            if (dataCrc32 != expected) {
+                throw new IOException("Data crc32 checking failed: " + dataCrc32 + " != " + expected);
+            }
+        }
+        ByteBuffer data = window.duplicate();
+        data.position(dataStart).limit(dataStart + length);
+        window.position(dataStart + length + FOOTER_LENGTH);
+        return data.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Iterates over the remaining records, an {@link IOException} is thrown as an {@link UncheckedIOException}.
+     */
+    @Override
+    public Iterator<ByteBuffer> iterator() {
+        return new Iterator<>() {
+
+            protected ByteBuffer next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = read();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ByteBuffer record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Makes sure the window holds the given number of bytes from its position, mapping the next window if needed.
+     */
+    protected void ensure(int length) throws IOException {
+        if (window.remaining() >= length) {
+            return;
+        }
+        long position = windowStart + window.position();
+        if (size - position < length) {
+            throw new IOException("Truncated record at position " + position + ": " + length + " bytes expected, "
+                    + (size - position) + " available");
+        }
+        map(position, length);
+    }
+
+    protected void map(long position, int minLength) throws IOException {
+        long length = Math.min(size - position, Math.max(windowSize, minLength));
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = position;
+    }
+
+    protected int maskedCrc32c(int offset, int length) {
+        ByteBuffer bytes = window.duplicate();
+        bytes.position(offset).limit(offset + length);
+        crc.reset();
+        crc.update(bytes);
+        return Crc32C.mask((int) crc.getValue());
+    }
+}
@@ -50,7 +50,30 @@ public class TensorflowWriter {
         write(record, 0, record.length);
     }
 
-    private byte[] toInt64LE(long data) {
+    /**
+     * The size of a record once framed in the TFRecord format.
+     */
+    public static int framedLength(int length) {
+        // uint64 length, uint32 crc, data, uint32 crc
+        return length + 16;
+    }
+
+    /**
+     * Frames the record in the TFRecord format into the buffer, which must have
+     * {@link #framedLength(int)} bytes remaining.
+     */
+    public static void frame(ByteBuffer buffer, byte[] record) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] len = toInt64LE(record.length);
+        buffer.put(len);
+        buffer.putInt(Crc32C.maskedCrc32c(len));
+        buffer.put(record);
+        buffer.putInt(Crc32C.maskedCrc32c(record));
+        buffer.order(order);
+    }
+
+    private static byte[] toInt64LE(long data) {
         byte[] buff = new byte[8];
         ByteBuffer bb = ByteBuffer.wrap(buff);
         bb.order(ByteOrder.LITTLE_ENDIAN);
@@ -58,7 +81,7 @@ public class TensorflowWriter {
         return buff;
     }
 
-    private byte[] toInt32LE(int data) {
+    private static byte[] toInt32LE(int data) {
         byte[] buff = new byte[4];
         ByteBuffer bb = ByteBuffer.wrap(buff);
         bb.order(ByteOrder.LITTLE_ENDIAN);
@@ -21,25 +21,42 @@ package org.nuxeo.ai.bulk;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.FILE_CONTENT;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.blobTestImage;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.blobTestPdf;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
 import javax.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ai.enrichment.EnrichmentTestFeature;
@@ -49,7 +66,10 @@ import org.nuxeo.ai.pipes.types.ExportRecord;
 import org.nuxeo.ai.sdk.objects.PropertyType;
 import org.nuxeo.ai.services.AIComponent;
 import org.nuxeo.ai.tensorflow.TFRecord;
+import org.nuxeo.ai.tensorflow.TFRecordWriter;
+import org.nuxeo.ai.tensorflow.ext.TFRecordChannelReader;
 import org.nuxeo.ai.tensorflow.ext.TFRecordReader;
+import org.nuxeo.ai.tensorflow.ext.TensorflowWriter;
 import org.nuxeo.common.utils.FileUtils;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
@@ -63,6 +83,7 @@ import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.tensorflow.example.Feature;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
 
 @RunWith(FeaturesRunner.class)
@@ -70,6 +91,8 @@ import com.google.common.collect.Sets;
 @Deploy({ "org.nuxeo.ai.ai-core:OSGI-INF/recordwriter-test.xml" })
 public class TensorTest {
 
+    private static final Logger log = LogManager.getLogger(TensorTest.class);
+
     @Inject
     protected BlobManager blobManager;
 
@@ -86,17 +109,16 @@ public class TensorTest {
         if (blob == null) {
             return 0;
         }
-        DataInput input = new DataInputStream(new FileInputStream(blob.getFile()));
-        TFRecordReader tfRecordReader = new TFRecordReader(input, true);
-        byte[] exampleData;
         int countExamples = 0;
-        while ((exampleData = tfRecordReader.read()) != null) {
-            TFRecord tfRecord = TFRecord.from(exampleData);
-            if (numOfFeatures > 0) {
-                assertEquals(numOfFeatures, tfRecord.getFeatures().getFeatureCount());
+        try (TFRecordChannelReader reader = TFRecordChannelReader.open(blob.getFile().toPath(), true)) {
+            for (ByteBuffer exampleData : reader) {
+                TFRecord tfRecord = TFRecord.from(exampleData);
+                if (numOfFeatures > 0) {
+                    assertEquals(numOfFeatures, tfRecord.getFeatures().getFeatureCount());
+                }
+                assertThat(tfRecord.getDocId()).isNotBlank();
+                countExamples++;
             }
-            assertThat(tfRecord.getDocId()).isNotBlank();
-            countExamples++;
         }
         return countExamples;
     }
@@ -130,6 +152,102 @@ public class TensorTest {
         assertEquals(numberOfRecords, countNumberOfExamples(blob.get(), 2));
     }
 
+    @Test
+    public void testWriterModes() throws IOException {
+        String testKey = "modes";
+        List<ExportRecord> records = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            BlobTextFromDocument blobTextFromDoc = new BlobTextFromDocument("mode" + i, "test", "aaf", "Picture", null);
+            blobTextFromDoc.addProperty("dc:title", "my text " + i);
+            records.add(ExportRecord.of(testKey, testKey, MAPPER.writeValueAsBytes(blobTextFromDoc)));
+        }
+
+        RecordWriter channelWriter = aiComponent.getRecordWriter("ai/training");
+        RecordWriter reopeningWriter = aiComponent.getRecordWriter("ai/reopening");
+        for (ExportRecord record : records) {
+            assertTrue(channelWriter.write(record));
+            assertTrue(reopeningWriter.write(record));
+        }
+        Blob written = channelWriter.complete(testKey).orElseThrow();
+        Blob reopened = reopeningWriter.complete(testKey).orElseThrow();
+        assertEquals(records.size(), countNumberOfExamples(written, 1));
+        assertArrayEquals("Both modes must write the same TFRecords", reopened.getByteArray(),
+                written.getByteArray());
+    }
+
+    @Test
+    public void testReleasesChannels() throws IOException, InterruptedException {
+        // Closes the channels as soon as they are idle and frames the records outside the small pooled buffers
+        AbstractRecordWriter writer = (AbstractRecordWriter) aiComponent.getRecordWriter("ai/evicting");
+        List<ExportRecord> records = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            BlobTextFromDocument blobTextFromDoc = new BlobTextFromDocument("evict" + i, "test", "aaf", "File", null);
+            blobTextFromDoc.addProperty("dc:title", "a title longer than the pooled buffers " + i);
+            records.add(ExportRecord.of("evicted", "evicted", MAPPER.writeValueAsBytes(blobTextFromDoc)));
+        }
+
+        assertTrue(writer.write(records.get(0)));
+        assertTrue(writer.channels.containsKey("evicted"));
+        Thread.sleep(5);
+        assertTrue(writer.write(ExportRecord.of("other", "other", records.get(1).getData())));
+        assertFalse("The idle channel must be closed", writer.channels.containsKey("evicted"));
+        assertTrue(writer.write(records.get(1)));
+
+        writer.release("evicted");
+        assertFalse(writer.channels.containsKey("evicted"));
+        assertTrue(writer.write(records.get(2)));
+        assertTrue(writer.write(records.get(3)));
+
+        assertEquals(records.size(), countNumberOfExamples(writer.complete("evicted").orElseThrow(), 1));
+        assertEquals(1, countNumberOfExamples(writer.complete("other").orElseThrow(), 1));
+
+        assertTrue(writer.write(ExportRecord.of("closed", "closed", records.get(0).getData())));
+        writer.close();
+        assertTrue(writer.channels.isEmpty());
+        assertEquals(1, countNumberOfExamples(writer.complete("closed").orElseThrow(), 1));
+    }
+
+    @Test
+    public void testWriteAllKeepsOrder() throws IOException {
+        OrderedTFRecordWriter writer = new OrderedTFRecordWriter("ai/ordered");
+        writer.init(Map.of("blobProvider", "test", TFRecordWriter.CONVERSION_THREADS_OPT, "4"));
+        String testKey = "ordered";
+        List<ExportRecord> records = new ArrayList<>();
+        for (int i = 0; i < 60; ++i) {
+            BlobTextFromDocument blobTextFromDoc = new BlobTextFromDocument("order" + i, "test", "aaf", "File", null);
+            if (i % 5 != 0) {
+                // A record without any feature is skipped
+                blobTextFromDoc.addProperty("dc:title", "my text " + i);
+            }
+            ExportRecord record = ExportRecord.of(testKey, testKey, MAPPER.writeValueAsBytes(blobTextFromDoc));
+            record.setFailed(i % 7 == 0);
+            records.add(record);
+        }
+
+        boolean[] written = writer.writeAll(records);
+        assertEquals(records.size(), written.length);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < written.length; i++) {
+            boolean expectedWritten = i % 5 != 0 && i % 7 != 0;
+            assertEquals("Record " + i, expectedWritten, written[i]);
+            if (expectedWritten) {
+                expected.add("order" + i);
+            }
+        }
+        List<String> docIds = new ArrayList<>();
+        Blob blob = writer.complete(testKey).orElseThrow();
+        try (TFRecordChannelReader reader = TFRecordChannelReader.open(blob.getFile().toPath(), true)) {
+            for (ByteBuffer exampleData : reader) {
+                docIds.add(TFRecord.from(exampleData).getDocId());
+            }
+        }
+        assertEquals("The records are written in order", expected, docIds);
+
+        ExecutorService executor = writer.getConversionExecutor();
+        writer.close();
+        assertTrue(executor.isShutdown());
+    }
+
     @Test
     public void testBlobWriter() throws IOException {
         RecordWriter writer = aiComponent.getRecordWriter("ai/validation");
@@ -209,6 +327,122 @@ public class TensorTest {
         }
     }
 
+    @Test
+    public void shouldReadRecordsFromChannel() throws IOException {
+        File file = Framework.createTempFile("tf_channel", "tfrecord");
+        List<byte[]> records = writeRecords(file, 100, i -> i * 37);
+
+        // A small window maps the file several times, records span two windows
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                TFRecordChannelReader reader = new TFRecordChannelReader(channel, true, 1024)) {
+            int count = 0;
+            for (ByteBuffer record : reader) {
+                assertTrue(record.isReadOnly());
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                assertArrayEquals(records.get(count++), bytes);
+            }
+            assertEquals(records.size(), count);
+        }
+
+        // Corrupt the data of the last record
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = raf.length() - 5;
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0xFF);
+        }
+        try (TFRecordChannelReader reader = TFRecordChannelReader.open(file.toPath(), true)) {
+            for (int i = 0; i < records.size() - 1; i++) {
+                assertNotNull(reader.read());
+            }
+            reader.read();
+            fail("The corrupted record should fail the crc check");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).startsWith("Data crc32 checking failed");
+        }
+        try (TFRecordChannelReader reader = TFRecordChannelReader.open(file.toPath(), false)) {
+            assertEquals(records.size(), Iterators.size(reader.iterator()));
+        }
+    }
+
+    @Test
+    @Ignore("Manual benchmark, logs the time taken by the stream and the channel readers")
+    public void benchmarkRecordReaders() throws IOException {
+        File file = Framework.createTempFile("tf_benchmark", "tfrecord");
+        int numberOfRecords = 20_000;
+        writeRecords(file, numberOfRecords, i -> 1024);
+        for (int iteration = 0; iteration < 5; iteration++) {
+            long start = System.nanoTime();
+            int count = 0;
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                TFRecordReader reader = new TFRecordReader(input, true);
+                while (reader.read() != null) {
+                    count++;
+                }
+            }
+            long stream = System.nanoTime() - start;
+            assertEquals(numberOfRecords, count);
+
+            start = System.nanoTime();
+            try (TFRecordChannelReader reader = TFRecordChannelReader.open(file.toPath(), true)) {
+                count = Iterators.size(reader.iterator());
+            }
+            long channel = System.nanoTime() - start;
+            assertEquals(numberOfRecords, count);
+            log.info("Read {} records of {} bytes: stream reader {} ns per record, channel reader {} ns per record",
+                    numberOfRecords, file.length() / numberOfRecords, stream / numberOfRecords,
+                    channel / numberOfRecords);
+        }
+    }
+
+    /**
+     * A writer whose conversions take a random time, so they complete out of order.
+     */
+    protected static class OrderedTFRecordWriter extends TFRecordWriter {
+
+        public OrderedTFRecordWriter(String name) {
+            super(name);
+        }
+
+        @Override
+        protected Optional<byte[]> convert(ExportRecord record) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NuxeoException(e);
+            }
+            return super.convert(record);
+        }
+
+        @Override
+        public ExecutorService getConversionExecutor() {
+            return super.getConversionExecutor();
+        }
+    }
+
+    /**
+     * Writes records of random bytes, the size of each record is given by its index.
+     */
+    protected static List<byte[]> writeRecords(File file, int numberOfRecords, IntUnaryOperator size)
+            throws IOException {
+        List<byte[]> records = new ArrayList<>(numberOfRecords);
+        Random random = new Random(numberOfRecords);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            TensorflowWriter writer = new TensorflowWriter(output);
+            for (int i = 0; i < numberOfRecords; i++) {
+                byte[] record = new byte[size.applyAsInt(i)];
+                random.nextBytes(record);
+                writer.write(record);
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
     @Test
     public void testMissing() throws IOException {
         AbstractRecordWriter writer = (AbstractRecordWriter) aiComponent.getRecordWriter("ai/validation");
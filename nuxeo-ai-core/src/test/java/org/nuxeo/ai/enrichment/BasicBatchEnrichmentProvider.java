@@ -0,0 +1,42 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.enrichment;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
+
+/**
+ * A batch enricher that fails to enrich documents with the id "bad"
+ */
+public class BasicBatchEnrichmentProvider extends BasicEnrichmentProvider implements BatchEnrichmentProvider {
+
+    public static final String BAD_ID = "bad";
+
+    protected int batchCalls = 0;
+
+    @Override
+    public List<Collection<EnrichmentMetadata>> enrich(List<BlobTextFromDocument> blobTextFromDocs) {
+        batchCalls++;
+        return blobTextFromDocs.stream()
+                               .map(b -> BAD_ID.equals(b.getId()) ? null : enrich(b))
+                               .collect(Collectors.toList());
+    }
+}
@@ -75,10 +75,10 @@ public class TestAIComponent {
                 1, "test", "test.e1", metrics, false);
         computation.init(testContext);
         computation.processRecord(testContext, null, record);
-        assertEquals(0, metrics.errors);
-        assertEquals(0, metrics.called);
-        assertEquals(0, metrics.success);
-        assertEquals("PDF isn't a supported mimetype", 1, metrics.unsupported);
+        assertEquals(0, metrics.errors.sum());
+        assertEquals(0, metrics.called.sum());
+        assertEquals(0, metrics.success.sum());
+        assertEquals("PDF isn't a supported mimetype", 1, metrics.unsupported.sum());
 
         service = aiComponent.getEnrichmentProvider("test.logging");
         service.enrich(blobTextFromDoc);
@@ -97,37 +97,37 @@ public class TestAIComponent {
         computation.init(testContext);
         computation.processRecord(testContext, null, record);
 
-        assertEquals(3, metrics.retries);
-        assertEquals(1, metrics.called);
-        assertEquals(1, metrics.success);
+        assertEquals(3, metrics.retries.sum());
+        assertEquals(1, metrics.called.sum());
+        assertEquals(1, metrics.success.sum());
 
         metrics = new EnrichingStreamProcessor.EnrichmentMetrics("test2");
         computation = new EnrichingStreamProcessor.EnrichmentComputation(1, "test2", "error2", metrics, false);
         computation.init(testContext);
         computation.processRecord(testContext, null, record);
 
-        assertEquals(0, metrics.retries);
-        assertEquals(1, metrics.called);
-        assertEquals(1, metrics.success);
+        assertEquals(0, metrics.retries.sum());
+        assertEquals(1, metrics.called.sum());
+        assertEquals(1, metrics.success.sum());
 
         metrics = new EnrichingStreamProcessor.EnrichmentMetrics("test3");
         computation = new EnrichingStreamProcessor.EnrichmentComputation(1, "test3", "error3", metrics, false);
         computation.init(testContext);
         computation.processRecord(testContext, null, record);
-        assertEquals(0, metrics.retries);
-        assertEquals(1, metrics.called);
-        assertEquals(0, metrics.success);
-        assertEquals(1, metrics.errors);
+        assertEquals(0, metrics.retries.sum());
+        assertEquals(1, metrics.called.sum());
+        assertEquals(0, metrics.success.sum());
+        assertEquals(1, metrics.errors.sum());
 
         metrics = new EnrichingStreamProcessor.EnrichmentMetrics("test4");
         computation = new EnrichingStreamProcessor.EnrichmentComputation(1, "test4", "error4", metrics, false);
         computation.init(testContext);
         computation.processRecord(testContext, null, record);
 
-        assertEquals(1, metrics.retries);
-        assertEquals(1, metrics.errors);
-        assertEquals(1, metrics.called);
-        assertEquals(1, metrics.success);
+        assertEquals(1, metrics.retries.sum());
+        assertEquals(1, metrics.errors.sum());
+        assertEquals(1, metrics.called.sum());
+        assertEquals(1, metrics.success.sum());
     }
 
     @Test
@@ -149,12 +149,12 @@ public class TestAIComponent {
         computation.processRecord(testContext, null, record);
         computation.processRecord(testContext, null, record);
 
-        assertEquals(1, metrics.retries);
-        assertEquals(2, metrics.errors);
-        assertEquals(6, metrics.called);
-        assertEquals(5, metrics.success);
-        assertEquals(0, metrics.circuitBreaker);
-        assertEquals(0, metrics.fatal);
+        assertEquals(1, metrics.retries.sum());
+        assertEquals(2, metrics.errors.sum());
+        assertEquals(6, metrics.called.sum());
+        assertEquals(5, metrics.success.sum());
+        assertEquals(0, metrics.circuitBreaker.sum());
+        assertEquals(0, metrics.fatal.sum());
 
         metrics = new EnrichingStreamProcessor.EnrichmentMetrics("testCirc");
         computation = new EnrichingStreamProcessor.EnrichmentComputation(1, "teste2", "circ2", metrics, false);
@@ -167,33 +167,97 @@ public class TestAIComponent {
             fail();
         } catch (NuxeoException e) {
             assertTrue(e.getMessage().contains("Stream circuit breaker"));
-            assertEquals(1, metrics.circuitBreaker);
+            assertEquals(1, metrics.circuitBreaker.sum());
         }
-        assertEquals(6, metrics.retries);
-        assertEquals(8, metrics.errors);
-        assertEquals(4, metrics.called);
-        assertEquals(1, metrics.success);
+        assertEquals(6, metrics.retries.sum());
+        assertEquals(8, metrics.errors.sum());
+        assertEquals(4, metrics.called.sum());
+        assertEquals(1, metrics.success.sum());
 
         metrics = new EnrichingStreamProcessor.EnrichmentMetrics("testError");
         computation = new EnrichingStreamProcessor.EnrichmentComputation(1, "teste3", "circ3", metrics, false);
         computation.init(testContext);
-        assertEquals(0, metrics.fatal);
+        assertEquals(0, metrics.fatal.sum());
         try {
             computation.processRecord(testContext, null, record);
             fail();
         } catch (NuxeoException e) {
             assertEquals("FatalEnrichmentError", e.getClass().getSimpleName());
         }
-        assertEquals(0, metrics.retries);
-        assertEquals(1, metrics.errors);
-        assertEquals(1, metrics.called);
-        assertEquals(0, metrics.success);
-        assertEquals(1, metrics.fatal);
+        assertEquals(0, metrics.retries.sum());
+        assertEquals(1, metrics.errors.sum());
+        assertEquals(1, metrics.called.sum());
+        assertEquals(0, metrics.success.sum());
+        assertEquals(1, metrics.fatal.sum());
+    }
+
+    @Test
+    @Deploy({ "org.nuxeo.ai.ai-core:OSGI-INF/batch-enrichment-test.xml" })
+    public void testBatchEnrichment() {
+
+        ComputationContext testContext = setupComputationContext();
+
+        EnrichingStreamProcessor.EnrichmentMetrics metrics = new EnrichingStreamProcessor.EnrichmentMetrics(
+                "testBatch");
+        EnrichingStreamProcessor.BatchEnrichmentComputation computation = new EnrichingStreamProcessor.BatchEnrichmentComputation(
+                1, "testBatch", "batch1", metrics, false, 3, 1000);
+        computation.init(testContext);
+        computation.processRecord(testContext, null, setupTestRecord("doc1"));
+        computation.processRecord(testContext, null, setupTestRecord(BasicBatchEnrichmentProvider.BAD_ID));
+        assertEquals("Nothing is called until the batch is full", 0, metrics.called.sum());
+
+        computation.processRecord(testContext, null, setupTestRecord("doc3"));
+        assertEquals(1, ((BasicBatchEnrichmentProvider) computation.provider).batchCalls);
+        assertEquals(1, metrics.called.sum());
+        assertEquals(1, metrics.success.sum());
+        assertEquals(1, metrics.errors.sum());
+        assertEquals(2, metrics.produced.sum());
+
+        computation.processRecord(testContext, null, setupTestRecord("doc4"));
+        computation.processTimer(testContext, EnrichingStreamProcessor.BatchEnrichmentComputation.TIMER_BATCH,
+                System.currentTimeMillis());
+        assertEquals("A single record is enriched on its own", 1,
+                ((BasicBatchEnrichmentProvider) computation.provider).batchCalls);
+        assertEquals(2, metrics.called.sum());
+        assertEquals(3, metrics.produced.sum());
+    }
+
+    @Test
+    @Deploy({ "org.nuxeo.ai.ai-core:OSGI-INF/erroring-enrichment-test.xml" })
+    public void testAsyncEnrichment() {
+
+        ComputationContext testContext = setupComputationContext();
+
+        EnrichingStreamProcessor.EnrichmentMetrics metrics = new EnrichingStreamProcessor.EnrichmentMetrics(
+                "testAsync");
+        EnrichingStreamProcessor.AsyncEnrichmentComputation computation = new EnrichingStreamProcessor.AsyncEnrichmentComputation(
+                1, "testAsync", "error2", metrics, false, 2, 1000);
+        computation.init(testContext);
+        try {
+            computation.processRecord(testContext, null, setupTestRecord("doc1"));
+            computation.processRecord(testContext, null, setupTestRecord("doc2"));
+            computation.processRecord(testContext, null, setupTestRecord("doc3"));
+            assertTrue("No more than 2 calls are in-flight", computation.pending.size() <= 2);
+            computation.processTimer(testContext, EnrichingStreamProcessor.AsyncEnrichmentComputation.TIMER_DRAIN,
+                    System.currentTimeMillis());
+            assertTrue(computation.pending.isEmpty());
+            assertEquals(3, metrics.called.sum());
+            assertEquals(3, metrics.success.sum());
+            assertEquals(3, metrics.produced.sum());
+            assertEquals(3, metrics.getProviderTimer().getCount());
+            assertEquals(3, metrics.getRecordSize().getCount());
+        } finally {
+            computation.destroy();
+        }
     }
 
     protected Record setupTestRecord() {
+        return setupTestRecord("xderftgt");
+    }
+
+    protected Record setupTestRecord(String docId) {
         BlobTextFromDocument blobTextFromDoc = new BlobTextFromDocument();
-        blobTextFromDoc.setId("xderftgt");
+        blobTextFromDoc.setId(docId);
         blobTextFromDoc.setRepositoryName("test");
         blobTextFromDoc.addBlob(FILE_CONTENT, "img",
                 new BlobMetaImpl("test", "application/pdf", "xyx", "xyz", null, 45L));
@@ -21,8 +21,11 @@ package org.nuxeo.ai.enrichment;
 import static java.util.Collections.emptySet;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.nuxeo.ai.AIConstants.ENRICHMENT_FACET;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_INPUT_DOCPROP_PROPERTY;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_ITEMS;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_MODEL;
@@ -35,6 +38,7 @@ import static org.nuxeo.ai.AIConstants.SUGGESTION_SUGGESTIONS;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,9 +46,13 @@ import java.util.List;
 import java.util.Map;
 import javax.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ai.auto.AutoService;
+import org.nuxeo.ai.functions.SaveEnrichmentFunction;
 import org.nuxeo.ai.metadata.AIMetadata;
 import org.nuxeo.ai.metadata.LabelSuggestion;
 import org.nuxeo.ai.metadata.SuggestionMetadataWrapper;
@@ -56,6 +64,7 @@ import org.nuxeo.common.utils.RFC2231;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.model.Property;
 import org.nuxeo.ecm.core.blob.BlobManager;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
@@ -71,6 +80,10 @@ import junit.framework.TestCase;
 @Deploy({ "org.nuxeo.ecm.platform.tag", "org.nuxeo.ai.ai-core", "org.nuxeo.ai.ai-core:OSGI-INF/enrichment-test.xml" })
 public class TestDocMetadataService {
 
+    private static final Logger log = LogManager.getLogger(TestDocMetadataService.class);
+
+    protected static final int UPSERT_ITERATIONS = 50;
+
     public static final String SERVICE_NAME = "test.reverse";
 
     public static final String SOME_TEXT = "You can change me";
@@ -258,6 +271,133 @@ public class TestDocMetadataService {
                 classifications.size());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSavesEnrichmentBatch() {
+        DocumentModel testDoc = session.createDocumentModel("/", "My Batch Doc", "File");
+        testDoc = session.createDocument(testDoc);
+        DocumentModel otherDoc = session.createDocument(session.createDocumentModel("/", "My Other Doc", "File"));
+        txFeature.nextTransaction();
+
+        EnrichmentMetadata suggestionMetadata = setupTestEnrichmentMetadata(testDoc);
+        EnrichmentMetadata otherModel = new EnrichmentMetadata.Builder("m1", "stest2", emptySet(),
+                testDoc.getRepositoryName(), testDoc.getId(), emptySet()).withLabels(
+                suggestionMetadata.getLabels()).build();
+        EnrichmentMetadata otherDocMetadata = setupTestEnrichmentMetadata(otherDoc);
+        new SaveEnrichmentFunction().saveAll(Arrays.asList(suggestionMetadata, otherDocMetadata, otherModel));
+        txFeature.nextTransaction();
+
+        testDoc = session.getDocument(testDoc.getRef());
+        List<Map<String, Object>> suggested = testDoc.getPropertyObject(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS)
+                                                     .getValue(List.class);
+        assertEquals("Both enrichments must be merged", 2, suggested.size());
+        otherDoc = session.getDocument(otherDoc.getRef());
+        suggested = otherDoc.getPropertyObject(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS).getValue(List.class);
+        assertEquals(1, suggested.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSavesEnrichmentBatchWithFailingDocument() {
+        DocumentModel badDoc = session.createDocument(session.createDocumentModel("/", "My Bad Doc", "File"));
+        DocumentModel goodDoc = session.createDocument(session.createDocumentModel("/", "My Good Doc", "File"));
+        txFeature.nextTransaction();
+
+        String badRef = badDoc.getId();
+        SaveEnrichmentFunction function = new SaveEnrichmentFunction() {
+            @Override
+            protected void save(CoreSession session, String documentRef, List<EnrichmentMetadata> metadata) {
+                super.save(session, documentRef, metadata);
+                if (badRef.equals(documentRef)) {
+                    throw new NuxeoException("Failing document " + documentRef);
+                }
+            }
+        };
+        List<String> failed = function.saveAll(
+                Arrays.asList(setupTestEnrichmentMetadata(badDoc), setupTestEnrichmentMetadata(goodDoc)));
+        assertEquals(Collections.singletonList(badRef), failed);
+        txFeature.nextTransaction();
+
+        goodDoc = session.getDocument(goodDoc.getRef());
+        List<Map<String, Object>> suggested = goodDoc.getPropertyObject(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS)
+                                                     .getValue(List.class);
+        assertEquals("The good document is saved on its own", 1, suggested.size());
+        badDoc = session.getDocument(badDoc.getRef());
+        assertFalse("The bad document is rolled back", badDoc.hasFacet(ENRICHMENT_FACET));
+
+        // A single document is not replayed, its error is thrown so it can be retried
+        try {
+            function.saveAll(Collections.singletonList(setupTestEnrichmentMetadata(badDoc)));
+            fail("The error of a single document must be thrown");
+        } catch (NuxeoException e) {
+            assertTrue(e.getMessage().contains(badRef));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpsertsEnrichmentsOfADocument() {
+        DocumentModel doc = session.createDocument(session.createDocumentModel("/", "Upserts", "File"));
+        EnrichmentMetadata template = setupTestEnrichmentMetadata(doc);
+        List<EnrichmentMetadata> existing = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            existing.add(withModel(template, "model" + i));
+        }
+        docMetadataService.saveEnrichments(doc, existing);
+        assertEquals(100, ((List<?>) doc.getProperty(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS)).size());
+
+        // Existing entries are replaced, new ones are appended once even if they are repeated in the same update
+        List<EnrichmentMetadata> updates = Arrays.asList(withModel(template, "model7"), withModel(template, "new1"),
+                withModel(template, "model42"), withModel(template, "new1"), withModel(template, "new2"));
+        docMetadataService.saveEnrichments(doc, updates);
+        docMetadataService.saveEnrichment(doc, withModel(template, "new2"));
+        session.saveDocument(doc);
+        txFeature.nextTransaction();
+
+        doc = session.getDocument(doc.getRef());
+        List<Map<String, Object>> items = (List<Map<String, Object>>) doc.getProperty(ENRICHMENT_SCHEMA_NAME,
+                ENRICHMENT_ITEMS);
+        assertEquals("Updates must not add items", 102, items.size());
+        assertEquals("model7", items.get(7).get(ENRICHMENT_MODEL));
+        assertEquals("new1", items.get(100).get(ENRICHMENT_MODEL));
+        assertEquals("new2", items.get(101).get(ENRICHMENT_MODEL));
+    }
+
+    /**
+     * Measures the cost of an enrichment upsert as the number of existing items grows, it must stay roughly flat per
+     * existing item and never duplicate an entry.
+     */
+    @Test
+    @Ignore("Manual benchmark, logs the cost of an enrichment upsert versus the number of existing items")
+    public void benchmarkUpsertCostVersusExistingItems() {
+        DocumentModel doc = session.createDocument(session.createDocumentModel("/", "Upsert cost", "File"));
+        EnrichmentMetadata template = setupTestEnrichmentMetadata(doc);
+        int existing = 0;
+        for (int size : new int[] { 10, 100, 500 }) {
+            for (; existing < size; existing++) {
+                docMetadataService.saveEnrichment(doc, withModel(template, "model" + existing));
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < UPSERT_ITERATIONS; i++) {
+                docMetadataService.saveEnrichment(doc, withModel(template, "model" + (i * 7 % size)));
+            }
+            long perUpsert = (System.nanoTime() - start) / UPSERT_ITERATIONS;
+            log.info("Enrichment upsert with {} existing items: {} µs", size, perUpsert / 1000);
+            List<?> items = (List<?>) doc.getProperty(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS);
+            assertEquals("Updates must not add items", size, items.size());
+        }
+        session.saveDocument(doc);
+        txFeature.nextTransaction();
+        doc = session.getDocument(doc.getRef());
+        assertEquals(500, ((List<?>) doc.getProperty(ENRICHMENT_SCHEMA_NAME, ENRICHMENT_ITEMS)).size());
+    }
+
+    protected static EnrichmentMetadata withModel(EnrichmentMetadata template, String modelName) {
+        return new EnrichmentMetadata.Builder(template.getKind(), modelName, emptySet(),
+                template.context.repositoryName, template.context.documentRef, emptySet()).withLabels(
+                template.getLabels()).build();
+    }
+
     /**
      * Enrich our test document, save it and return some metadata
      */
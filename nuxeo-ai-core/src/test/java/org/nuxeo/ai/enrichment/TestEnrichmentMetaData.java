@@ -24,6 +24,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.FILE_CONTENT;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.blobTestImage;
+import static org.nuxeo.ai.pipes.services.JacksonUtil.RecordFormat.JSON;
+import static org.nuxeo.ai.pipes.services.JacksonUtil.RecordFormat.SMILE;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.fromRecord;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.toRecord;
 
@@ -31,6 +33,7 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.inject.Inject;
@@ -132,4 +135,39 @@ public class TestEnrichmentMetaData {
                         blob.getLength()));
         assertEquals("testin47XX_58YY", EnrichmentUtils.makeKeyUsingBlobDigests(blobTextFromDoc, "testin"));
     }
+
+    @Test
+    public void testTwoLevelCache() {
+        EnrichmentCache cache = new EnrichmentCache(1024 * 1024, 60, 60, SMILE);
+        BlobTextFromDocument blobTextFromDoc = blobTestImage(blobManager);
+        List<AIMetadata> metadata = singletonList(
+                new EnrichmentMetadata.Builder("/classification/custom", "cacheTest", blobTextFromDoc).build());
+
+        assertTrue(cache.get("cacheTest1").isEmpty());
+        assertTrue("The miss is served from memory", cache.memory.getIfPresent("cacheTest1").metadata.isEmpty());
+
+        cache.put("cacheTest1", metadata, 60);
+        assertEquals(1, cache.get("cacheTest1").size());
+
+        // A new node only has the KeyValueStore entry, whatever format it is configured with
+        cache = new EnrichmentCache(1024 * 1024, 60, 60, JSON);
+        assertEquals(1, cache.get("cacheTest1").size());
+        assertEquals(1, cache.memory.getIfPresent("cacheTest1").metadata.size());
+        cache.put("cacheTest2", metadata, 60);
+
+        // Too small to keep anything in memory
+        cache = new EnrichmentCache(10, 60, 0, SMILE);
+        assertEquals(1, cache.get("cacheTest1").size());
+        assertEquals("A JSON entry is still readable", 1, cache.get("cacheTest2").size());
+        assertEquals(0, cache.memory.size());
+
+        // An entry loaded from the KeyValueStore is not kept in memory after its TTL
+        cache.put("cacheTest3", metadata, 5);
+        cache = new EnrichmentCache(1024 * 1024, 300, 60, JSON);
+        long now = System.currentTimeMillis();
+        assertEquals(1, cache.get("cacheTest3").size());
+        long expires = cache.memory.getIfPresent("cacheTest3").expires;
+        assertTrue(expires <= now + TimeUnit.SECONDS.toMillis(5));
+        assertTrue(expires > now + TimeUnit.SECONDS.toMillis(3));
+    }
 }
@@ -20,16 +20,21 @@ package org.nuxeo.ai.rest;
 
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.FILE_CONTENT;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.inject.Inject;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -88,6 +93,46 @@ public class TestRestEnrichment {
 
     }
 
+    @Test
+    public void testAsyncCalls() {
+        RestEnrichmentProvider service = (RestEnrichmentProvider) aiComponent.getEnrichmentProvider("rest1");
+        BlobTextFromDocument blobTextFromDoc = new BlobTextFromDocument("docId", "default", "parent", "File", null);
+        blobTextFromDoc.addBlob(FILE_CONTENT, "img",
+                new BlobMetaImpl("test", "application/pdf", "xyx", "xyz", null, 45L));
+
+        List<CompletableFuture<Collection<EnrichmentMetadata>>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(service.enrichAsync(blobTextFromDoc));
+        }
+        futures.forEach(future -> assertEquals(1, future.join().size()));
+
+        PoolingHttpClientConnectionManager manager = RestConnectionPool.get().getConnectionManager();
+        assertEquals("All the connections must be released to the shared pool", 0,
+                manager.getTotalStats().getLeased());
+    }
+
+    @Test
+    public void testPoolDefaults() {
+        RestConnectionPool pool = new RestConnectionPool(10, 10, 1000, RestConnectionPool.DEFAULT_CONNECT_TIMEOUT_MS,
+                RestConnectionPool.DEFAULT_SOCKET_TIMEOUT_MS, RestConnectionPool.DEFAULT_LEASE_TIMEOUT_MS, 1);
+        assertEquals("No timeout unless configured", -1, pool.requestConfig.getConnectTimeout());
+        assertEquals(-1, pool.requestConfig.getSocketTimeout());
+        assertEquals(-1, pool.requestConfig.getConnectionRequestTimeout());
+        pool.close();
+        assertTrue(pool.getExecutor().isShutdown());
+    }
+
+    @Test
+    public void testPooledDefault() {
+        Map<String, String> options = new HashMap<>();
+        options.put("uri", "http://localhost:5089/nuxeo/runningstatus");
+        assertTrue(new RestClient(options, null).pooled);
+        assertFalse("A custom client builder isn't pooled by default",
+                new RestClient(options, HttpClientBuilder::build).pooled);
+        options.put(RestClient.OPTION_POOLED, "true");
+        assertTrue(new RestClient(options, HttpClientBuilder::build).pooled);
+    }
+
     @Test
     public void testIsLive() {
         Map<String, String> options = new HashMap<>();
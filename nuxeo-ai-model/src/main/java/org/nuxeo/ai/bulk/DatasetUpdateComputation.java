@@ -23,7 +23,6 @@ import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_DOCUMENTS_COUNT
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_EVALUATION_DATA;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_TRAINING_DATA;
 import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
-import static org.nuxeo.ai.bulk.ExportHelper.getKVS;
 import static org.nuxeo.ai.bulk.RecordWriterBatchComputation.TRAINING_WRITER;
 import static org.nuxeo.ai.bulk.RecordWriterBatchComputation.VALIDATION_WRITER;
 import static org.nuxeo.ecm.core.api.CoreInstance.getCoreSessionSystem;
@@ -31,9 +30,9 @@ import static org.nuxeo.ecm.core.api.CoreInstance.getCoreSessionSystem;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.model.export.DatasetExportService;
@@ -54,14 +53,16 @@ import org.nuxeo.runtime.transaction.TransactionHelper;
 
 /**
  * Fetches and Updates a Dataset related to received batch
+ * <p>
+ * The records of a batch are counted until the end of batch record following them, the dataset is then completed.
  */
 public class DatasetUpdateComputation extends AbstractComputation {
 
     private static final Logger log = LogManager.getLogger(DatasetUpdateComputation.class);
 
-    protected Map<String, Long> counters = Collections.synchronizedMap(new HashMap<>());
+    protected Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
 
-    protected Map<String, Long> errors = Collections.synchronizedMap(new HashMap<>());
+    protected Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
 
     public DatasetUpdateComputation(String name) {
         super(name, 1, 1);
@@ -70,60 +71,59 @@ public class DatasetUpdateComputation extends AbstractComputation {
     @Override
     public void processRecord(ComputationContext ctx, String input, Record record) {
         ExportRecord export = getAvroCodec(ExportRecord.class).decode(record.getData());
-        if (export.isFailed()) {
-            errors.putIfAbsent(export.getId(), 0L);
-            errors.computeIfPresent(export.getId(), (s, val) -> 1L + val);
+        String batchId = export.getId();
+        if (!export.isEndOfBatch()) {
+            counters.computeIfAbsent(batchId, key -> new AtomicLong()).incrementAndGet();
+            if (export.isFailed()) {
+                errors.computeIfAbsent(batchId, key -> new AtomicLong()).incrementAndGet();
+            }
+            return;
         }
 
-        boolean endOfBatch = isEndOfBatch(export);
-        if (endOfBatch) {
-            BulkService service = Framework.getService(BulkService.class);
-            String commandId = export.getCommandId();
-            BulkCommand command = service.getCommand(commandId);
-            if (command == null) {
-                log.warn("The bulk command {} is missing. Unable to save blobs info.", commandId);
-            }
+        BulkService service = Framework.getService(BulkService.class);
+        String commandId = export.getCommandId();
+        BulkCommand command = service.getCommand(commandId);
+        if (command == null) {
+            log.warn("The bulk command {} is missing. Unable to save blobs info.", commandId);
+        }
 
-            String batchId = export.getId();
-            log.debug("Ending batch {} for {}", batchId, commandId);
+        log.debug("Ending batch {} for {}", batchId, commandId);
+        AtomicLong counter = counters.remove(batchId);
+        AtomicLong error = errors.remove(batchId);
+        long processed = counter == null ? 0 : counter.get();
+        long errored = error == null ? 0 : error.get();
 
-            for (String name : Arrays.asList(TRAINING_WRITER, VALIDATION_WRITER)) {
-                RecordWriter writer = Framework.getService(AIComponent.class).getRecordWriter(name);
-                if (writer == null) {
-                    throw new NuxeoException("Unable to find record writer: " + name);
-                }
+        for (String name : Arrays.asList(TRAINING_WRITER, VALIDATION_WRITER)) {
+            RecordWriter writer = Framework.getService(AIComponent.class).getRecordWriter(name);
+            if (writer == null) {
+                throw new NuxeoException("Unable to find record writer: " + name);
+            }
 
-                if (writer.exists(batchId)) {
-                    try {
-                        writer.complete(batchId).ifPresent(blob -> {
-                            if (command != null) {
-                                updateDatasetDocument(command, blob, TRAINING_WRITER.equals(name), export);
-                            }
-                        });
-                    } catch (IOException e) {
-                        throw new NuxeoException("Unable to complete action " + commandId, e);
-                    }
-                } else {
-                    log.warn("No writer for command {} name {} batch ID {} of size {}", commandId, name, batchId,
-                            counters.get(batchId) - errors.get(batchId));
+            if (writer.exists(batchId)) {
+                try {
+                    writer.complete(batchId).ifPresent(blob -> {
+                        if (command != null) {
+                            updateDatasetDocument(command, blob, TRAINING_WRITER.equals(name), export, processed);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new NuxeoException("Unable to complete action " + commandId, e);
                 }
+            } else {
+                log.warn("No writer for command {} name {} batch ID {} of size {}", commandId, name, batchId,
+                        processed - errored);
             }
-
-            long processed = counters.get(batchId);
-            long errored = errors.computeIfAbsent(batchId, (key) -> 0L);
-            ExportStatus eb = ExportStatus.of(commandId, batchId, processed, errored);
-            eb.setTraining(export.isTraining());
-
-            ctx.produceRecord(OUTPUT_1, batchId, getAvroCodec(ExportStatus.class).encode(eb));
-            // Clear counter
-            counters.remove(batchId);
-            ctx.askForCheckpoint();
         }
 
-        updateDelta(export.getId());
+        ExportStatus eb = ExportStatus.of(commandId, batchId, processed, errored);
+        eb.setTraining(export.isTraining());
+
+        ctx.produceRecord(OUTPUT_1, batchId, getAvroCodec(ExportStatus.class).encode(eb));
+        ctx.askForCheckpoint();
     }
 
-    private void updateDatasetDocument(BulkCommand cmd, Blob blob, boolean isTraining, ExportRecord export) {
+    private void updateDatasetDocument(BulkCommand cmd, Blob blob, boolean isTraining, ExportRecord export,
+            long processed) {
         TransactionHelper.runInTransaction(() -> {
             CoreSession session = getCoreSessionSystem(cmd.getRepository(), cmd.getUsername());
             DocumentModel document = Framework.getService(DatasetExportService.class)
@@ -132,7 +132,7 @@ public class DatasetUpdateComputation extends AbstractComputation {
             if (document != null) {
                 log.debug("Updating document {} with blob {}", document.getId(), blob.getDigest());
 
-                document.setPropertyValue(DATASET_EXPORT_DOCUMENTS_COUNT, counters.get(export.getId()));
+                document.setPropertyValue(DATASET_EXPORT_DOCUMENTS_COUNT, processed);
 
                 String prop = isTraining ? DATASET_EXPORT_TRAINING_DATA : DATASET_EXPORT_EVALUATION_DATA;
                 log.info("Blob size {} for command {} batch ID {} and document {}", blob.getLength(), cmd.getId(),
@@ -146,22 +146,4 @@ public class DatasetUpdateComputation extends AbstractComputation {
             return null;
         });
     }
-
-    protected void updateDelta(String key) {
-        counters.computeIfPresent(key, (s, val) -> 1L + val);
-    }
-
-    protected boolean isEndOfBatch(ExportRecord rec) {
-        Long processed = counters.computeIfAbsent(rec.getId(), (key) -> 1L);
-        Long total = getKVS().getLong(rec.getId());
-
-        if (total == null) {
-            log.error(
-                    "Likely the KVS record for batch ID {} was removed by TTL expired event; interrupting {} pipeline",
-                    rec.getId(), rec.getCommandId());
-            throw new NuxeoException("Entries total is not existing anymore in the KVS");
-        }
-
-        return processed >= total;
-    }
 }
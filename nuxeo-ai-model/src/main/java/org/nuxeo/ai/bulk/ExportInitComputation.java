@@ -20,7 +20,6 @@
 package org.nuxeo.ai.bulk;
 
 import static java.util.Collections.shuffle;
-import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toMap;
 import static org.nuxeo.ai.AIConstants.ENRICHMENT_FACET;
 import static org.nuxeo.ai.AIConstants.EXPORT_SPLIT_PARAM;
@@ -30,9 +29,7 @@ import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_MODEL_ID;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_MODEL_NAME;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_MODEL_START_DATE;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_TYPE;
-import static org.nuxeo.ai.bulk.AbstractRecordWriter.TIMEOUT_KV_STORE;
 import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
-import static org.nuxeo.ai.bulk.ExportHelper.getKVS;
 import static org.nuxeo.ai.model.export.CorpusDelta.CORPORA_ID_PARAM;
 import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.INPUT_PARAMETERS;
 import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.MODEL_PARAMETERS;
@@ -42,7 +39,6 @@ import static org.nuxeo.ai.pipes.functions.PropertyUtils.AI_CONVERSION_STRICT_MO
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.IMAGE_TYPE;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.getPropertyValue;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
-import static org.nuxeo.ecm.core.query.sql.NXQL.escapeString;
 import static org.nuxeo.ecm.core.schema.FacetNames.HIDDEN_IN_NAVIGATION;
 
 import java.io.IOException;
@@ -51,6 +47,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -67,7 +64,7 @@ import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.adapters.DatasetExport;
 import org.nuxeo.ai.cloud.CloudClient;
 import org.nuxeo.ai.metadata.SuggestionMetadataWrapper;
-import org.nuxeo.ai.model.analyzis.DatasetStatsService;
+import org.nuxeo.ai.model.analyzis.DatasetStatsCollector;
 import org.nuxeo.ai.model.export.DatasetExportService;
 import org.nuxeo.ai.pipes.functions.PropertyUtils;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
@@ -96,8 +93,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
  */
 public class ExportInitComputation extends AbstractBulkComputation {
 
-    public static final String UUID_QUERY_INIT = "SELECT * FROM Document WHERE ecm:uuid IN ";
-
     public static final long TIMEOUT_48_HOURS_IN_SEC = TimeUnit.HOURS.toSeconds(48);
 
     public static final String COMMA_DELIMITER = ",";
@@ -114,6 +109,9 @@ public class ExportInitComputation extends AbstractBulkComputation {
 
     protected List<ExportRecord> failed = new LinkedList<>();
 
+    // Ids of the batches of the bucket, each one ends with an end of batch record
+    protected Set<String> batchIds = new LinkedHashSet<>();
+
     protected int split = DEFAULT_SPLIT;
 
     private Boolean strictMode = null;
@@ -146,23 +144,26 @@ public class ExportInitComputation extends AbstractBulkComputation {
 
         // ID to track the batch
         String batchId = UUID.randomUUID().toString();
-        docs.stream().map(doc -> createRecordFromDoc(batchId, inputs, outputs, doc)).forEach(rec -> {
+        DatasetStatsCollector collector = newStatsCollector(inputs, outputs);
+        for (DocumentModel doc : docs) {
+            collector.add(doc);
+            ExportRecord rec = createRecordFromDoc(batchId, inputs, outputs, doc);
             if (rec.isFailed()) {
                 failed.add(rec);
             } else {
                 suitable.add(rec);
             }
-        });
+        }
 
-        getKVS().put(batchId, (long) docs.size(),
-                Long.parseLong(Framework.getProperty(TIMEOUT_KV_STORE, String.valueOf(TIMEOUT_48_HOURS_IN_SEC))));
+        if (!docs.isEmpty()) {
+            batchIds.add(batchId);
+        }
         if (suitable.isEmpty()) {
             log.warn("No suitable documents found in batch {}; failed size {}", batchId, failed);
         }
 
-        String nxql = buildQueryFrom(docs);
         String original = (String) properties.get(QUERY_PARAM);
-        Blob stats = getStatisticsBlob(session, nxql, inputs, outputs);
+        Blob stats = getStatisticsBlob(collector.getStatistics());
         createDataset(session, original, modelParams, inputs, outputs, stats, batchId, split);
         bindCorporaToModel(session, client, modelParams);
     }
@@ -197,10 +198,16 @@ public class ExportInitComputation extends AbstractBulkComputation {
             context.produceRecord(OUTPUT_1, rec.getId(), codec.encode(rec));
         }
 
+        // Records of a batch share the same key, the end of batch record follows them in the same partition
+        for (String batchId : batchIds) {
+            context.produceRecord(OUTPUT_1, batchId, codec.encode(ExportRecord.endOfBatch(batchId, command.getId())));
+        }
+
         log.warn("Initialized Batch of {} suitable records; Failed {}; Command {}", suitable.size(), failed.size(),
                 command.getId());
         failed.clear();
         suitable.clear();
+        batchIds.clear();
         context.askForCheckpoint();
     }
 
@@ -209,6 +216,7 @@ public class ExportInitComputation extends AbstractBulkComputation {
         super.processFailure(context, failure);
         suitable.clear();
         failed.clear();
+        batchIds.clear();
         throw new NuxeoException(failure);
     }
 
@@ -313,11 +321,9 @@ public class ExportInitComputation extends AbstractBulkComputation {
     }
 
     @Nonnull
-    protected Blob getStatisticsBlob(CoreSession session, String nxql, Set<PropertyType> input,
-            Set<PropertyType> output) {
+    protected Blob getStatisticsBlob(Collection<Statistic> statistics) {
         Blob stats;
         try {
-            Collection<Statistic> statistics = buildStatistics(session, nxql, input, output);
             stats = Blobs.createJSONBlobFromValue(statistics);
         } catch (IOException e) {
             throw new NuxeoException("Unable to process stats blob", e);
@@ -325,10 +331,15 @@ public class ExportInitComputation extends AbstractBulkComputation {
         return stats;
     }
 
-    protected String buildQueryFrom(DocumentModelList docs) {
-        return UUID_QUERY_INIT + " (" + docs.stream()
-                                            .map(doc -> escapeString(doc.getId()))
-                                            .collect(joining(COMMA_DELIMITER)) + ")";
+    /**
+     * Creates the collector computing the statistics of the batch from its documents, instead of aggregating them
+     * with a query.
+     */
+    protected DatasetStatsCollector newStatsCollector(Set<PropertyType> inputs, Set<PropertyType> outputs) {
+        List<PropertyType> properties = Stream.concat(inputs.stream(), outputs.stream())
+                                              .map(ExportHelper::addTypeIfNull)
+                                              .collect(Collectors.toList());
+        return new DatasetStatsCollector(properties);
     }
 
     protected ExportRecord createRecordFromDoc(String id, Set<PropertyType> inputs, Set<PropertyType> outputs,
@@ -396,12 +407,6 @@ public class ExportInitComputation extends AbstractBulkComputation {
         }
     }
 
-    protected Collection<Statistic> buildStatistics(CoreSession session, String query, Set<PropertyType> input,
-            Set<PropertyType> output) {
-        DatasetStatsService dss = Framework.getService(DatasetStatsService.class);
-        return dss.getStatistics(session, query, input, output);
-    }
-
     /**
      * Create the root folder if it doesn't exist
      */
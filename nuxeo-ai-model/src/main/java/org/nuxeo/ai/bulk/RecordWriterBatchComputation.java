@@ -19,14 +19,17 @@
 package org.nuxeo.ai.bulk;
 
 import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.partitioningBy;
 import static java.util.stream.Collectors.toList;
 import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.pipes.types.ExportRecord;
@@ -50,6 +53,8 @@ public class RecordWriterBatchComputation extends AbstractBatchComputation {
 
     protected Set<String> exportedIds = new HashSet<>();
 
+    protected Set<String> endedIds = new HashSet<>();
+
     protected RecordWriter trainingWriter;
 
     protected RecordWriter validationWriter;
@@ -65,34 +70,56 @@ public class RecordWriterBatchComputation extends AbstractBatchComputation {
                                                          .map(r -> codec.decode(r.getData()))
                                                          .collect(groupingBy(ExportRecord::getId, toList()));
         for (Map.Entry<String, List<ExportRecord>> entry : grouped.entrySet()) {
-            List<ExportRecord> recs = entry.getValue();
+            Map<Boolean, List<ExportRecord>> byKind = entry.getValue()
+                                                           .stream()
+                                                           .collect(partitioningBy(ExportRecord::isEndOfBatch));
+            List<ExportRecord> recs = byKind.get(false);
             long errored;
             try {
                 errored = write(context, codec, recs);
             } catch (IOException e) {
                 log.error("Failed to write batch {}; exception {}", metadata.name(), e);
+                release(entry.getKey());
                 throw new NuxeoException("Failed to write batch " + metadata.name(), e);
             }
 
             log.debug("Attempted to write {} records; Errors {}", recs.size(), errored);
+            // The end of batch record must still follow all the records of its batch
+            for (ExportRecord end : byKind.get(true)) {
+                endedIds.add(end.getId());
+                context.produceRecord(OUTPUT_1, end.getId(), codec.encode(end));
+            }
         }
 
         exportedIds.clear();
+        endedIds.clear();
         context.askForCheckpoint();
     }
 
     private long write(ComputationContext context, Codec<ExportRecord> codec, List<ExportRecord> recs)
             throws IOException {
-        long errored = 0;
-        for (ExportRecord rec : recs) {
-            RecordWriter writer;
-            if (rec.isTraining()) {
-                writer = getTrainingWriter();
-            } else {
-                writer = getValidationWriter();
+        // Each writer gets all its records at once so it can prepare them concurrently
+        boolean[] written = new boolean[recs.size()];
+        Map<Boolean, List<Integer>> byWriter = IntStream.range(0, recs.size())
+                                                        .boxed()
+                                                        .collect(partitioningBy(i -> recs.get(i).isTraining()));
+        for (Map.Entry<Boolean, List<Integer>> entry : byWriter.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            if (indexes.isEmpty()) {
+                continue;
             }
+            RecordWriter writer = entry.getKey() ? getTrainingWriter() : getValidationWriter();
+            boolean[] writerWritten = writer.writeAll(indexes.stream().map(recs::get).collect(toList()));
+            for (int i = 0; i < writerWritten.length; i++) {
+                written[indexes.get(i)] = writerWritten[i];
+            }
+        }
 
-            if (rec.isFailed() || !writer.write(rec)) {
+        // The records are produced in the order they were received
+        long errored = 0;
+        for (int i = 0; i < written.length; i++) {
+            ExportRecord rec = recs.get(i);
+            if (rec.isFailed() || !written[i]) {
                 rec.setFailed(true);
                 errored += 1;
             }
@@ -111,19 +138,41 @@ public class RecordWriterBatchComputation extends AbstractBatchComputation {
                 commandId);
         Codec<ExportRecord> codec = getAvroCodec(ExportRecord.class);
         log.warn("Mark as failed {} Export Records for command ID {}", records.size(), commandId);
+        List<ExportRecord> ends = new ArrayList<>();
+        Set<String> ids = new HashSet<>();
         records.forEach(rec -> {
             ExportRecord decoded = codec.decode(rec.getData());
-            if (!exportedIds.contains(decoded.getId())) {
+            ids.add(decoded.getId());
+            if (decoded.isEndOfBatch()) {
+                if (!endedIds.contains(decoded.getId())) {
+                    ends.add(decoded);
+                }
+            } else if (!exportedIds.contains(decoded.getId())) {
                 decoded.setFailed(true);
                 byte[] encoded = codec.encode(decoded);
                 context.produceRecord(OUTPUT_1, decoded.getId(), encoded);
             }
         });
+        ends.forEach(end -> context.produceRecord(OUTPUT_1, end.getId(), codec.encode(end)));
+        ids.forEach(this::release);
 
         exportedIds.clear();
+        endedIds.clear();
         context.askForCheckpoint();
     }
 
+    /**
+     * Releases the files the writers keep open for this id, the records already written are kept.
+     */
+    protected void release(String id) {
+        try {
+            getTrainingWriter().release(id);
+            getValidationWriter().release(id);
+        } catch (IOException | NuxeoException e) {
+            log.warn("Unable to release the files of {}", id, e);
+        }
+    }
+
     protected RecordWriter getTrainingWriter() {
         if (trainingWriter == null) {
             trainingWriter = Framework.getService(AIComponent.class).getRecordWriter(TRAINING_WRITER);
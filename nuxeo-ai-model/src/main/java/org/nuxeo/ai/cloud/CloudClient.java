@@ -18,7 +18,13 @@
  */
 package org.nuxeo.ai.cloud;
 
+import static org.nuxeo.ai.sdk.rest.Common.MODEL_NAME_PARAM;
+import static org.nuxeo.ai.sdk.rest.api.ModelCaller.DATASOURCE_PARAM;
+
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -26,6 +32,7 @@ import javax.validation.constraints.NotNull;
 import org.nuxeo.ai.sdk.objects.CorporaParameters;
 import org.nuxeo.ai.sdk.objects.TensorInstances;
 import org.nuxeo.ai.sdk.rest.ResponseHandler;
+import org.nuxeo.ai.sdk.rest.client.API;
 import org.nuxeo.ai.sdk.rest.client.InsightClient;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -79,6 +86,19 @@ public interface CloudClient {
 
     String predict(CoreSession session, String modelName, TensorInstances instances) throws IOException;
 
+    /**
+     * Same as {@link #predict(CoreSession, String, TensorInstances)} with a resolved client, no session is used.
+     *
+     * @since 3.5
+     */
+    default String predict(@Nonnull InsightClient client, String modelName, TensorInstances instances)
+            throws IOException {
+        Map<String, Serializable> params = new HashMap<>();
+        params.put(MODEL_NAME_PARAM, modelName);
+        params.put(DATASOURCE_PARAM, client.getConfiguration().getDatasource());
+        return client.api(API.Model.PREDICT).call(params, instances);
+    }
+
     /**
      * @return a list of AI Models retrieved from AI Cloud
      * @throws IOException
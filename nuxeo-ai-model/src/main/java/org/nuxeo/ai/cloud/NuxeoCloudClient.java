@@ -35,8 +35,6 @@ import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_TRAINING_DATA;
 import static org.nuxeo.ai.sdk.rest.Common.CORPORA_ID_PARAM;
 import static org.nuxeo.ai.sdk.rest.Common.EXPORT_ID_PARAM;
 import static org.nuxeo.ai.sdk.rest.Common.MODEL_ID_PARAM;
-import static org.nuxeo.ai.sdk.rest.Common.MODEL_NAME_PARAM;
-import static org.nuxeo.ai.sdk.rest.api.ModelCaller.DATASOURCE_PARAM;
 import static org.nuxeo.ai.sdk.rest.api.ModelCaller.LABEL_PARAM;
 import static org.nuxeo.ai.tensorflow.TFRecordWriter.TFRECORD_MIME_TYPE;
 
@@ -53,7 +51,13 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.TimeZone;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.commons.lang3.StringUtils;
@@ -82,6 +86,8 @@ import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.api.impl.blob.JSONBlob;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
 import org.nuxeo.runtime.model.Component;
 import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.DefaultComponent;
@@ -101,6 +107,18 @@ public class NuxeoCloudClient extends DefaultComponent implements CloudClient {
 
     private static final int CHUNK_100_MB = 1024 * 1024 * 100;
 
+    public static final String UPLOAD_CHUNK_SIZE_CONF_VAR = "nuxeo.ai.upload.chunk.size";
+
+    public static final String UPLOAD_PARALLELISM_CONF_VAR = "nuxeo.ai.upload.parallelism";
+
+    public static final String DEFAULT_UPLOAD_PARALLELISM = "3";
+
+    public static final String UPLOAD_KV_STORE = "default";
+
+    public static final String UPLOAD_KEY_PREFIX = "ai-upload:";
+
+    public static final long UPLOAD_RESUME_TTL_SEC = TimeUnit.HOURS.toSeconds(24);
+
     private static final Logger log = LogManager.getLogger(NuxeoCloudClient.class);
 
     public static final String XP_CONFIG = "config";
@@ -113,6 +131,8 @@ public class NuxeoCloudClient extends DefaultComponent implements CloudClient {
 
     protected Cache<String, Optional<InsightClient>> cachedClients;
 
+    protected volatile ExecutorService uploadExecutor;
+
     @Override
     public void start(ComponentContext context) {
         super.start(context);
@@ -133,6 +153,16 @@ public class NuxeoCloudClient extends DefaultComponent implements CloudClient {
         cachedClients = builder.build();
     }
 
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        super.stop(context);
+        ExecutorService executor = uploadExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+            uploadExecutor = null;
+        }
+    }
+
     @Override
     public void activate(ComponentContext context) {
         super.activate(context);
@@ -313,6 +343,94 @@ public class NuxeoCloudClient extends DefaultComponent implements CloudClient {
         return true;
     }
 
+    /**
+     * Uploads a part of a dataset in its own batch on the upload executor.
+     * <p>
+     * The batch of an uploaded part is recorded, so a retried upload of the same dataset reuses it instead of sending
+     * the part again. The recorded batches are dropped once the corpus is attached or refused. The future completes
+     * with the batch id, null if the part couldn't be uploaded.
+     */
+    protected CompletableFuture<String> uploadPart(InsightClient client, String datasetId, String name, String index,
+            Blob blob) {
+        String key = uploadKey(datasetId, index, blob);
+        String uploaded = key == null ? null : getUploadKVS().getString(key);
+        if (uploaded != null) {
+            log.info("Resuming upload of dataset {}, {} part was already uploaded in batch {}", datasetId, name,
+                    uploaded);
+            return CompletableFuture.completedFuture(uploaded);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            BatchUpload batchUpload = client.getBatchUpload(getUploadChunkSize());
+            String batchId = batchUpload.getBatchId();
+            if (!createBatch(batchUpload, name, index, blob)) {
+                return null;
+            }
+            if (key != null) {
+                getUploadKVS().put(key, batchId, UPLOAD_RESUME_TTL_SEC);
+            }
+            return batchId;
+        }, getUploadExecutor());
+    }
+
+    protected void clearUploadedParts(String datasetId, Blob... blobs) {
+        for (int i = 0; i < blobs.length; i++) {
+            String key = uploadKey(datasetId, String.valueOf(i), blobs[i]);
+            if (key != null) {
+                getUploadKVS().put(key, (String) null);
+            }
+        }
+    }
+
+    /**
+     * The key recording the batch of an uploaded part, the digest makes sure the part didn't change since.
+     */
+    protected String uploadKey(String datasetId, String index, Blob blob) {
+        if (datasetId == null || blob == null || StringUtils.isBlank(blob.getDigest())) {
+            return null;
+        }
+        return UPLOAD_KEY_PREFIX + datasetId + ":" + index + ":" + blob.getDigest();
+    }
+
+    protected String join(CompletableFuture<String> upload) {
+        try {
+            return upload.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof NuxeoClientException) {
+                throw (NuxeoClientException) e.getCause();
+            }
+            throw new NuxeoException("Unable to upload the dataset", e.getCause());
+        }
+    }
+
+    protected KeyValueStore getUploadKVS() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(UPLOAD_KV_STORE);
+    }
+
+    protected int getUploadChunkSize() {
+        return Integer.parseInt(Framework.getProperty(UPLOAD_CHUNK_SIZE_CONF_VAR, String.valueOf(CHUNK_100_MB)));
+    }
+
+    protected ExecutorService getUploadExecutor() {
+        ExecutorService executor = uploadExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = uploadExecutor;
+                if (executor == null) {
+                    int threads = Integer.parseInt(
+                            Framework.getProperty(UPLOAD_PARALLELISM_CONF_VAR, DEFAULT_UPLOAD_PARALLELISM));
+                    AtomicInteger threadCount = new AtomicInteger();
+                    executor = Executors.newFixedThreadPool(threads, runnable -> {
+                        Thread thread = new Thread(runnable, "ai-dataset-upload-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    uploadExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
     @Override
     public String uploadDataset(@Nonnull DocumentModel dataset) {
         String jobId = (String) dataset.getPropertyValue(DATASET_EXPORT_JOB_ID);
@@ -335,52 +453,58 @@ public class NuxeoCloudClient extends DefaultComponent implements CloudClient {
 
             try {
                 DateTime start = DateTime.now();
-                BatchUpload batchUpload = client.getBatchUpload(CHUNK_100_MB);
-                String batch1 = batchUpload.getBatchId();
+                String datasetId = dataset.getId();
+                // The parts are uploaded concurrently, each one in its own batch
+                CompletableFuture<String> training;
                 if (trainingData == null) {
                     log.warn("Job/Command: {} has no training data - null data", jobId);
-                    batch1 = null;
+                    training = CompletableFuture.completedFuture(null);
                 } else if (trainingData.getLength() == 0) {
                     log.warn("Job/Command: {} has no training data - data has 0 length", jobId);
-                    batch1 = null;
+                    training = CompletableFuture.completedFuture(null);
                 } else if (trainingData.getFile() == null) {
                     log.warn("Job/Command: {} has no training data - data blob file is null", jobId);
-                    batch1 = null;
+                    training = CompletableFuture.completedFuture(null);
                 } else {
-                    batch1 = createBatch(batchUpload, "training", "0", trainingData) ? batch1 : null;
+                    training = uploadPart(client, datasetId, "training", "0", trainingData);
                 }
 
-                batchUpload = client.getBatchUpload(CHUNK_100_MB);
-                String batch2 = batchUpload.getBatchId();
+                CompletableFuture<String> evaluation;
                 if (evalData == null) {
                     log.warn("Job/Command: {} has no evaluation data - null data", jobId);
-                    batch2 = null;
+                    evaluation = CompletableFuture.completedFuture(null);
                 } else if (evalData.getLength() == 0) {
                     log.warn("Job/Command: {} has no evaluation data - data has 0 length", jobId);
-                    batch2 = null;
+                    evaluation = CompletableFuture.completedFuture(null);
                 } else if (evalData.getFile() == null) {
                     log.warn("Job/Command: {} has no evaluation data - data blob file is null", jobId);
-                    batch2 = null;
+                    evaluation = CompletableFuture.completedFuture(null);
                 } else {
-                    batch2 = createBatch(batchUpload, "evaluation", "1", evalData) ? batch2 : null;
+                    evaluation = uploadPart(client, datasetId, "evaluation", "1", evalData);
                 }
 
+                String batch1 = join(training);
+                String batch2 = join(evaluation);
                 if (StringUtils.isAllBlank(batch1, batch2)) {
                     log.error("Job/Command: {} has no training and no evaluation data. Document {}", jobId,
                             dataset.getId());
                     return null;
                 }
 
-                batchUpload = client.getBatchUpload(CHUNK_100_MB);
-                String batch3 = batchUpload.getBatchId();
-                batch3 = createBatch(batchUpload, "statistics", "2", statsData) ? batch3 : null;
+                // The statistics are only worth sending along a training or an evaluation part
+                String batch3 = join(uploadPart(client, datasetId, "statistics", "2", statsData));
 
                 DateTime end = DateTime.now();
                 log.info("Dataset upload took {} seconds", Seconds.secondsBetween(start, end).getSeconds());
 
                 AICorpus corpus = createCorpus(dataset, batch1, batch2, batch3, start, end);
                 String corporaId = (String) dataset.getPropertyValue(DATASET_EXPORT_CORPORA_ID);
-                return uploadDataset(session, corpus, corporaId);
+                try {
+                    return uploadDataset(session, corpus, corporaId);
+                } finally {
+                    // The batches of a refused corpus may have expired, its parts are uploaded again on retry
+                    clearUploadedParts(datasetId, trainingData, evalData, statsData);
+                }
             } catch (NuxeoClientException e) {
                 log.error("User {} failed to upload dataset. ", session.getPrincipal().getActingUser(), e);
             }
@@ -461,10 +585,7 @@ public class NuxeoCloudClient extends DefaultComponent implements CloudClient {
             return null;
         }
 
-        Map<String, Serializable> params = new HashMap<>();
-        params.put(MODEL_NAME_PARAM, modelName);
-        params.put(DATASOURCE_PARAM, client.getConfiguration().getDatasource());
-        return client.api(API.Model.PREDICT).call(params, instances);
+        return predict(client, modelName, instances);
     }
 
     @Override
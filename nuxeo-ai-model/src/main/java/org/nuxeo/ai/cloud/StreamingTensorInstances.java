@@ -0,0 +1,174 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.cloud;
+
+import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.nuxeo.ai.sdk.objects.TensorInstances;
+import org.nuxeo.ai.sdk.objects.TensorInstances.Tensor;
+import org.nuxeo.ecm.core.api.Blob;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * Tensor instances whose images are kept as blobs and base64 encoded while the request is serialized, straight from the
+ * blob stream into the json generator. The images are never held in memory as base64 strings.
+ * <p>
+ * They can be used wherever {@link TensorInstances} are, the json is the same and the other tensors are serialized as
+ * usual. The Insight client serializes the request body with Jackson, so the images go through
+ * {@link #serialize(JsonGenerator, SerializerProvider)} whether the client streams the body to the connection or
+ * buffers it first; the base64 strings of the tensors are never built.
+ */
+public class StreamingTensorInstances extends TensorInstances implements JsonSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Not a valid base64 value so it can't be confused with a real image
+    protected static final String PLACEHOLDER_PREFIX = "\u0000image:";
+
+    protected final String documentId;
+
+    protected final List<Instance> streamingInstances;
+
+    public StreamingTensorInstances(String docId, List<Instance> instances) {
+        super(docId, Collections.emptyList());
+        this.documentId = docId;
+        this.streamingInstances = instances;
+    }
+
+    public List<Instance> getStreamingInstances() {
+        return streamingInstances;
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        // Serialize the instances with a placeholder for each image, then replace the placeholders by the images
+        Map<String, Blob> images = new HashMap<>();
+        List<Map<String, Tensor>> placeholders = new ArrayList<>(streamingInstances.size());
+        for (Instance instance : streamingInstances) {
+            Map<String, Tensor> tensors = new HashMap<>(instance.tensors);
+            instance.images.forEach((name, image) -> {
+                String placeholder = PLACEHOLDER_PREFIX + images.size();
+                images.put(placeholder, image);
+                tensors.put(name, Tensor.image(placeholder));
+            });
+            placeholders.add(tensors);
+        }
+        write(gen, MAPPER.valueToTree(new TensorInstances(documentId, placeholders)), images);
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+            throws IOException {
+        serialize(gen, serializers);
+    }
+
+    protected void write(JsonGenerator gen, JsonNode node, Map<String, Blob> images) throws IOException {
+        if (node.isObject()) {
+            gen.writeStartObject();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                gen.writeFieldName(field.getKey());
+                write(gen, field.getValue(), images);
+            }
+            gen.writeEndObject();
+        } else if (node.isArray()) {
+            gen.writeStartArray();
+            for (JsonNode element : node) {
+                write(gen, element, images);
+            }
+            gen.writeEndArray();
+        } else if (node.isTextual() && images.containsKey(node.textValue())) {
+            Blob image = images.get(node.textValue());
+            long length = image.getLength();
+            try (InputStream in = image.getStream()) {
+                gen.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, in,
+                        length < 0 || length > Integer.MAX_VALUE ? -1 : (int) length);
+            }
+        } else {
+            gen.writeTree(node);
+        }
+    }
+
+    /**
+     * The tensors of an instance
+     */
+    public static class Instance implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final Map<String, Tensor> tensors = new HashMap<>();
+
+        protected final Map<String, Blob> images = new HashMap<>();
+
+        public static Instance of(Map<String, Tensor> tensors) {
+            Instance instance = new Instance();
+            instance.tensors.putAll(tensors);
+            return instance;
+        }
+
+        public Instance tensor(String name, Tensor tensor) {
+            images.remove(name);
+            tensors.put(name, tensor);
+            return this;
+        }
+
+        /**
+         * Adds an image tensor, a null image is sent as a null image tensor.
+         */
+        public Instance image(String name, Blob image) {
+            if (image == null) {
+                return tensor(name, Tensor.image(null));
+            }
+            tensors.remove(name);
+            images.put(name, image);
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return tensors.isEmpty() && images.isEmpty();
+        }
+
+        public int size() {
+            return tensors.size() + images.size();
+        }
+
+        public Set<String> getNames() {
+            Set<String> names = new HashSet<>(tensors.keySet());
+            names.addAll(images.keySet());
+            return Collections.unmodifiableSet(names);
+        }
+    }
+}
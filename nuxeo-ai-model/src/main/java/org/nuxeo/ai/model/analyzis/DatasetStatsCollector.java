@@ -0,0 +1,255 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.model.analyzis;
+
+import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.DEFAULT_NUM_TERMS;
+import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.STATS_COUNT;
+import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.STATS_TOTAL;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.CATEGORY_TYPE;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.IMAGE_TYPE;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.TEXT_TYPE;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.getPropertyValue;
+import static org.nuxeo.elasticsearch.ElasticSearchConstants.AGG_CARDINALITY;
+import static org.nuxeo.elasticsearch.ElasticSearchConstants.AGG_MISSING;
+import static org.nuxeo.elasticsearch.ElasticSearchConstants.AGG_TYPE_TERMS;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.nuxeo.ai.sdk.objects.Bucket;
+import org.nuxeo.ai.sdk.objects.PropertyType;
+import org.nuxeo.ai.sdk.objects.Statistic;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.schema.SchemaManager;
+import org.nuxeo.ecm.core.schema.TypeConstants;
+import org.nuxeo.ecm.core.schema.types.Field;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Computes the statistics of a dataset from its documents, the same statistics
+ * {@link DatasetStatsService#getStatistics} gets from Elasticsearch aggregates.
+ * <p>
+ * The statistics are built incrementally while the documents are loaded: the missing values are counted, the terms
+ * are counted up to a bounded number of terms and the cardinality is estimated with a {@link HyperLogLog}. Collectors
+ * of the same properties can be merged, so partial statistics computed separately make the statistics of the whole
+ * dataset.
+ */
+public class DatasetStatsCollector {
+
+    // Number of terms kept by a collector, as a multiple of the number of terms returned
+    protected static final int TERMS_CAPACITY_FACTOR = 5;
+
+    protected final Map<String, FieldStats> fields = new LinkedHashMap<>();
+
+    protected final int numTerms;
+
+    protected long total;
+
+    protected long count;
+
+    /**
+     * @param properties the properties of the dataset, with their type
+     */
+    public DatasetStatsCollector(Collection<PropertyType> properties) {
+        this(properties, Integer.parseInt(DEFAULT_NUM_TERMS));
+    }
+
+    /**
+     * @param properties the properties of the dataset, with their type
+     * @param numTerms the maximum number of terms of a terms statistic
+     */
+    public DatasetStatsCollector(Collection<PropertyType> properties, int numTerms) {
+        this.numTerms = numTerms;
+        SchemaManager schemaManager = Framework.getService(SchemaManager.class);
+        for (PropertyType property : properties) {
+            Field field = schemaManager.getField(property.getName());
+            fields.put(property.getName(), new FieldStats(property.getName(), property.getType(), field));
+        }
+    }
+
+    /**
+     * Adds a document of the dataset
+     */
+    public void add(DocumentModel doc) {
+        total++;
+        boolean valid = true;
+        for (FieldStats stats : fields.values()) {
+            valid &= stats.add(getPropertyValue(doc, stats.name));
+        }
+        if (valid) {
+            count++;
+        }
+    }
+
+    /**
+     * Merges the statistics of the other collector into this one, both must be built for the same properties.
+     */
+    public DatasetStatsCollector merge(DatasetStatsCollector other) {
+        if (!fields.keySet().equals(other.fields.keySet())) {
+            throw new IllegalArgumentException(
+                    "Cannot merge statistics of " + fields.keySet() + " and " + other.fields.keySet());
+        }
+        total += other.total;
+        count += other.count;
+        fields.forEach((name, stats) -> stats.merge(other.fields.get(name)));
+        return this;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the statistics, empty if no document was added.
+     */
+    public List<Statistic> getStatistics() {
+        if (total < 1) {
+            return Collections.emptyList();
+        }
+        List<Statistic> statistics = new ArrayList<>();
+        fields.values().forEach(stats -> stats.addStatistics(statistics));
+        statistics.add(Statistic.of(STATS_TOTAL, STATS_TOTAL, STATS_TOTAL, STATS_TOTAL, total));
+        statistics.add(Statistic.of(STATS_COUNT, STATS_COUNT, STATS_COUNT, STATS_COUNT, count));
+        return statistics;
+    }
+
+    /**
+     * The statistics of a property
+     */
+    protected class FieldStats {
+
+        protected final String name;
+
+        protected final String type;
+
+        protected final String inputType;
+
+        // Whether the property must have a value for the document to be counted
+        protected final boolean required;
+
+        // Whether the terms and the cardinality of the property are computed
+        protected final boolean terms;
+
+        protected final Map<String, Long> termCounts = new HashMap<>();
+
+        protected final HyperLogLog cardinality;
+
+        protected long missing;
+
+        protected FieldStats(String name, String type, Field field) {
+            this.name = name;
+            this.type = type;
+            this.inputType = DatasetStatsService.getInputType(field);
+            this.required = IMAGE_TYPE.equals(type)
+                    || TEXT_TYPE.equals(type) && field != null && TypeConstants.isContentType(field.getType());
+            this.terms = CATEGORY_TYPE.equals(type) || TEXT_TYPE.equals(type);
+            this.cardinality = terms ? new HyperLogLog() : null;
+        }
+
+        /**
+         * Adds the value of a document, returns false if the value is missing and required.
+         */
+        protected boolean add(Serializable value) {
+            Collection<?> values = values(value);
+            if (values.isEmpty()) {
+                missing++;
+                return !required;
+            }
+            if (terms) {
+                // A term is counted once per document, like the doc count of an aggregate bucket
+                for (Object term : new HashSet<>(values)) {
+                    if (!(term instanceof Blob)) {
+                        String key = String.valueOf(term);
+                        termCounts.merge(key, 1L, Long::sum);
+                        cardinality.add(key);
+                    }
+                }
+                trim();
+            }
+            return true;
+        }
+
+        protected Collection<?> values(Serializable value) {
+            if (value == null) {
+                return Collections.emptyList();
+            } else if (value instanceof Object[]) {
+                return Arrays.asList((Object[]) value);
+            } else if (value instanceof Collection) {
+                return (Collection<?>) value;
+            }
+            return Collections.singletonList(value);
+        }
+
+        protected void merge(FieldStats other) {
+            missing += other.missing;
+            if (terms) {
+                other.termCounts.forEach((term, docCount) -> termCounts.merge(term, docCount, Long::sum));
+                cardinality.merge(other.cardinality);
+                trim();
+            }
+        }
+
+        /**
+         * Keeps the most frequent terms when there are too many, the counts of the remaining terms may be
+         * underestimated as for the terms aggregate of a sharded index.
+         */
+        protected void trim() {
+            int capacity = numTerms * TERMS_CAPACITY_FACTOR;
+            if (termCounts.size() > 2 * capacity) {
+                Set<String> kept = topTerms(capacity).stream().map(Map.Entry::getKey).collect(Collectors.toSet());
+                termCounts.keySet().retainAll(kept);
+            }
+        }
+
+        protected List<Map.Entry<String, Long>> topTerms(int size) {
+            return termCounts.entrySet()
+                             .stream()
+                             .sorted(Map.Entry.<String, Long> comparingByValue(Comparator.reverseOrder())
+                                              .thenComparing(Map.Entry.comparingByKey()))
+                             .limit(size)
+                             .collect(Collectors.toList());
+        }
+
+        protected void addStatistics(List<Statistic> statistics) {
+            String missingField = IMAGE_TYPE.equals(type) ? name + "/length" : name;
+            statistics.add(new Statistic(AGG_MISSING + "_" + missingField, name, inputType, AGG_MISSING, missing));
+            if (terms) {
+                Statistic termsStatistic = new Statistic(AGG_TYPE_TERMS + "_" + name, name, inputType,
+                        AGG_TYPE_TERMS, null);
+                termsStatistic.setValue(topTerms(numTerms).stream()
+                                                          .map(entry -> new Bucket(entry.getKey(), entry.getValue()))
+                                                          .collect(Collectors.toList()));
+                statistics.add(termsStatistic);
+                statistics.add(new Statistic(AGG_CARDINALITY + "_" + name, name, inputType, AGG_CARDINALITY,
+                        cardinality.cardinality()));
+            }
+        }
+    }
+}
@@ -22,9 +22,12 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.nuxeo.ai.enrichment.EnrichmentUtils.CONVERSION_SERVICE;
 import static org.nuxeo.ai.enrichment.EnrichmentUtils.DEFAULT_CONVERTER;
 import static org.nuxeo.ai.enrichment.EnrichmentUtils.optionAsInteger;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.IMAGE_TYPE;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.TEXT_TYPE;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.base64EncodeBlob;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
@@ -147,30 +150,63 @@ public abstract class AbstractRuntimeModel implements RuntimeModel {
     }
 
     /**
-     * Takes a reference to an image blob and turns it into a format supported by the model
+     * Takes a reference to an image blob and turns it into a format supported by the model. The converted image is
+     * shared with the other models using the same conversion parameters through the {@link ConversionCache}.
      */
     protected String convertImageBlob(Blob sourceBlob) {
+        Blob image = convertImage(sourceBlob);
+        return image == null ? null : base64EncodeBlob(image);
+    }
+
+    /**
+     * Same as {@link #convertImageBlob(Blob)} but returns the converted image, to be base64 encoded while the request
+     * is written.
+     */
+    protected Blob convertImage(Blob sourceBlob) {
         if (sourceBlob != null) {
-            Blob blob = EnrichmentUtils.convertImageBlob(conversionService, sourceBlob, imageWidth, imageHeight,
+            String key = ConversionCache.key(sourceBlob, IMAGE_TYPE, conversionService, imageWidth, imageHeight,
                     imageDepth, imageFormat);
-            return base64EncodeBlob(blob);
+            if (key == null || !ConversionCache.get().isEnabled()) {
+                // Nothing is shared, the converted image is streamed from its blob rather than copied on the heap
+                return EnrichmentUtils.convertImageBlob(conversionService, sourceBlob, imageWidth, imageHeight,
+                        imageDepth, imageFormat);
+            }
+            byte[] bytes = ConversionCache.get().get(key, () -> {
+                Blob blob = EnrichmentUtils.convertImageBlob(conversionService, sourceBlob, imageWidth, imageHeight,
+                        imageDepth, imageFormat);
+                return toBytes(blob);
+            });
+            return bytes == null ? null : Blobs.createBlob(bytes);
         }
         return null;
     }
 
     protected String convertTextBlob(Blob sourceBlob) {
         if (sourceBlob != null) {
-            try {
-                Blob blob = EnrichmentUtils.convertTextBlob(sourceBlob);
-                return blob == null ? "" : PropertyUtils.sanitize(blob.getString());
-            } catch (IOException e) {
-                log.error("Could not convert blob " + sourceBlob.getDigest(), e);
-                return null;
-            }
+            byte[] bytes = ConversionCache.get().get(ConversionCache.key(sourceBlob, TEXT_TYPE), () -> {
+                try {
+                    Blob blob = EnrichmentUtils.convertTextBlob(sourceBlob);
+                    String text = blob == null ? "" : PropertyUtils.sanitize(blob.getString());
+                    return text.getBytes(StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    log.error("Could not convert blob " + sourceBlob.getDigest(), e);
+                    return null;
+                }
+            });
+            return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
         }
         return null;
     }
 
+    protected static byte[] toBytes(Blob blob) {
+        try {
+            return blob == null ? null : blob.getByteArray();
+        } catch (IOException e) {
+            log.warn("Failed to read converted blob", e);
+            return null;
+        }
+    }
+
     /**
      * Checks to see if the specified url is live.
      */
@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.model.serving;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+
+/**
+ * A cache of the converted model inputs, shared by all the runtime models of the node.
+ * <p>
+ * Entries are keyed by the digest of the source blob and the conversion parameters, so models using the same input
+ * with the same parameters only convert a blob once. The cache is bounded by the size of the converted bytes, set with
+ * {@value #CACHE_MAX_BYTES_CONF_VAR}, and entries expire {@value #CACHE_TTL_CONF_VAR} seconds after their last use.
+ * <p>
+ * A cached entry is the whole converted input held on the heap, the models read the converted blobs directly when the
+ * cache is disabled.
+ */
+public class ConversionCache {
+
+    public static final String CACHE_MAX_BYTES_CONF_VAR = "nuxeo.ai.conversion.cache.maxBytes";
+
+    public static final String CACHE_TTL_CONF_VAR = "nuxeo.ai.conversion.cache.ttl";
+
+    public static final long DEFAULT_MAX_BYTES = 20L * 1024 * 1024;
+
+    public static final long DEFAULT_TTL_SEC = 300;
+
+    // Signals a conversion without result, which must not be cached
+    protected static final Exception NO_RESULT = new Exception("No conversion result", null, false, false) {
+    };
+
+    private static volatile ConversionCache instance;
+
+    protected final Cache<String, byte[]> cache;
+
+    protected final long maxBytes;
+
+    protected final Counter hits;
+
+    protected final Counter misses;
+
+    protected final Counter evictions;
+
+    /**
+     * @param maxBytes the maximum size of the converted bytes, 0 to disable the cache
+     * @param ttl TTL in seconds of an entry after its last use
+     */
+    public ConversionCache(long maxBytes, long ttl) {
+        this.maxBytes = maxBytes;
+        this.cache = CacheBuilder.newBuilder()
+                                 .maximumWeight(maxBytes)
+                                 .weigher((String key, byte[] value) -> key.length() + value.length)
+                                 .expireAfterAccess(ttl, TimeUnit.SECONDS)
+                                 .removalListener(this::onRemove)
+                                 .build();
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        this.hits = registry.counter(MetricRegistry.name("nuxeo.ai", "conversionCache", "hits"));
+        this.misses = registry.counter(MetricRegistry.name("nuxeo.ai", "conversionCache", "misses"));
+        this.evictions = registry.counter(MetricRegistry.name("nuxeo.ai", "conversionCache", "evictions"));
+    }
+
+    /**
+     * Gets the cache of the node, creating it if needed
+     */
+    public static ConversionCache get() {
+        ConversionCache cache = instance;
+        if (cache == null) {
+            synchronized (ConversionCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new ConversionCache(getLongProperty(CACHE_MAX_BYTES_CONF_VAR, DEFAULT_MAX_BYTES),
+                            getLongProperty(CACHE_TTL_CONF_VAR, DEFAULT_TTL_SEC));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    protected static long getLongProperty(String key, long defaultValue) {
+        if (Framework.getRuntime() == null) {
+            return defaultValue;
+        }
+        return Long.parseLong(Framework.getProperty(key, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * Builds the key of a converted blob, returns null if the blob has no digest.
+     */
+    public static String key(Blob blob, Object... parameters) {
+        if (blob == null || isBlank(blob.getDigest())) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(blob.getDigest());
+        for (Object parameter : parameters) {
+            key.append(':').append(parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Gets the converted bytes for the key, calling the converter if they are not cached. Concurrent calls for the same
+     * key wait for a single conversion. A null result is not cached, it is returned to all the waiting calls.
+     */
+    public byte[] get(String key, Supplier<byte[]> converter) {
+        if (key == null) {
+            return converter.get();
+        }
+        boolean[] converted = new boolean[1];
+        try {
+            byte[] value = cache.get(key, () -> {
+                converted[0] = true;
+                byte[] result = converter.get();
+                if (result == null) {
+                    // Guava doesn't cache a failed load
+                    throw NO_RESULT;
+                }
+                return result;
+            });
+            (converted[0] ? misses : hits).inc();
+            return value;
+        } catch (ExecutionException e) {
+            if (e.getCause() == NO_RESULT) {
+                misses.inc();
+                return null;
+            }
+            throw new NuxeoException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Indicates if the converted bytes are cached, a disabled cache converts on each call
+     */
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    protected void onRemove(RemovalNotification<String, byte[]> notification) {
+        if (notification.wasEvicted()) {
+            evictions.inc();
+        }
+    }
+}
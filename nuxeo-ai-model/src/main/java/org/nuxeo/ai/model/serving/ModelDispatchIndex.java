@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.model.serving;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * An index of the model ids by the primary type of their filter. A document can only match the models of its type and
+ * the models without a type, so the predicates of the other models don't need to be evaluated.
+ */
+public class ModelDispatchIndex {
+
+    public static final ModelDispatchIndex EMPTY = new ModelDispatchIndex(Collections.emptyMap());
+
+    protected final Map<String, List<String>> byType;
+
+    protected final List<String> anyType;
+
+    /**
+     * @param primaryTypes the primary type of the filter of each model id, blank if the model accepts any type
+     */
+    public ModelDispatchIndex(Map<String, String> primaryTypes) {
+        List<String> any = new ArrayList<>();
+        Map<String, List<String>> types = new HashMap<>();
+        primaryTypes.forEach((id, type) -> {
+            if (isBlank(type)) {
+                any.add(id);
+            } else {
+                types.computeIfAbsent(type, k -> new ArrayList<>()).add(id);
+            }
+        });
+        Map<String, List<String>> index = new HashMap<>(types.size());
+        types.forEach((type, ids) -> {
+            ids.addAll(any);
+            index.put(type, Collections.unmodifiableList(ids));
+        });
+        this.byType = Collections.unmodifiableMap(index);
+        this.anyType = Collections.unmodifiableList(any);
+    }
+
+    /**
+     * Builds the index of the models using the filters of their descriptor
+     */
+    public static ModelDispatchIndex of(Map<String, ModelDescriptor> descriptors) {
+        Map<String, String> primaryTypes = new HashMap<>(descriptors.size());
+        descriptors.forEach((id, descriptor) -> primaryTypes.put(id,
+                descriptor == null || descriptor.filter == null ? null : descriptor.filter.primaryType));
+        return new ModelDispatchIndex(primaryTypes);
+    }
+
+    /**
+     * Gets the ids of the models that may match the document
+     */
+    public List<String> getCandidates(DocumentModel document) {
+        return byType.getOrDefault(document.getType(), anyType);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.model.serving;
+
+import static org.nuxeo.ai.model.serving.ModelServingServiceImpl.makePredicate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+/**
+ * An immutable snapshot of the served models.
+ * <p>
+ * The registry is never modified, a {@link Builder} makes a new registry that replaces the current one in a single
+ * step. Readers keep using the snapshot they started with, so they never see a partially built registry and don't need
+ * to lock.
+ */
+public class ModelRegistry {
+
+    public static final ModelRegistry EMPTY = new Builder().build();
+
+    protected final Map<String, ModelDescriptor> configs;
+
+    protected final Map<String, RuntimeModel> models;
+
+    protected final Map<String, Predicate<DocumentModel>> predicates;
+
+    protected final Map<String, Predicate<DocumentModel>> filterPredicates;
+
+    protected final ModelDispatchIndex dispatchIndex;
+
+    protected ModelRegistry(Builder builder) {
+        this.configs = Collections.unmodifiableMap(new LinkedHashMap<>(builder.configs));
+        this.models = Collections.unmodifiableMap(new HashMap<>(builder.models));
+        this.predicates = Collections.unmodifiableMap(new HashMap<>(builder.predicates));
+        this.filterPredicates = Collections.unmodifiableMap(new HashMap<>(builder.filterPredicates));
+        Map<String, ModelDescriptor> running = new HashMap<>(models.size());
+        models.keySet().forEach(id -> running.put(id, configs.get(id)));
+        this.dispatchIndex = ModelDispatchIndex.of(running);
+    }
+
+    /**
+     * A builder starting with the content of this registry
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public Map<String, ModelDescriptor> getConfigs() {
+        return configs;
+    }
+
+    public RuntimeModel getModel(String modelId) {
+        return models.get(modelId);
+    }
+
+    public Predicate<DocumentModel> getPredicate(String modelId) {
+        return predicates.get(modelId);
+    }
+
+    public int size() {
+        return models.size();
+    }
+
+    /**
+     * Gets the running models whose predicate matches the document
+     */
+    public Stream<RuntimeModel> predictable(DocumentModel document) {
+        return matching(document, predicates).map(models::get);
+    }
+
+    /**
+     * Gets the running models whose filter matches the document, whatever the values of their inputs
+     */
+    public Stream<RuntimeModel> filtered(DocumentModel document) {
+        return matching(document, filterPredicates).map(models::get);
+    }
+
+    /**
+     * Gets the ids of the models whose test matches the document, only the candidates of the dispatch index are tested.
+     */
+    protected Stream<String> matching(DocumentModel document, Map<String, Predicate<DocumentModel>> tests) {
+        return dispatchIndex.getCandidates(document).stream().filter(id -> {
+            Predicate<DocumentModel> test = tests.get(id);
+            return test != null && test.test(document);
+        });
+    }
+
+    /**
+     * Builds a new registry
+     */
+    public static class Builder {
+
+        protected final Map<String, ModelDescriptor> configs;
+
+        protected final Map<String, RuntimeModel> models;
+
+        protected final Map<String, Predicate<DocumentModel>> predicates;
+
+        protected final Map<String, Predicate<DocumentModel>> filterPredicates;
+
+        public Builder() {
+            configs = new LinkedHashMap<>();
+            models = new HashMap<>();
+            predicates = new HashMap<>();
+            filterPredicates = new HashMap<>();
+        }
+
+        protected Builder(ModelRegistry registry) {
+            configs = new LinkedHashMap<>(registry.configs);
+            models = new HashMap<>(registry.models);
+            predicates = new HashMap<>(registry.predicates);
+            filterPredicates = new HashMap<>(registry.filterPredicates);
+        }
+
+        public Builder withConfig(ModelDescriptor descriptor) {
+            configs.put(descriptor.id, descriptor);
+            return this;
+        }
+
+        public Builder withModel(ModelDescriptor descriptor, RuntimeModel model) {
+            configs.put(descriptor.id, descriptor);
+            models.put(descriptor.id, model);
+            predicates.put(descriptor.id, makePredicate(descriptor.getInputs(), descriptor.filter.get()));
+            filterPredicates.put(descriptor.id, descriptor.filter.get());
+            return this;
+        }
+
+        /**
+         * Stops serving the model, its configuration is kept
+         */
+        public Builder withoutModel(String modelId) {
+            models.remove(modelId);
+            predicates.remove(modelId);
+            filterPredicates.remove(modelId);
+            return this;
+        }
+
+        /**
+         * Stops serving all the models, the configurations are kept
+         */
+        public Builder withoutModels() {
+            models.clear();
+            predicates.clear();
+            filterPredicates.clear();
+            return this;
+        }
+
+        public ModelRegistry build() {
+            return new ModelRegistry(this);
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.nuxeo.ai.model.serving;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -79,4 +80,15 @@ public interface ModelServingService extends Reloadable {
      * model and return the results.
      */
     List<EnrichmentMetadata> predict(DocumentModel documentModel);
+
+    /**
+     * Same as {@link #predict(DocumentModel)} but the models are called in parallel. The results of the models that
+     * didn't answer within the timeout are not returned. The default implementation calls the models sequentially
+     * without a timeout.
+     *
+     * @since 3.5
+     */
+    default List<EnrichmentMetadata> predict(DocumentModel documentModel, Duration timeout) {
+        return predict(documentModel);
+    }
 }
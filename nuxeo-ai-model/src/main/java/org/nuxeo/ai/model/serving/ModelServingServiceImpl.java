@@ -25,6 +25,8 @@ import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -32,7 +34,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -40,6 +53,7 @@ import org.nuxeo.ai.cloud.CloudClient;
 import org.nuxeo.ai.enrichment.EnrichmentMetadata;
 import org.nuxeo.ai.enrichment.EnrichmentProvider;
 import org.nuxeo.ai.listeners.InvalidateModelDefinitionsListener;
+import org.nuxeo.ai.metrics.AIMetrics;
 import org.nuxeo.ai.model.AIModel;
 import org.nuxeo.ai.model.ModelProperty;
 import org.nuxeo.ai.services.AIComponent;
@@ -99,22 +113,36 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
 
     public static final String AI_DATATYPES = "aidatatypes";
 
-    protected final Map<String, ModelDescriptor> configs = new HashMap<>();
+    public static final String PREDICTION_THREADS_CONF_VAR = "nuxeo.ai.suggestion.threads";
 
-    protected final Map<String, RuntimeModel> models = new HashMap<>();
+    public static final String DEFAULT_PREDICTION_THREADS = "8";
 
-    protected final Map<String, Predicate<DocumentModel>> predicates = new HashMap<>();
+    // Number of pending predictions per thread before new predictions are rejected
+    protected static final int PREDICTION_QUEUE_PER_THREAD = 16;
 
-    protected final Map<String, Predicate<DocumentModel>> filterPredicates = new HashMap<>();
+    /**
+     * The served models, replaced by a new snapshot on each change
+     */
+    protected volatile ModelRegistry registry = ModelRegistry.EMPTY;
 
     protected DirectoryEntryResolver inputTypesResolver;
 
+    protected ExecutorService predictionExecutor;
+
     /**
      * Makes a DocumentModel predicate including the properties
      */
     public static Predicate<DocumentModel> makePredicate(Set<ModelProperty> inputs,
             Predicate<DocumentModel> predicate) {
-        return predicate.and(d -> inputs.stream().allMatch(i -> notNull(d, i.getName())));
+        String[] names = inputs.stream().map(ModelProperty::getName).toArray(String[]::new);
+        return predicate.and(d -> {
+            for (String name : names) {
+                if (!notNull(d, name)) {
+                    return false;
+                }
+            }
+            return true;
+        });
     }
 
     @Override
@@ -128,14 +156,14 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
     public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
         if (MODELS_AP.equals(extensionPoint)) {
             ModelDescriptor descriptor = (ModelDescriptor) contribution;
-            this.configs.put(descriptor.id, descriptor);
+            update(builder -> builder.withConfig(descriptor));
         }
     }
 
     @Override
     public void start(ComponentContext context) {
         super.start(context);
-        configs.forEach((key, value) -> addModel(value));
+        registry.getConfigs().values().forEach(this::addModel);
         PubSubService pss = Framework.getService(PubSubService.class);
         if (pss != null) {
             pss.registerSubscriber(AIConfigurationServiceImpl.TOPIC, this::modelSubscriber);
@@ -172,9 +200,7 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
         try {
             Descriptor desc = pcs.retrieve(contribKey);
             if (desc == null) {
-                this.models.remove(contribKey);
-                this.predicates.remove(contribKey);
-                this.filterPredicates.remove(contribKey);
+                update(builder -> builder.withoutModel(contribKey));
             }
             if (desc instanceof ModelDescriptor) {
                 this.reload(desc);
@@ -186,83 +212,202 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
 
     @Override
     public void addModel(ModelDescriptor descriptor) {
+        RuntimeModel model = createModel(descriptor);
+        update(builder -> builder.withModel(descriptor, model));
+    }
+
+    /**
+     * Validates the descriptor and creates its runtime model
+     */
+    protected RuntimeModel createModel(ModelDescriptor descriptor) {
         if (!descriptor.getInputs().stream().allMatch(i -> getInputTypesResolver().validate(i.getType()))) {
             throw new IllegalArgumentException(
                     String.format("The input types %s for service %s must be defined in the %s vocabulary",
                             descriptor.getInputs(), descriptor.id, AI_DATATYPES));
         }
 
-        configs.put(descriptor.id, descriptor);
-
         log.debug("Registering a custom model as {}, info is {}.", descriptor.id, descriptor.info);
         RuntimeModel model = descriptor.getModel();
         if (model instanceof EnrichmentProvider) {
             Framework.getService(AIComponent.class).addEnrichmentProvider(descriptor.id, (EnrichmentProvider) model);
         }
+        return model;
+    }
 
-        models.put(descriptor.id, model);
-        predicates.put(descriptor.id, makePredicate(descriptor.getInputs(), descriptor.filter.get()));
-        filterPredicates.put(descriptor.id, descriptor.filter.get());
+    /**
+     * Applies the change to a copy of the registry then publishes the copy. Changes are serialized, readers are not
+     * blocked.
+     */
+    protected synchronized void update(Consumer<ModelRegistry.Builder> change) {
+        ModelRegistry.Builder builder = registry.toBuilder();
+        change.accept(builder);
+        registry = builder.build();
+    }
+
+    /**
+     * Builds a new registry and publishes it in place of the current one. The registry is built under the lock of
+     * {@link #update(Consumer)} so a change made meanwhile is never overwritten by an older snapshot.
+     */
+    protected synchronized ModelRegistry replace(Consumer<ModelRegistry.Builder> content) {
+        ModelRegistry.Builder builder = new ModelRegistry.Builder();
+        content.accept(builder);
+        registry = builder.build();
+        return registry;
     }
 
     @Override
     public void stop(ComponentContext context) throws InterruptedException {
         super.stop(context);
         this.inputTypesResolver = null;
-        this.models.clear();
-        this.predicates.clear();
+        update(ModelRegistry.Builder::withoutModels);
+        synchronized (this) {
+            if (predictionExecutor != null) {
+                predictionExecutor.shutdownNow();
+                predictionExecutor = null;
+            }
+        }
     }
 
     @Override
     public Collection<ModelDescriptor> listModels() {
-        return configs.values();
+        return registry.getConfigs().values();
     }
 
     @Override
     public RuntimeModel getModel(String modelId) {
-        return models.get(modelId);
+        return registry.getModel(modelId);
     }
 
     @Override
-    public RuntimeModel deleteModel(String modelId) {
-        return models.remove(modelId);
+    public synchronized RuntimeModel deleteModel(String modelId) {
+        RuntimeModel removed = registry.getModel(modelId);
+        update(builder -> builder.withoutModel(modelId));
+        return removed;
     }
 
     @Override
     public Predicate<DocumentModel> getPredicate(String modelId) {
-        return predicates.get(modelId);
+        return registry.getPredicate(modelId);
     }
 
     @Override
     public Set<Set<ModelProperty>> getGroupedInputs(DocumentModel document) {
-        return filterPredicates.entrySet()
-                               .stream()
-                               .filter(e -> e.getValue().test(document))
-                               .map(e -> models.get(e.getKey()))
-                               .filter(Objects::nonNull)
-                               .map(AIModel::getInputs)
-                               .collect(Collectors.toSet());
+        return registry.filtered(document).filter(Objects::nonNull).map(AIModel::getInputs).collect(Collectors.toSet());
     }
 
     @Override
     public Set<ModelProperty> getFlatInputs(DocumentModel document) {
-        return filterPredicates.entrySet()
-                               .stream()
-                               .filter(e -> e.getValue().test(document))
-                               .map(e -> models.get(e.getKey()))
-                               .filter(Objects::nonNull)
-                               .flatMap(m -> m.getInputs().stream())
-                               .collect(Collectors.toSet());
+        return registry.filtered(document)
+                       .filter(Objects::nonNull)
+                       .flatMap(m -> m.getInputs().stream())
+                       .collect(Collectors.toSet());
     }
 
     @Override
     public List<EnrichmentMetadata> predict(DocumentModel document) {
-        return predicates.entrySet()
-                         .stream()
-                         .filter(e -> e.getValue().test(document))
-                         .map(e -> models.get(e.getKey()).predict(document))
-                         .filter(Objects::nonNull)
-                         .collect(Collectors.toList());
+        return registry.predictable(document)
+                       .filter(Objects::nonNull)
+                       .map(m -> m.predict(document))
+                       .filter(Objects::nonNull)
+                       .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<EnrichmentMetadata> predict(DocumentModel document, Duration timeout) {
+        List<RuntimeModel> candidates = registry.predictable(document)
+                                                .filter(Objects::nonNull)
+                                                .collect(Collectors.toList());
+        if (candidates.size() < 2) {
+            return candidates.stream()
+                             .map(m -> m.predict(document))
+                             .filter(Objects::nonNull)
+                             .collect(Collectors.toList());
+        }
+
+        // Load all the schemas and build the model inputs on the calling thread, within its transaction
+        document.getParts();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        ExecutorService executor = getPredictionExecutor();
+        AIMetrics metrics = Framework.getService(AIComponent.class).getMetrics();
+        List<Future<EnrichmentMetadata>> futures = new ArrayList<>(candidates.size());
+        for (RuntimeModel model : candidates) {
+            futures.add(submit(executor, model, document, metrics));
+        }
+        List<EnrichmentMetadata> results = new ArrayList<>(candidates.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<EnrichmentMetadata> future = futures.get(i);
+            if (future == null) {
+                continue;
+            }
+            try {
+                EnrichmentMetadata metadata = future.get(Math.max(0, deadline - System.nanoTime()),
+                        TimeUnit.NANOSECONDS);
+                if (metadata != null) {
+                    results.add(metadata);
+                }
+            } catch (TimeoutException e) {
+                // A request already sent can't be aborted, its thread stays busy until the response or the timeout
+                // of the client; a prediction that didn't start yet is dropped
+                future.cancel(false);
+                metrics.getSuggestionTimeouts().inc();
+                log.warn("Model {} did not predict document {} within {}ms", candidates.get(i).getId(),
+                        document.getId(), timeout.toMillis());
+            } catch (ExecutionException e) {
+                metrics.getSuggestionErrors().inc();
+                log.error("Model {} failed to predict document {}", candidates.get(i).getId(), document.getId(),
+                        e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.stream().filter(Objects::nonNull).forEach(f -> f.cancel(false));
+                throw new NuxeoException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Prepares the prediction of the model and hands it off to the executor, to run in its own transaction. Returns
+     * null when the model has no result because it failed to prepare or all the prediction threads are busy.
+     */
+    protected Future<EnrichmentMetadata> submit(ExecutorService executor, RuntimeModel model, DocumentModel document,
+            AIMetrics metrics) {
+        Supplier<EnrichmentMetadata> prediction;
+        try {
+            prediction = model.prepare(document);
+        } catch (NuxeoException e) {
+            metrics.getSuggestionErrors().inc();
+            log.error("Model {} failed to prepare the prediction of document {}", model.getId(), document.getId(), e);
+            return null;
+        }
+        try {
+            return executor.submit(() -> TransactionHelper.runInTransaction(prediction));
+        } catch (RejectedExecutionException e) {
+            metrics.getSuggestionRejections().inc();
+            log.warn("Model {} did not predict document {}, all the prediction threads are busy", model.getId(),
+                    document.getId());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the bounded executor used for parallel predictions, when its queue is full new predictions are rejected
+     * rather than run by the caller past its deadline
+     */
+    protected synchronized ExecutorService getPredictionExecutor() {
+        if (predictionExecutor == null) {
+            int threads = Integer.parseInt(
+                    Framework.getProperty(PREDICTION_THREADS_CONF_VAR, DEFAULT_PREDICTION_THREADS));
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(threads * PREDICTION_QUEUE_PER_THREAD), runnable -> {
+                        Thread thread = new Thread(runnable, "ai-suggestion-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            predictionExecutor = executor;
+        }
+        return predictionExecutor;
     }
 
     protected void modelInvalidator(String topic, byte[] message) {
@@ -275,8 +420,6 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
 
                 Map<String, Object> resp = MAPPER.readValue(published.getStream(), RESPONSE_TYPE_REFERENCE);
                 if (resp.containsKey(ENTRIES_KEY)) {
-                    clearAll();
-
                     @SuppressWarnings("unchecked")
                     List<Map<String, Serializable>> entries = (List<Map<String, Serializable>>) resp.get(ENTRIES_KEY);
 
@@ -285,9 +428,11 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
                                                                     .collect(Collectors.toMap(
                                                                             desc -> desc.info.get(MODEL_NAME_KEY),
                                                                             desc -> desc));
-                    newModels.values().forEach(this::addModel);
+                    // The new registry replaces the current one in a single step
+                    ModelRegistry newRegistry = replace(
+                            builder -> newModels.values().forEach(desc -> builder.withModel(desc, createModel(desc))));
                     log.info("Insight cloud has {} published model definitions; Model registry size after update {}",
-                            newModels.size(), models.size());
+                            newModels.size(), newRegistry.size());
                 } else {
                     log.warn("No active models were found");
                 }
@@ -298,13 +443,6 @@ public class ModelServingServiceImpl extends DefaultComponent implements ModelSe
         });
     }
 
-    protected void clearAll() {
-        configs.clear();
-        models.clear();
-        predicates.clear();
-        filterPredicates.clear();
-    }
-
     protected ModelDescriptor construct(Map<String, Serializable> entry) {
         @SuppressWarnings("unchecked")
         Map<String, Serializable> properties = (Map<String, Serializable>) entry.get(PROPERTIES_KEY);
@@ -18,6 +18,9 @@
  */
 package org.nuxeo.ai.model.serving;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 import org.nuxeo.ai.enrichment.EnrichmentMetadata;
 import org.nuxeo.ai.model.AIModel;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -36,4 +39,27 @@ public interface RuntimeModel extends AIModel {
      * Predict a result for the supplied document
      */
     EnrichmentMetadata predict(DocumentModel doc);
+
+    /**
+     * Prepares the prediction of the document on the calling thread, within its transaction. The returned supplier
+     * makes the prediction and can be called from another thread, it returns null when there is no result. The default
+     * implementation reads the document when the supplier is called.
+     *
+     * @since 3.5
+     */
+    default Supplier<EnrichmentMetadata> prepare(DocumentModel doc) {
+        return () -> predict(doc);
+    }
+
+    /**
+     * Predict the results for the supplied documents. The returned list is in the order of the documents, it contains
+     * null when there is no result for a document.
+     */
+    default List<EnrichmentMetadata> predict(List<DocumentModel> docs) {
+        List<EnrichmentMetadata> results = new ArrayList<>(docs.size());
+        for (DocumentModel doc : docs) {
+            results.add(predict(doc));
+        }
+        return results;
+    }
 }
@@ -23,6 +23,7 @@ import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -56,6 +57,7 @@ import org.nuxeo.ecm.core.schema.SchemaManager;
 import org.nuxeo.ecm.core.schema.types.Field;
 import org.nuxeo.ecm.core.schema.types.ListType;
 import org.nuxeo.ecm.core.schema.types.Schema;
+import org.nuxeo.runtime.api.Framework;
 import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.fasterxml.jackson.core.JsonGenerator;
 
@@ -71,6 +73,12 @@ public class SuggestionOp {
 
     public static final String EMPTY_JSON_LIST = "[]";
 
+    public static final String PARALLEL_CONF_VAR = "nuxeo.ai.suggestion.parallel";
+
+    public static final String TIMEOUT_CONF_VAR = "nuxeo.ai.suggestion.timeoutMs";
+
+    public static final String DEFAULT_TIMEOUT_MS = "10000";
+
     @Context
     public CoreSession coreSession;
 
@@ -89,6 +97,9 @@ public class SuggestionOp {
     @Param(name = "references", description = "Should the entity references be resolved?", required = false)
     protected boolean references = false;
 
+    @Param(name = "timeout", description = "Call the models in parallel and wait at most this time in milliseconds for their suggestions", required = false)
+    protected long timeout = 0;
+
     @OperationMethod
     public Blob run(DocumentRef docRef) {
         DocumentModel docModel = coreSession.getDocument(docRef);
@@ -112,7 +123,15 @@ public class SuggestionOp {
             }
         }
 
-        List<EnrichmentMetadata> suggestions = modelServingService.predict(doc);
+        List<EnrichmentMetadata> suggestions;
+        if (timeout > 0) {
+            suggestions = modelServingService.predict(doc, Duration.ofMillis(timeout));
+        } else if (Boolean.parseBoolean(Framework.getProperty(PARALLEL_CONF_VAR, "false"))) {
+            long timeoutMs = Long.parseLong(Framework.getProperty(TIMEOUT_CONF_VAR, DEFAULT_TIMEOUT_MS));
+            suggestions = modelServingService.predict(doc, Duration.ofMillis(timeoutMs));
+        } else {
+            suggestions = modelServingService.predict(doc);
+        }
         if (suggestions == null || suggestions.isEmpty()) {
             return Blobs.createJSONBlob(EMPTY_JSON_LIST);
         }
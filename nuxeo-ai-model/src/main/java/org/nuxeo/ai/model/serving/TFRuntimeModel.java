@@ -22,6 +22,7 @@ import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
+import static org.nuxeo.ai.enrichment.EnrichmentUtils.optionAsInteger;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.AI_BLOB_MAX_SIZE_CONF_VAR;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.AI_BLOB_MAX_SIZE_VALUE;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.CATEGORY_TYPE;
@@ -38,15 +39,18 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.cloud.CloudClient;
+import org.nuxeo.ai.cloud.StreamingTensorInstances;
+import org.nuxeo.ai.cloud.StreamingTensorInstances.Instance;
 import org.nuxeo.ai.enrichment.EnrichmentMetadata;
 import org.nuxeo.ai.enrichment.EnrichmentProvider;
 import org.nuxeo.ai.metadata.LabelSuggestion;
@@ -68,6 +72,7 @@ import org.nuxeo.runtime.api.Framework;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import io.dropwizard.metrics5.Timer;
 
@@ -90,17 +95,25 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
 
     public static final String JSON_LABELS = "_labels";
 
+    public static final String PREDICT_BATCH_SIZE_CONFIG = "predictBatchSize";
+
+    public static final int DEFAULT_PREDICT_BATCH_SIZE = 32;
+
     protected Set<String> inputNames;
 
     protected String kind;
 
     protected String modelPath = "";
 
+    protected int predictBatchSize;
+
     @Override
     public void init(ModelDescriptor descriptor) {
         super.init(descriptor);
         kind = descriptor.configuration.getOrDefault(KIND_CONFIG, PREDICTION_CUSTOM);
         inputNames = inputs.stream().map(ModelProperty::getName).collect(Collectors.toSet());
+        predictBatchSize = Math.max(1,
+                optionAsInteger(descriptor.configuration, PREDICT_BATCH_SIZE_CONFIG, DEFAULT_PREDICT_BATCH_SIZE));
         String modelLabel = descriptor.info.get(MODEL_LABEL);
         if (isBlank(modelLabel)) {
             log.debug("No " + MODEL_LABEL + " has been specified for model " + descriptor.id);
@@ -114,40 +127,54 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
      */
     public EnrichmentMetadata predict(CoreSession session, Map<String, Tensor> inputValues, String repositoryName,
             String documentRef) {
+        return predict(session, Instance.of(inputValues), repositoryName, documentRef);
+    }
+
+    /**
+     * For the supplied input instance try to predict a result or return null, the images of the instance are encoded
+     * while the request is sent.
+     */
+    public EnrichmentMetadata predict(CoreSession session, Instance inputValues, String repositoryName,
+            String documentRef) {
+        InsightClient insight = Framework.getService(CloudClient.class).getClient(session).orElse(null);
+        if (insight == null) {
+            return null;
+        }
+        return predict(insight, inputValues, repositoryName, documentRef);
+    }
+
+    /**
+     * Same as {@link #predict(CoreSession, Instance, String, String)} with a resolved Insight client, it doesn't use
+     * the session of the document and can be called from another thread.
+     *
+     * @since 3.5
+     */
+    public EnrichmentMetadata predict(InsightClient insight, Instance inputValues, String repositoryName,
+            String documentRef) {
         Timer.Context responseTime = Framework.getService(AIComponent.class)
                                               .getMetrics()
                                               .getInsightPredictionTime()
                                               .time();
         try {
             if (inputValues.size() != inputs.size()) {
-                log.debug(getName() + " did not call prediction.  Properties provided were " + inputValues.keySet());
+                log.debug(getName() + " did not call prediction.  Properties provided were " + inputValues.getNames());
                 return null;
             }
-            CloudClient client = Framework.getService(CloudClient.class);
-            if (client.isAvailable(session)) {
-                TensorInstances tensorInstances = new TensorInstances(documentRef,
-                        Collections.singletonList(inputValues));
-                String result = client.predict(session, getName(), tensorInstances);
-                if (StringUtils.isNotEmpty(result)) {
-                    EnrichmentMetadata meta = handlePredict(result, repositoryName, documentRef);
-                    if (log.isDebugEnabled()) {
-                        log.debug(getName() + ": prediction metadata is: " + MAPPER.writeValueAsString(meta));
-                    }
-                    return meta;
-                } else {
-                    Optional<InsightClient> ic = client.getClient(session);
-                    if (ic.isPresent()) {
-                        log.warn("Unsuccessful call to ({}), ", ic.get().getProjectId());
-                    } else {
-                        log.warn("Unsuccessful call and cannot resolve Insight client");
-                    }
-                    return null;
+            TensorInstances tensorInstances = new StreamingTensorInstances(documentRef,
+                    Collections.singletonList(inputValues));
+            String result = Framework.getService(CloudClient.class).predict(insight, getName(), tensorInstances);
+            if (StringUtils.isNotEmpty(result)) {
+                EnrichmentMetadata meta = handlePredict(result, repositoryName, documentRef);
+                if (log.isDebugEnabled()) {
+                    log.debug(getName() + ": prediction metadata is: " + MAPPER.writeValueAsString(meta));
                 }
+                return meta;
+            } else {
+                log.warn("Unsuccessful call to ({}), ", insight.getProjectId());
+                return null;
             }
-
-            return null;
         } catch (IOException e) {
-            log.error("User {} failed on prediction", session.getPrincipal().getActingUser(), e);
+            log.error("Prediction of model {} failed for document {}", getName(), documentRef, e);
             return null;
         } finally {
             responseTime.stop();
@@ -155,18 +182,122 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
         }
     }
 
+    /**
+     * For the supplied input values of several documents, try to predict the results with a single call. The returned
+     * list is aligned with the supplied documents, it contains null when there is no prediction for a document.
+     * <p>
+     * If the response doesn't hold one result per document, each document is predicted with its own call.
+     */
+    public List<EnrichmentMetadata> predict(CoreSession session, List<Instance> inputValues,
+            String repositoryName, List<String> documentRefs) {
+        if (inputValues.size() == 1) {
+            return singletonList(predict(session, inputValues.get(0), repositoryName, documentRefs.get(0)));
+        }
+        List<EnrichmentMetadata> results = new ArrayList<>(Collections.nCopies(inputValues.size(), null));
+        List<Integer> indexes = new ArrayList<>(inputValues.size());
+        for (int i = 0; i < inputValues.size(); i++) {
+            if (inputValues.get(i).size() == inputs.size()) {
+                indexes.add(i);
+            } else {
+                log.debug("{} did not call prediction for {}.  Properties provided were {}", getName(),
+                        documentRefs.get(i), inputValues.get(i).getNames());
+            }
+        }
+        if (indexes.isEmpty()) {
+            return results;
+        }
+
+        List<Instance> instances = indexes.stream().map(inputValues::get).collect(Collectors.toList());
+        List<String> refs = indexes.stream().map(documentRefs::get).collect(Collectors.toList());
+        List<EnrichmentMetadata> predictions = null;
+        Timer.Context responseTime = Framework.getService(AIComponent.class)
+                                              .getMetrics()
+                                              .getInsightPredictionTime()
+                                              .time();
+        try {
+            CloudClient client = Framework.getService(CloudClient.class);
+            if (!client.isAvailable(session)) {
+                return results;
+            }
+            String result = client.predict(session, getName(), new StreamingTensorInstances(null, instances));
+            if (isNotEmpty(result)) {
+                predictions = handlePredictions(result, repositoryName, refs);
+            } else {
+                log.warn("Unsuccessful call to predict {} documents with {}", instances.size(), getName());
+            }
+        } catch (IOException e) {
+            log.error("User {} failed on prediction", session.getPrincipal().getActingUser(), e);
+        } finally {
+            responseTime.stop();
+        }
+
+        if (predictions == null) {
+            log.debug("{}: falling back to a prediction per document for {} documents", getName(), refs.size());
+            predictions = new ArrayList<>(refs.size());
+            for (int i = 0; i < refs.size(); i++) {
+                predictions.add(predict(session, instances.get(i), repositoryName, refs.get(i)));
+            }
+        }
+        for (int i = 0; i < indexes.size(); i++) {
+            results.set(indexes.get(i), predictions.get(i));
+        }
+        return results;
+    }
+
     /**
      * Handle the response from Tensorflow serving and return normalized EnrichmentMetadata.
      */
     protected EnrichmentMetadata handlePredict(String content, String repositoryName, String documentRef) {
-        Map<String, List<EnrichmentMetadata.Label>> labelledResults = parseResponse(content);
+        return toMetadata(parseResponse(content), content, repositoryName, documentRef);
+    }
+
+    /**
+     * Handle the response of a multi-instance request, the results are in the order of the instances. Returns a list
+     * aligned with the document refs, or null if the response doesn't hold one result per document.
+     */
+    protected List<EnrichmentMetadata> handlePredictions(String content, String repositoryName,
+            List<String> documentRefs) {
+        if (log.isDebugEnabled()) {
+            log.debug(getName() + ": response is: " + content);
+        }
+        JsonNode resultsNode;
+        try {
+            resultsNode = MAPPER.readTree(content).get(JSON_RESULTS);
+        } catch (IOException e) {
+            log.warn(String.format("Unable to read the json response: %s", content), e);
+            return null;
+        }
+        if (resultsNode == null || resultsNode.size() != documentRefs.size()) {
+            log.warn("{}: expected {} results but the response has {}", getName(), documentRefs.size(),
+                    resultsNode == null ? 0 : resultsNode.size());
+            return null;
+        }
+        List<EnrichmentMetadata> metadata = new ArrayList<>(documentRefs.size());
+        for (int i = 0; i < documentRefs.size(); i++) {
+            JsonNode resultNode = resultsNode.get(i);
+            Map<String, List<EnrichmentMetadata.Label>> labelledResults = new HashMap<>();
+            try {
+                parseResult(resultNode, labelledResults);
+            } catch (NullPointerException e) {
+                log.warn(String.format("Unable to read the json result: %s", resultNode), e);
+            }
+            // Keep the raw json of each document as if it was predicted on its own
+            ObjectNode rawJson = MAPPER.createObjectNode();
+            rawJson.putArray(JSON_RESULTS).add(resultNode);
+            metadata.add(toMetadata(labelledResults, rawJson.toString(), repositoryName, documentRefs.get(i)));
+        }
+        return metadata;
+    }
+
+    protected EnrichmentMetadata toMetadata(Map<String, List<EnrichmentMetadata.Label>> labelledResults,
+            String rawJson, String repositoryName, String documentRef) {
         if (!labelledResults.isEmpty()) {
             EnrichmentMetadata.Builder builder = new EnrichmentMetadata.Builder(kind, getId(), inputNames,
                     repositoryName, documentRef, Collections.emptySet());
             List<LabelSuggestion> labelSuggestions = new ArrayList<>();
             labelledResults.forEach((output, labels) -> labelSuggestions.add(new LabelSuggestion(output, labels)));
             return builder.withLabels(labelSuggestions)
-                          .withRawKey(saveJsonAsRawBlob(content))
+                          .withRawKey(saveJsonAsRawBlob(rawJson))
                           .withModelVersion(getVersion())
                           .build();
         }
@@ -187,33 +318,38 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
             JsonNode jsonResponse = MAPPER.readTree(content);
             jsonResponse.get(JSON_RESULTS)
                         .elements()
-                        .forEachRemaining(
-                                resultsNode -> resultsNode.get(JSON_OUTPUTS).elements().forEachRemaining(outputNode -> {
-                                    String outputName = outputNode.asText();
-                                    ArrayNode outputProbabilities = (ArrayNode) resultsNode.get(outputName);
-                                    ArrayNode outputLabels = (ArrayNode) resultsNode.get(outputName + JSON_LABELS);
-                                    List<EnrichmentMetadata.Label> labels = new ArrayList<>();
-                                    if (outputLabels.size() == outputProbabilities.size()) {
-                                        for (int i = 0; i < outputLabels.size(); i++) {
-                                            float confidence = outputProbabilities.get(i).floatValue();
-                                            if (confidence > minConfidence) {
-                                                labels.add(new EnrichmentMetadata.Label(outputLabels.get(i).asText(),
-                                                        confidence, 0L));
-                                            }
-                                        }
-                                    } else {
-                                        log.warn("Mismatch of labels and probabilities cardinality");
-                                    }
-                                    if (!labels.isEmpty()) {
-                                        results.put(outputName, labels);
-                                    }
-                                }));
+                        .forEachRemaining(resultsNode -> parseResult(resultsNode, results));
         } catch (NullPointerException | IOException e) {
             log.warn(String.format("Unable to read the json response: %s", content), e);
         }
         return results;
     }
 
+    /**
+     * Parse the labels of a single result node into the results map
+     */
+    protected void parseResult(JsonNode resultsNode, Map<String, List<EnrichmentMetadata.Label>> results) {
+        resultsNode.get(JSON_OUTPUTS).elements().forEachRemaining(outputNode -> {
+            String outputName = outputNode.asText();
+            ArrayNode outputProbabilities = (ArrayNode) resultsNode.get(outputName);
+            ArrayNode outputLabels = (ArrayNode) resultsNode.get(outputName + JSON_LABELS);
+            List<EnrichmentMetadata.Label> labels = new ArrayList<>();
+            if (outputLabels.size() == outputProbabilities.size()) {
+                for (int i = 0; i < outputLabels.size(); i++) {
+                    float confidence = outputProbabilities.get(i).floatValue();
+                    if (confidence > minConfidence) {
+                        labels.add(new EnrichmentMetadata.Label(outputLabels.get(i).asText(), confidence, 0L));
+                    }
+                }
+            } else {
+                log.warn("Mismatch of labels and probabilities cardinality");
+            }
+            if (!labels.isEmpty()) {
+                results.put(outputName, labels);
+            }
+        });
+    }
+
     /**
      * Prepares the http request to send to Tensorflow serving
      */
@@ -238,12 +374,75 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
 
     @Override
     public EnrichmentMetadata predict(DocumentModel doc) {
+        Instance props = toTensors(doc);
+        if (props == null) {
+            return null;
+        }
+        return predict(doc.getCoreSession(), props, getRepositoryName(doc), getDocumentId(doc));
+    }
+
+    /**
+     * Builds the input tensors of the document and resolves the Insight client on the calling thread, the supplier
+     * only sends the prediction request, it doesn't use the session of the document.
+     */
+    @Override
+    public Supplier<EnrichmentMetadata> prepare(DocumentModel doc) {
+        Instance props = toTensors(doc);
+        if (props == null) {
+            return () -> null;
+        }
+        InsightClient insight = Framework.getService(CloudClient.class).getClient(doc.getCoreSession()).orElse(null);
+        if (insight == null) {
+            return () -> null;
+        }
+        String repositoryName = getRepositoryName(doc);
+        String documentId = getDocumentId(doc);
+        return () -> predict(insight, props, repositoryName, documentId);
+    }
+
+    /**
+     * Predicts the documents with one call per batch of {@value #PREDICT_BATCH_SIZE_CONFIG} documents of the same
+     * repository.
+     */
+    @Override
+    public List<EnrichmentMetadata> predict(List<DocumentModel> docs) {
+        List<EnrichmentMetadata> results = new ArrayList<>(Collections.nCopies(docs.size(), null));
+        Map<String, List<Integer>> byRepository = new LinkedHashMap<>();
+        List<Instance> tensors = new ArrayList<>(docs.size());
+        for (int i = 0; i < docs.size(); i++) {
+            Instance props = toTensors(docs.get(i));
+            tensors.add(props);
+            if (props != null) {
+                byRepository.computeIfAbsent(getRepositoryName(docs.get(i)), k -> new ArrayList<>()).add(i);
+            }
+        }
+        byRepository.forEach((repositoryName, indexes) -> {
+            CoreSession session = docs.get(indexes.get(0)).getCoreSession();
+            for (int start = 0; start < indexes.size(); start += predictBatchSize) {
+                List<Integer> batch = indexes.subList(start, Math.min(start + predictBatchSize, indexes.size()));
+                List<Instance> instances = batch.stream().map(tensors::get).collect(Collectors.toList());
+                List<String> refs = batch.stream()
+                                         .map(index -> getDocumentId(docs.get(index)))
+                                         .collect(Collectors.toList());
+                List<EnrichmentMetadata> predictions = predict(session, instances, repositoryName, refs);
+                for (int i = 0; i < batch.size(); i++) {
+                    results.set(batch.get(i), predictions.get(i));
+                }
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Converts the document inputs into tensors, returns null if the document can't be predicted
+     */
+    protected Instance toTensors(DocumentModel doc) {
         Timer.Context preConversionTime = Framework.getService(AIComponent.class)
                                                    .getMetrics()
                                                    .getInsightPreConversionTime()
                                                    .time();
         try {
-            Map<String, Tensor> props = new HashMap<>(inputs.size());
+            Instance props = new Instance();
             for (ModelProperty input : inputs) {
                 String type = input.getType() == null ? "none" : input.getType();
                 switch (type) {
@@ -257,7 +456,7 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
                     // If Blob size is too big, just abort by returning null
                     if (rendition.getLength() < Long.parseLong(
                             Framework.getProperty(AI_BLOB_MAX_SIZE_CONF_VAR, AI_BLOB_MAX_SIZE_VALUE))) {
-                        props.put(input.getName(), Tensor.image(convertImageBlob(rendition)));
+                        props.image(input.getName(), convertImage(rendition));
                     } else {
                         return null;
                     }
@@ -266,43 +465,49 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
                     Serializable propVal = getPropertyValue(doc, input.getName());
                     if (propVal instanceof Blob) {
                         String text = convertTextBlob(getPropertyValue(doc, input.getName(), Blob.class));
-                        props.put(input.getName(), Tensor.text(text));
+                        props.tensor(input.getName(), Tensor.text(text));
                     } else {
                         String val = getPropertyValue(doc, input.getName(), String.class);
-                        props.put(input.getName(), Tensor.text(val));
+                        props.tensor(input.getName(), Tensor.text(val));
                     }
                     break;
                 case CATEGORY_TYPE:
                     String categories = getPropertyValue(doc, input.getName(), String.class);
                     if (isNotEmpty(categories)) {
-                        props.put(input.getName(), Tensor.category(categories.split(LIST_DELIMITER_PATTERN)));
+                        props.tensor(input.getName(), Tensor.category(categories.split(LIST_DELIMITER_PATTERN)));
                     }
                     break;
                 default:
                     // default to text String
-                    props.put(input.getName(), Tensor.text(getPropertyValue(doc, input.getName(), String.class)));
+                    props.tensor(input.getName(), Tensor.text(getPropertyValue(doc, input.getName(), String.class)));
                 }
             }
-
-            String repoName;
-            String docId;
-
-            try {
-                repoName = doc.getRepositoryName();
-                docId = doc.getId();
-            } catch (UnsupportedOperationException e) {
-                log.debug("Unable to get the document repositoryName and id.");
-                repoName = UNSET;
-                docId = UNSET;
-            }
-            return predict(doc.getCoreSession(), props, repoName, docId);
+            return props;
         } finally {
             preConversionTime.stop();
         }
     }
 
+    protected String getRepositoryName(DocumentModel doc) {
+        try {
+            return doc.getRepositoryName();
+        } catch (UnsupportedOperationException e) {
+            log.debug("Unable to get the document repositoryName.");
+            return UNSET;
+        }
+    }
+
+    protected String getDocumentId(DocumentModel doc) {
+        try {
+            return doc.getId();
+        } catch (UnsupportedOperationException e) {
+            log.debug("Unable to get the document id.");
+            return UNSET;
+        }
+    }
+
     public Collection<EnrichmentMetadata> enrich(BlobTextFromDocument blobtext) {
-        Map<String, Tensor> inputProperties = new HashMap<>();
+        Instance inputProperties = new Instance();
         CoreSession session = CoreInstance.getCoreSessionSystem(blobtext.getRepositoryName());
         for (Map.Entry<PropertyType, ManagedBlob> blobEntry : blobtext.computePropertyBlobs().entrySet()) {
             if (IMAGE_TYPE.equals(blobEntry.getKey().getType())) {
@@ -321,12 +526,13 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
                 // If Blob size is too big, just abort by returning null
                 if (rendition.getLength() < Long.parseLong(
                         Framework.getProperty(AI_BLOB_MAX_SIZE_CONF_VAR, AI_BLOB_MAX_SIZE_VALUE))) {
-                    inputProperties.put(blobEntry.getKey().getName(), Tensor.image(convertImageBlob(rendition)));
+                    inputProperties.image(blobEntry.getKey().getName(), convertImage(rendition));
                 } else {
                     return emptyList();
                 }
             } else if (TEXT_TYPE.equals(blobEntry.getKey().getType())) {
-                inputProperties.put(blobEntry.getKey().getName(), Tensor.text(convertTextBlob(blobEntry.getValue())));
+                inputProperties.tensor(blobEntry.getKey().getName(),
+                        Tensor.text(convertTextBlob(blobEntry.getValue())));
             }
         }
 
@@ -334,9 +540,9 @@ public class TFRuntimeModel extends AbstractRuntimeModel implements EnrichmentPr
             String text = blobtext.getProperties().get(input.getName());
             if (text != null) {
                 if (CATEGORY_TYPE.equals(input.getType())) {
-                    inputProperties.put(input.getName(), Tensor.category(text.split(LIST_DELIMITER_PATTERN)));
+                    inputProperties.tensor(input.getName(), Tensor.category(text.split(LIST_DELIMITER_PATTERN)));
                 } else {// default to text String
-                    inputProperties.put(input.getName(), Tensor.text(text));
+                    inputProperties.tensor(input.getName(), Tensor.text(text));
                 }
             }
         }
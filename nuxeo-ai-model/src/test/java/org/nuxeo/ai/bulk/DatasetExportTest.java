@@ -19,6 +19,8 @@
 package org.nuxeo.ai.bulk;
 
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.groupingBy;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -34,6 +36,7 @@ import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_QUERY;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_SPLIT;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_STATS;
 import static org.nuxeo.ai.adapters.DatasetExport.DATASET_EXPORT_TRAINING_DATA;
+import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
 import static org.nuxeo.ai.bulk.TensorTest.countNumberOfExamples;
 import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.STATS_COUNT;
 import static org.nuxeo.ai.model.export.DatasetExportServiceImpl.STATS_TOTAL;
@@ -78,12 +81,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ai.enrichment.EnrichmentTestFeature;
+import org.nuxeo.ai.model.analyzis.DatasetStatsCollector;
 import org.nuxeo.ai.model.analyzis.DatasetStatsService;
 import org.nuxeo.ai.model.export.DatasetExportService;
 import org.nuxeo.ai.model.export.DatasetStatsOperation;
+import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
+import org.nuxeo.ai.pipes.types.ExportRecord;
+import org.nuxeo.ai.pipes.types.ExportStatus;
 import org.nuxeo.ai.sdk.objects.FieldStatistics;
 import org.nuxeo.ai.sdk.objects.PropertyType;
 import org.nuxeo.ai.sdk.objects.Statistic;
+import org.nuxeo.ai.services.AIComponent;
 import org.nuxeo.ai.tensorflow.TFRecord;
 import org.nuxeo.ai.tensorflow.ext.TFRecordReader;
 import org.nuxeo.ecm.automation.AutomationService;
@@ -103,6 +111,11 @@ import org.nuxeo.ecm.core.work.api.WorkManager;
 import org.nuxeo.ecm.platform.audit.AuditFeature;
 import org.nuxeo.elasticsearch.api.ElasticSearchAdmin;
 import org.nuxeo.elasticsearch.test.RepositoryElasticSearchFeature;
+import org.nuxeo.lib.stream.codec.Codec;
+import org.nuxeo.lib.stream.computation.ComputationMetadata;
+import org.nuxeo.lib.stream.computation.ComputationMetadataMapping;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.computation.internals.ComputationContextImpl;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
@@ -568,6 +581,44 @@ public class DatasetExportTest {
         assertEquals(50, missingContent.getNumericValue().intValue());
     }
 
+    @Test
+    public void shouldCollectStatisticsFromDocuments() {
+        DocumentModel testRoot = session.getDocument(new PathRef(TEST_DIR_PATH));
+        waitForCompletion();
+
+        Set<PropertyType> input = Sets.newHashSet(new PropertyType("dc:title", CATEGORY_TYPE),
+                new PropertyType("file:content", IMAGE_TYPE));
+        Set<PropertyType> output = Sets.newHashSet(new PropertyType("dc:description", CATEGORY_TYPE),
+                new PropertyType("dc:language", CATEGORY_TYPE));
+        List<PropertyType> properties = new ArrayList<>(input);
+        properties.addAll(output);
+
+        String nxql = String.format("SELECT * from Document where ecm:parentId='%s'", testRoot.getId());
+        DocumentModelList docs = session.query(nxql);
+        DatasetStatsCollector first = new DatasetStatsCollector(properties);
+        DatasetStatsCollector second = new DatasetStatsCollector(properties);
+        for (int i = 0; i < docs.size(); i++) {
+            (i % 2 == 0 ? first : second).add(docs.get(i));
+        }
+        Collection<Statistic> collected = first.merge(second).getStatistics();
+        Collection<Statistic> aggregated = Framework.getService(DatasetStatsService.class)
+                                                    .getStatistics(session, nxql, input, output);
+        assertEquals(aggregated.size(), collected.size());
+
+        Map<String, Statistic> expected = aggregated.stream()
+                                                    .collect(Collectors.toMap(s -> s.getAggType() + s.getField(),
+                                                            s -> s));
+        for (Statistic statistic : collected) {
+            Statistic agg = expected.get(statistic.getAggType() + statistic.getField());
+            assertNotNull(agg);
+            if (AGG_TYPE_TERMS.equals(statistic.getAggType())) {
+                assertEquals(agg.getValue().size(), statistic.getValue().size());
+            } else {
+                assertEquals(agg.getNumericValue().longValue(), statistic.getNumericValue().longValue());
+            }
+        }
+    }
+
     @Test
     public void shouldGetStatisticsOnAllProp() {
         String nxql = "SELECT * FROM Document WHERE ecm:primaryType = 'File'";
@@ -637,4 +688,84 @@ public class DatasetExportTest {
         assertTrue(any.isPresent());
         assertThat(any.get().getTerms()).isNotEmpty();
     }
+
+    @Test
+    public void shouldCompleteBatchOnEndOfBatchRecord() throws IOException {
+        String batchId = "endedBatch";
+        List<Record> records = exportRecords(batchId, 3);
+
+        ComputationContextImpl writerContext = newComputationContext("writer");
+        new RecordWriterBatchComputation("writer").batchProcess(writerContext, "i1", records);
+
+        // The end of batch record follows the records of its batch
+        List<ExportRecord> written = decode(writerContext.getRecords("o1"));
+        assertEquals(4, written.size());
+        assertThat(written.subList(0, 3)).noneMatch(ExportRecord::isEndOfBatch).noneMatch(ExportRecord::isFailed);
+        assertTrue(written.get(3).isEndOfBatch());
+        assertTrue(Framework.getService(AIComponent.class)
+                            .getRecordWriter(RecordWriterBatchComputation.TRAINING_WRITER)
+                            .exists(batchId));
+
+        ExportStatus status = updateDataset(writerContext.getRecords("o1"));
+        assertEquals(batchId, status.getId());
+        assertEquals(3, status.getProcessed());
+        assertEquals(0, status.getErrored());
+    }
+
+    @Test
+    public void shouldForwardEndOfBatchRecordOnBatchFailure() throws IOException {
+        String batchId = "failedBatch";
+        List<Record> records = exportRecords(batchId, 2);
+
+        ComputationContextImpl writerContext = newComputationContext("writer");
+        new RecordWriterBatchComputation("writer").batchFailure(writerContext, "i1", records);
+
+        List<ExportRecord> written = decode(writerContext.getRecords("o1"));
+        assertEquals(3, written.size());
+        assertThat(written.subList(0, 2)).allMatch(ExportRecord::isFailed);
+        assertTrue(written.get(2).isEndOfBatch());
+
+        // The batch is still ended, its records are all counted as errors
+        ExportStatus status = updateDataset(writerContext.getRecords("o1"));
+        assertEquals(batchId, status.getId());
+        assertEquals(2, status.getProcessed());
+        assertEquals(2, status.getErrored());
+    }
+
+    /**
+     * Makes the training records of a batch followed by its end of batch record, as the export init produces them.
+     */
+    protected List<Record> exportRecords(String batchId, int size) throws IOException {
+        Codec<ExportRecord> codec = getAvroCodec(ExportRecord.class);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            BlobTextFromDocument doc = new BlobTextFromDocument("doc" + i, "test", "aaf", "File", null);
+            doc.addProperty("dc:title", "my text " + i);
+            ExportRecord rec = ExportRecord.of(batchId, "missingCommand", MAPPER.writeValueAsBytes(doc));
+            rec.setTraining(true);
+            records.add(Record.of(batchId, codec.encode(rec)));
+        }
+        records.add(Record.of(batchId, codec.encode(ExportRecord.endOfBatch(batchId, "missingCommand"))));
+        return records;
+    }
+
+    protected ExportStatus updateDataset(List<Record> records) {
+        ComputationContextImpl updateContext = newComputationContext("update");
+        DatasetUpdateComputation update = new DatasetUpdateComputation("update");
+        records.forEach(record -> update.processRecord(updateContext, "i1", record));
+
+        List<Record> statuses = updateContext.getRecords("o1");
+        assertEquals(1, statuses.size());
+        return getAvroCodec(ExportStatus.class).decode(statuses.get(0).getData());
+    }
+
+    protected List<ExportRecord> decode(List<Record> records) {
+        Codec<ExportRecord> codec = getAvroCodec(ExportRecord.class);
+        return records.stream().map(record -> codec.decode(record.getData())).collect(Collectors.toList());
+    }
+
+    protected ComputationContextImpl newComputationContext(String name) {
+        return new ComputationContextImpl(new ComputationMetadataMapping(
+                new ComputationMetadata(name, singleton("i1"), singleton("o1")), emptyMap()));
+    }
 }
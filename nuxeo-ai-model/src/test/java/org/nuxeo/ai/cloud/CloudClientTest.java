@@ -18,6 +18,10 @@
  */
 package org.nuxeo.ai.cloud;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -65,6 +69,7 @@ import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.OperationException;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.impl.blob.JSONBlob;
@@ -160,6 +165,42 @@ public class CloudClientTest {
         assertNotNull(client.uploadDataset(testDocument()));
     }
 
+    @Test
+    @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/cloud-client-test.xml")
+    public void shouldResumeDatasetUpload() throws IOException {
+        DocumentModel dataset = testDocument();
+        NuxeoCloudClient cloudClient = (NuxeoCloudClient) client;
+        Blob training = (Blob) dataset.getPropertyValue(DATASET_EXPORT_TRAINING_DATA);
+        String key = cloudClient.uploadKey(dataset.getId(), "0", training);
+        assertNotNull(key);
+
+        // The training part was uploaded by a previous attempt
+        cloudClient.getUploadKVS().put(key, "batchId-160babc8-3345-4f09-8521", 60);
+        assertNotNull(client.uploadDataset(dataset));
+        wireMockRule.verify(0, postRequestedFor(urlPathMatching(".*/upload/.*/0")));
+        wireMockRule.verify(postRequestedFor(urlPathMatching(".*/upload/.*/1")));
+        wireMockRule.verify(postRequestedFor(urlPathMatching(".*/upload/.*/2")));
+
+        // The recorded parts are removed once the dataset is attached
+        assertNull(cloudClient.getUploadKVS().getString(key));
+    }
+
+    @Test
+    @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/cloud-client-test.xml")
+    public void shouldUploadPartsAgainWhenAttachFails() throws IOException {
+        DocumentModel dataset = testDocument();
+        NuxeoCloudClient cloudClient = (NuxeoCloudClient) client;
+        Blob training = (Blob) dataset.getPropertyValue(DATASET_EXPORT_TRAINING_DATA);
+        String key = cloudClient.uploadKey(dataset.getId(), "0", training);
+        cloudClient.getUploadKVS().put(key, "batchId-160babc8-3345-4f09-8521", 60);
+
+        // The recorded batch has expired, the corpus referencing it is refused
+        String attach = "/api/v1/ai_export/attach/.*";
+        wireMockRule.stubFor(post(urlPathMatching(attach)).atPriority(1).willReturn(aResponse().withStatus(404)));
+        assertNull(client.uploadDataset(dataset));
+        assertNull(cloudClient.getUploadKVS().getString(key));
+    }
+
     @Test
     @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/cloud-client-bad-test.xml")
     public void testConfiguredFails() throws IOException {
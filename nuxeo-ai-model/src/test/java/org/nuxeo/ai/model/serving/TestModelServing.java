@@ -18,15 +18,21 @@
  */
 package org.nuxeo.ai.model.serving;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static junit.framework.TestCase.assertNotNull;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.nuxeo.ai.enrichment.EnrichmentTestFeature.blobTestImage;
 import static org.nuxeo.ai.model.AIModel.MODEL_NAME;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.AI_BLOB_MAX_SIZE_CONF_VAR;
 import static org.nuxeo.ai.pipes.functions.PropertyUtils.AI_BLOB_MAX_SIZE_VALUE;
+import static org.nuxeo.ai.pipes.functions.PropertyUtils.base64EncodeBlob;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.fromRecord;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.toRecord;
 import static org.nuxeo.ecm.core.io.registry.context.RenderingContext.CtxBuilder.enrichDoc;
@@ -35,25 +41,49 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.ai.cloud.StreamingTensorInstances;
+import org.nuxeo.ai.cloud.StreamingTensorInstances.Instance;
 import org.nuxeo.ai.enrichment.EnrichmentMetadata;
 import org.nuxeo.ai.enrichment.EnrichmentProvider;
 import org.nuxeo.ai.enrichment.EnrichmentTestFeature;
 import org.nuxeo.ai.model.ModelProperty;
 import org.nuxeo.ai.pipes.services.JacksonUtil;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
+import org.nuxeo.ai.sdk.objects.TensorInstances;
+import org.nuxeo.ai.sdk.objects.TensorInstances.Tensor;
 import org.nuxeo.ai.services.AIComponent;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.impl.blob.StringBlob;
 import org.nuxeo.ecm.core.blob.BlobManager;
 import org.nuxeo.ecm.core.blob.BlobMetaImpl;
 import org.nuxeo.ecm.core.blob.BlobProvider;
@@ -69,8 +99,10 @@ import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
 import org.nuxeo.runtime.test.runner.TransactionalFeature;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 
 /**
  * Tests the overall Model Serving
@@ -83,6 +115,14 @@ import com.github.tomakehurst.wiremock.junit.WireMockRule;
 @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/model-serving-test.xml")
 public class TestModelServing {
 
+    private static final Logger log = LogManager.getLogger(TestModelServing.class);
+
+    protected static final int DISPATCH_MODELS = 150;
+
+    protected static final int DISPATCH_ITERATIONS = 200;
+
+    protected static final List<String> DISPATCH_TYPES = Arrays.asList("File", "Note", "Folder", "FileRefDoc");
+
     @Rule
     public WireMockRule wireMockRule = new WireMockRule(5089);
 
@@ -135,7 +175,7 @@ public class TestModelServing {
     @Test
     @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/cloud-client-test.xml")
     @Deploy({ "org.nuxeo.ai.ai-model:OSGI-INF/disable-ai-listeners.xml" })
-    public void testPredict() throws IOException {
+    public void testPredict() throws Exception {
         //Create a document
         DocumentModel testDoc = session.createDocumentModel("/", "My Special Doc", "FileRefDoc");
         testDoc.setPropertyValue("dc:title", "My document title");
@@ -145,15 +185,80 @@ public class TestModelServing {
         session.saveDocument(testDoc);
         txFeature.nextTransaction();
 
-        testDoc.setPropertyValue("file:content", (Serializable) createTestBlob(manager));
+        ManagedBlob blob = createTestBlob(manager);
+        testDoc.setPropertyValue("file:content", (Serializable) blob);
         List<EnrichmentMetadata> suggestions = modelServingService.predict(testDoc);
         assertEquals(2, suggestions.size());
 
+        // The client sends the images written by the streaming instances
+        String image = ((TFRuntimeModel) modelServingService.getModel("xyz")).convertImageBlob(blob);
+        assertTrue(wireMockRule.findAll(postRequestedFor(urlPathMatching(".*/predict")))
+                               .stream()
+                               .map(LoggedRequest::getBodyAsString)
+                               .anyMatch(body -> body.contains(image)));
+
+        // A prepared prediction only holds the resolved client, it runs on a thread without the document session
+        Supplier<EnrichmentMetadata> prepared = modelServingService.getModel("xyz").prepare(testDoc);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertNotNull(executor.submit(() -> TransactionHelper.runInTransaction(prepared)).get());
+        } finally {
+            executor.shutdownNow();
+        }
+
         //Test serialize results
         EnrichmentMetadata andBackAgain = fromRecord(toRecord("t", suggestions.get(0)), EnrichmentMetadata.class);
         assertEquals(suggestions.get(0), andBackAgain);
     }
 
+    @Test
+    @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/cloud-client-test.xml")
+    @Deploy({ "org.nuxeo.ai.ai-model:OSGI-INF/disable-ai-listeners.xml" })
+    public void testPredictMultipleDocuments() throws IOException {
+        TFRuntimeModel model = (TFRuntimeModel) modelServingService.getModel("xyz");
+        List<DocumentModel> docs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DocumentModel doc = session.createDocumentModel("/", "My Doc " + i, "FileRefDoc");
+            doc.setPropertyValue("dc:title", "My document title " + i);
+            doc = session.createDocument(doc);
+            if (i != 1) {
+                doc.setPropertyValue("file:content", (Serializable) createTestBlob(manager));
+            }
+            docs.add(doc);
+        }
+        txFeature.nextTransaction();
+
+        // The mock returns a single result so the documents are predicted one by one
+        List<EnrichmentMetadata> results = model.predict(docs);
+        assertEquals(3, results.size());
+        assertEquals(docs.get(0).getId(), results.get(0).context.documentRef);
+        assertNull("A document without an image can't be predicted", results.get(1));
+        assertEquals(docs.get(2).getId(), results.get(2).context.documentRef);
+
+        // A response with a result per document is split by document
+        String result = "{\"output_names\":[\"dc:creator\"],\"dc:creator\":[0.9,0.1],"
+                + "\"dc:creator_labels\":[\"me\",\"you\"]}";
+        String other = result.replace("0.9,0.1", "0.1,0.9");
+        List<String> refs = Arrays.asList("doc1", "doc2");
+        List<EnrichmentMetadata> predictions = model.handlePredictions("{\"results\":[" + result + "," + other + "]}",
+                "test", refs);
+        assertEquals(2, predictions.size());
+        assertEquals("doc1", predictions.get(0).context.documentRef);
+        assertEquals("me", predictions.get(0).getLabels().get(0).getValues().get(0).getName());
+        assertEquals("doc2", predictions.get(1).context.documentRef);
+        assertEquals("you", predictions.get(1).getLabels().get(0).getValues().get(0).getName());
+        JsonNode raw = JacksonUtil.MAPPER.readTree(
+                Framework.getService(TransientStoreService.class)
+                         .getStore("testTransient")
+                         .getBlobs(predictions.get(1).getRawKey())
+                         .get(0)
+                         .getString());
+        assertEquals(1, raw.get("results").size());
+
+        assertNull("Results must match the documents",
+                model.handlePredictions("{\"results\":[" + result + "]}", "test", refs));
+    }
+
     @Test
     @Deploy("org.nuxeo.ai.ai-model:OSGI-INF/cloud-client-test.xml")
     public void testEnrichment() throws IOException {
@@ -224,6 +329,96 @@ public class TestModelServing {
         assertEquals("The custom model should return results", 1, jsonTree.get("results").size());
     }
 
+    @Test
+    public void testConversionCache() throws IOException {
+        ConversionCache cache = ConversionCache.get();
+        cache.clear();
+        long hits = cache.hits.getCount();
+        long misses = cache.misses.getCount();
+
+        ManagedBlob blob = createTestBlob(manager);
+        TFRuntimeModel model = (TFRuntimeModel) modelServingService.getModel("xyz");
+        String converted = model.convertImageBlob(blob);
+        assertNotNull(converted);
+        assertEquals(misses + 1, cache.misses.getCount());
+        assertEquals(converted, model.convertImageBlob(blob));
+        assertEquals("The same conversion must be cached", hits + 1, cache.hits.getCount());
+
+        Blob textBlob = Blobs.createBlob("Some text");
+        textBlob.setDigest("someTextDigest");
+        String text = model.convertTextBlob(textBlob);
+        assertNotNull(text);
+        assertEquals(text, model.convertTextBlob(textBlob));
+        assertEquals(hits + 2, cache.hits.getCount());
+
+        assertNull("Blobs without digest are not cached", ConversionCache.key(new StringBlob("no digest") {
+            @Override
+            public String getDigest() {
+                return null;
+            }
+        }, "img"));
+    }
+
+    @Test
+    public void testConversionCacheConvertsOnce() throws Exception {
+        ConversionCache cache = new ConversionCache(1024 * 1024, 60);
+        AtomicInteger conversions = new AtomicInteger();
+        Supplier<byte[]> noResult = () -> {
+            conversions.incrementAndGet();
+            return null;
+        };
+        assertNull(cache.get("noResult", noResult));
+        assertNull(cache.get("noResult", noResult));
+        assertEquals("A conversion without result is not cached", 2, conversions.get());
+
+        // Concurrent gets of the same key wait for the conversion in progress
+        conversions.set(0);
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<byte[]>> gets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            gets.add(executor.submit(() -> {
+                started.countDown();
+                return cache.get("shared", () -> {
+                    conversions.incrementAndGet();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new byte[] { 1, 2, 3 };
+                });
+            }));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        for (Future<byte[]> get : gets) {
+            assertArrayEquals(new byte[] { 1, 2, 3 }, get.get(10, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(1, conversions.get());
+    }
+
+    @Test
+    public void testStreamingTensorInstances() throws IOException {
+        ManagedBlob blob = createTestBlob(manager);
+        Map<String, Tensor> tensors = new HashMap<>();
+        tensors.put("image", Tensor.image(base64EncodeBlob(blob)));
+        tensors.put("title", Tensor.text("A title"));
+        tensors.put("missing", Tensor.image(null));
+        TensorInstances expected = new TensorInstances("docId", Collections.singletonList(tensors));
+
+        Instance instance = new Instance().image("image", blob)
+                                          .tensor("title", Tensor.text("A title"))
+                                          .image("missing", null);
+        TensorInstances streaming = new StreamingTensorInstances("docId", Collections.singletonList(instance));
+        assertEquals(3, instance.size());
+        JsonNode expectedJson = JacksonUtil.MAPPER.readTree(JacksonUtil.MAPPER.writeValueAsString(expected));
+        JsonNode streamedJson = JacksonUtil.MAPPER.readTree(JacksonUtil.MAPPER.writeValueAsString(streaming));
+        assertEquals("The streamed json must be the same", expectedJson, streamedJson);
+    }
+
     @Test
     public void testModelListing() {
         Collection<ModelDescriptor> models = modelServingService.listModels();
@@ -244,6 +439,243 @@ public class TestModelServing {
         assertEquals(1, inputs.size());
     }
 
+    @Test
+    public void testDispatchIndexWithManyModels() {
+        ModelServingServiceImpl service = dispatchService();
+        List<DocumentModel> docs = dispatchDocuments();
+
+        ModelRegistry registry = service.registry;
+        for (DocumentModel doc : docs) {
+            Set<String> matching = registry.matching(doc, registry.predicates).collect(Collectors.toSet());
+            assertEquals(linearMatching(registry, doc), matching);
+            assertTrue(registry.dispatchIndex.getCandidates(doc).size() < DISPATCH_MODELS);
+        }
+
+        service.deleteModel("model0");
+        assertTrue(docs.stream()
+                       .noneMatch(doc -> service.registry.dispatchIndex.getCandidates(doc).contains("model0")));
+        assertEquals("A snapshot is never modified", DISPATCH_MODELS, registry.size());
+    }
+
+    @Test
+    @Ignore("Manual benchmark, logs the time taken by the indexed and the linear dispatch")
+    public void benchmarkDispatchIndex() {
+        ModelRegistry registry = dispatchService().registry;
+        List<DocumentModel> docs = dispatchDocuments();
+        long indexed = 0;
+        long linear = 0;
+        for (int i = 0; i < DISPATCH_ITERATIONS; i++) {
+            for (DocumentModel doc : docs) {
+                long start = System.nanoTime();
+                Set<String> matching = registry.matching(doc, registry.predicates).collect(Collectors.toSet());
+                indexed += System.nanoTime() - start;
+                start = System.nanoTime();
+                Set<String> expected = linearMatching(registry, doc);
+                linear += System.nanoTime() - start;
+                assertEquals(expected, matching);
+            }
+        }
+        int calls = DISPATCH_ITERATIONS * docs.size();
+        log.info("Dispatch of {} models: indexed {} ns per document, linear {} ns per document", DISPATCH_MODELS,
+                indexed / calls, linear / calls);
+    }
+
+    protected ModelServingServiceImpl dispatchService() {
+        ModelServingServiceImpl service = new ModelServingServiceImpl();
+        for (int i = 0; i < DISPATCH_MODELS; i++) {
+            // A few models accept any type, most of them are for types the documents don't have
+            String type = i % 10 == 0 ? null
+                    : i % 3 == 0 ? DISPATCH_TYPES.get(i % DISPATCH_TYPES.size()) : "OtherType" + i % 20;
+            service.addModel(stubDescriptor("model" + i, type));
+        }
+        return service;
+    }
+
+    protected List<DocumentModel> dispatchDocuments() {
+        List<DocumentModel> docs = new ArrayList<>();
+        for (String type : DISPATCH_TYPES) {
+            DocumentModel doc = session.createDocumentModel("/", "My " + type, type);
+            doc.setPropertyValue("dc:title", "A title");
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    protected static Set<String> linearMatching(ModelRegistry registry, DocumentModel doc) {
+        return registry.predicates.entrySet()
+                                  .stream()
+                                  .filter(e -> e.getValue().test(doc))
+                                  .map(Map.Entry::getKey)
+                                  .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testRegistryIsReplacedAtOnce() throws Exception {
+        ModelServingServiceImpl service = new ModelServingServiceImpl();
+        List<ModelDescriptor> descriptors = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            descriptors.add(stubDescriptor("model" + i, "File"));
+        }
+        descriptors.forEach(service::addModel);
+        DocumentModel doc = session.createDocumentModel("/", "My File", "File");
+        doc.setPropertyValue("dc:title", "A title");
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch started = new CountDownLatch(2);
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        List<Future<Integer>> reads = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            reads.add(readers.submit(() -> {
+                int count = 0;
+                do {
+                    // Readers see all the models, never an empty or partial registry
+                    assertEquals(descriptors.size(), service.registry.filtered(doc).count());
+                    assertEquals(1, service.getFlatInputs(doc).size());
+                    if (count++ == 0) {
+                        started.countDown();
+                    }
+                } while (running.get());
+                return count;
+            }));
+        }
+        // Replace the whole registry, as an invalidation does, once the readers are running
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 200; i++) {
+            service.replace(builder -> descriptors.forEach(desc -> builder.withModel(desc, desc.getModel())));
+        }
+        running.set(false);
+        for (Future<Integer> read : reads) {
+            assertTrue(read.get(10, TimeUnit.SECONDS) > 0);
+        }
+        readers.shutdown();
+        assertEquals(descriptors.size(), service.listModels().size());
+    }
+
+    @Test
+    public void testParallelPredictionDeadline() {
+        ModelServingServiceImpl service = new ModelServingServiceImpl();
+        service.addModel(stubDescriptor("fast1", "File", PredictingModel.class));
+        service.addModel(stubDescriptor("fast2", "File", PredictingModel.class));
+        service.addModel(stubDescriptor("slow", "File", SlowModel.class));
+        DocumentModel doc = session.createDocumentModel("/", "My File", "File");
+        doc.setPropertyValue("dc:title", "A title");
+
+        long timeouts = aiComponent.getMetrics().getSuggestionTimeouts().getCount();
+        SlowModel.started = new CountDownLatch(1);
+        SlowModel.release = new CountDownLatch(1);
+        try {
+            List<EnrichmentMetadata> suggestions = service.predict(doc, Duration.ofMillis(100));
+            assertEquals(2, suggestions.size());
+            assertEquals(timeouts + 1, aiComponent.getMetrics().getSuggestionTimeouts().getCount());
+            assertTrue(SlowModel.started.await(10, TimeUnit.SECONDS));
+            assertNotEquals(Thread.currentThread(), SlowModel.caller);
+            assertTrue("The models predict in a transaction", SlowModel.inTransaction);
+        } finally {
+            SlowModel.release.countDown();
+        }
+
+        // Without a deadline all the models are called in turn
+        assertEquals(2, service.predict(doc).size());
+        assertEquals(Thread.currentThread(), SlowModel.caller);
+    }
+
+    @Test
+    public void testParallelPredictionRejected() {
+        ModelServingServiceImpl service = new ModelServingServiceImpl();
+        service.addModel(stubDescriptor("slow1", "File", SlowModel.class));
+        service.addModel(stubDescriptor("slow2", "File", SlowModel.class));
+        DocumentModel doc = session.createDocumentModel("/", "My File", "File");
+        doc.setPropertyValue("dc:title", "A title");
+        // A single busy thread without any queue, the second model can't be called
+        service.predictionExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+
+        long timeouts = aiComponent.getMetrics().getSuggestionTimeouts().getCount();
+        long rejections = aiComponent.getMetrics().getSuggestionRejections().getCount();
+        SlowModel.started = new CountDownLatch(1);
+        SlowModel.release = new CountDownLatch(1);
+        try {
+            assertTrue(service.predict(doc, Duration.ofMillis(100)).isEmpty());
+            assertEquals(timeouts + 1, aiComponent.getMetrics().getSuggestionTimeouts().getCount());
+            assertEquals(rejections + 1, aiComponent.getMetrics().getSuggestionRejections().getCount());
+        } finally {
+            SlowModel.release.countDown();
+            service.predictionExecutor.shutdown();
+        }
+    }
+
+    protected static ModelDescriptor stubDescriptor(String id, String primaryType) {
+        return stubDescriptor(id, primaryType, StubModel.class);
+    }
+
+    protected static ModelDescriptor stubDescriptor(String id, String primaryType,
+            Class<? extends RuntimeModel> clazz) {
+        ModelDescriptor descriptor = new ModelDescriptor();
+        descriptor.id = id;
+        descriptor.clazz = clazz;
+        descriptor.info.put(MODEL_NAME, id);
+        descriptor.filter = new ModelDescriptor.DocumentPredicate();
+        descriptor.filter.primaryType = primaryType;
+        descriptor.inputProperties = new ModelDescriptor.InputProperties();
+        descriptor.inputProperties.setProperties(Collections.singleton(new ModelProperty("dc:title", "txt")));
+        descriptor.outputProperties = new ModelDescriptor.OutputProperties();
+        return descriptor;
+    }
+
+    /**
+     * A model that never predicts anything
+     */
+    public static class StubModel extends AbstractRuntimeModel {
+
+        @Override
+        public EnrichmentMetadata predict(DocumentModel doc) {
+            return null;
+        }
+
+        @Override
+        public Set<String> getInputNames() {
+            return Collections.singleton("dc:title");
+        }
+    }
+
+    /**
+     * A model that predicts an empty suggestion
+     */
+    public static class PredictingModel extends StubModel {
+
+        @Override
+        public EnrichmentMetadata predict(DocumentModel doc) {
+            return new EnrichmentMetadata.Builder("/test", getId(), getInputNames(), "test", doc.getId(),
+                    Collections.emptySet()).build();
+        }
+    }
+
+    /**
+     * A model that predicts nothing once it is released
+     */
+    public static class SlowModel extends StubModel {
+
+        protected static volatile CountDownLatch started = new CountDownLatch(0);
+
+        protected static volatile CountDownLatch release = new CountDownLatch(0);
+
+        protected static volatile Thread caller;
+
+        protected static volatile boolean inTransaction;
+
+        @Override
+        public EnrichmentMetadata predict(DocumentModel doc) {
+            caller = Thread.currentThread();
+            inTransaction = TransactionHelper.isTransactionActive();
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
     @Test
     public void testDocumentEnricher() throws IOException {
         DocumentModelJsonWriter writer = registry.getInstance(enrichDoc(ModelJsonEnricher.NAME).get(),
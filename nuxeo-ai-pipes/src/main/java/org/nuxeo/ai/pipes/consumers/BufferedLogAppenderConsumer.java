@@ -0,0 +1,214 @@
+/*
+ * (C) Copyright 2018 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributors:
+ *     Gethin James
+ */
+package org.nuxeo.ai.pipes.consumers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.naming.NamingException;
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.log.LogAppender;
+import org.nuxeo.lib.stream.log.internals.CloseableLogAppender;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import io.dropwizard.metrics5.Counter;
+import io.dropwizard.metrics5.MetricRegistry;
+import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
+
+/**
+ * A record consumer buffering the records of a transaction and appending them to the log when the transaction commits.
+ * <p>
+ * The buffer is also flushed when it holds {@value #BUFFER_SIZE_CONF_VAR} records or when its oldest record is older
+ * than {@value #BUFFER_MAX_DELAY_CONF_VAR} milliseconds. The records of a rolled back transaction that are still
+ * buffered are discarded. Without an active transaction records are appended straight away.
+ * <p>
+ * The records are still appended on the thread completing the transaction, buffering moves the cost of the appends to
+ * commit time, it doesn't remove it. A failing append is logged, the records of the flush are then lost.
+ */
+public class BufferedLogAppenderConsumer extends LogAppenderConsumer {
+
+    public static final String BUFFERED_CONF_VAR = "nuxeo.ai.stream.appender.buffered";
+
+    public static final String BUFFER_SIZE_CONF_VAR = "nuxeo.ai.stream.appender.buffer.size";
+
+    public static final String BUFFER_MAX_DELAY_CONF_VAR = "nuxeo.ai.stream.appender.buffer.maxDelay";
+
+    public static final int DEFAULT_BUFFER_SIZE = 100;
+
+    public static final long DEFAULT_BUFFER_MAX_DELAY_MS = 1000;
+
+    private static final Log log = LogFactory.getLog(BufferedLogAppenderConsumer.class);
+
+    protected final Map<Transaction, Buffer> buffers = new ConcurrentHashMap<>();
+
+    protected final int bufferSize;
+
+    protected final long maxDelayMs;
+
+    protected final Timer flushTimer;
+
+    protected final Counter depth;
+
+    /**
+     * @param bufferSize the number of records of a transaction that triggers a flush
+     * @param maxDelayMs the age in milliseconds of the oldest buffered record that triggers a flush
+     */
+    public BufferedLogAppenderConsumer(CloseableLogAppender<Record> appender, int bufferSize, long maxDelayMs) {
+        super(appender);
+        this.bufferSize = Math.max(1, bufferSize);
+        this.maxDelayMs = maxDelayMs;
+        MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+        String name = String.valueOf(appender.name());
+        this.flushTimer = registry.timer(MetricRegistry.name("nuxeo.ai", "streams", "appender", name, "flush"));
+        this.depth = registry.counter(MetricRegistry.name("nuxeo.ai", "streams", "appender", name, "depth"));
+    }
+
+    @Override
+    public void accept(Record record) {
+        if (record == null) {
+            return;
+        }
+        Buffer buffer = getBuffer();
+        if (buffer == null) {
+            super.accept(record);
+        } else {
+            buffer.add(record);
+        }
+    }
+
+    /**
+     * Gets the buffer of the current transaction, returns null if there is no transaction to attach the buffer to.
+     */
+    protected Buffer getBuffer() {
+        if (!TransactionHelper.isTransactionActive()) {
+            return null;
+        }
+        try {
+            Transaction transaction = TransactionHelper.lookupTransactionManager().getTransaction();
+            if (transaction == null) {
+                return null;
+            }
+            Buffer buffer = buffers.get(transaction);
+            if (buffer == null) {
+                buffer = new Buffer(transaction);
+                transaction.registerSynchronization(buffer);
+                buffers.put(transaction, buffer);
+            }
+            return buffer;
+        } catch (NamingException | SystemException | RollbackException e) {
+            log.debug("Unable to buffer the records of the transaction, appending them directly", e);
+            return null;
+        }
+    }
+
+    /**
+     * The number of buffered records of all the transactions
+     */
+    public long getDepth() {
+        return depth.getCount();
+    }
+
+    @Override
+    public void close() {
+        buffers.values().forEach(Buffer::flush);
+        buffers.clear();
+        super.close();
+    }
+
+    /**
+     * The records of a transaction, in the order they were accepted
+     */
+    protected class Buffer implements Synchronization {
+
+        protected final Transaction transaction;
+
+        protected final List<Record> records = new ArrayList<>();
+
+        protected long oldest;
+
+        protected Buffer(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        protected synchronized void add(Record record) {
+            if (records.isEmpty()) {
+                oldest = System.currentTimeMillis();
+            }
+            records.add(record);
+            depth.inc();
+            if (records.size() >= bufferSize || System.currentTimeMillis() - oldest >= maxDelayMs) {
+                flush();
+            }
+        }
+
+        protected synchronized void flush() {
+            if (records.isEmpty()) {
+                return;
+            }
+            LogAppender<Record> appender = getAppender();
+            int appended = 0;
+            try (Timer.Context ignored = flushTimer.time()) {
+                for (Record record : records) {
+                    appender.append(record.getKey(), record);
+                    appended++;
+                }
+            } catch (RuntimeException e) {
+                // the transaction may already be committed, there is no caller left to report the failure to
+                log.error(String.format("Unable to append %d of the %d buffered records to the log %s",
+                        records.size() - appended, records.size(), appender.name()), e);
+            } finally {
+                depth.dec(records.size());
+                records.clear();
+            }
+        }
+
+        protected synchronized void discard() {
+            if (!records.isEmpty()) {
+                log.debug(String.format("Discarding %d records of a rolled back transaction", records.size()));
+                depth.dec(records.size());
+                records.clear();
+            }
+        }
+
+        @Override
+        public void beforeCompletion() {
+            // records are appended once the transaction is committed
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            buffers.remove(transaction);
+            if (status == Status.STATUS_COMMITTED) {
+                flush();
+            } else {
+                discard();
+            }
+        }
+    }
+}
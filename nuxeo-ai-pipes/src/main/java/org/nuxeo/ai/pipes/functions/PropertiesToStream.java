@@ -34,6 +34,7 @@ import java.util.function.Function;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.pipes.events.DocEventToStream;
+import org.nuxeo.ai.pipes.services.JacksonUtil.RecordFormat;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
 import org.nuxeo.ai.sdk.objects.PropertyType;
 import org.nuxeo.ecm.core.api.NuxeoException;
@@ -54,11 +55,16 @@ import org.nuxeo.lib.stream.computation.Record;
  * <p>
  * The properties are not mutually exclusive. For example, if you specify "file:content" in <code>blobProperties</code>
  * and "dc:title" and "dc:creator" in <code>customProperties</code> you will have 1 record with those 3 properties.
+ * <p>
+ * The <code>recordFormat</code> option selects how records are serialized, <code>json</code> (the default) or the
+ * more compact binary <code>smile</code> format.
  *
  * @see PreFilterFunction
  */
 public class PropertiesToStream extends PreFilterFunction<Event, Collection<Record>> {
 
+    public static final String RECORD_FORMAT = "recordFormat";
+
     private static final Logger log = LogManager.getLogger(PropertiesToStream.class);
 
     protected List<PropertyType> blobProperties;
@@ -67,6 +73,8 @@ public class PropertiesToStream extends PreFilterFunction<Event, Collection<Reco
 
     protected List<String> customProperties;
 
+    protected RecordFormat recordFormat;
+
     public PropertiesToStream() {
         super();
     }
@@ -98,6 +106,7 @@ public class PropertiesToStream extends PreFilterFunction<Event, Collection<Reco
         }
         textProperties = propsList(options.get(TEXT_PROPERTIES));
         customProperties = propsList(options.get(CUSTOM_PROPERTIES));
+        recordFormat = RecordFormat.of(options.get(RECORD_FORMAT));
     }
 
     /**
@@ -106,7 +115,7 @@ public class PropertiesToStream extends PreFilterFunction<Event, Collection<Reco
     protected Function<Event, Collection<Record>> setupTransformation() {
         Function<Event, Collection<BlobTextFromDocument>> func = new DocEventToStream(blobProperties, textProperties,
                 customProperties);
-        return func.andThen(items -> items.stream().map(i -> toRecord(i.getKey(), i)).collect(toList()));
+        return func.andThen(items -> items.stream().map(i -> toRecord(i.getKey(), i, recordFormat)).collect(toList()));
     }
 
 }
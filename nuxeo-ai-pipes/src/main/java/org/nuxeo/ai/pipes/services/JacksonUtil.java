@@ -21,6 +21,7 @@ package org.nuxeo.ai.pipes.services;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.time.Instant;
+import org.apache.commons.lang3.StringUtils;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.blob.BlobMetaImpl;
@@ -40,6 +41,7 @@ import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.deser.std.StdDelegatingDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.util.StdConverter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 /**
  * Utilities for use with Jackson
@@ -48,8 +50,17 @@ public class JacksonUtil {
 
     public static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /**
+     * A mapper using the binary Smile format, configured like {@link #MAPPER}.
+     *
+     * @since 3.5
+     */
+    public static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory());
+
+    // Every Smile document starts with ":)\n" followed by a version byte, JSON never starts with ':'
+    protected static final byte[] SMILE_HEADER = { ':', ')', '\n' };
+
     static {
-        MAPPER.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
         SimpleModule module = new SimpleModule();
         module.addDeserializer(Instant.class, new InstantDeserializer());
         module.addSerializer(Instant.class, new InstantSerializer());
@@ -61,7 +72,10 @@ public class JacksonUtil {
                         return value;
                     }
                 }));
+        MAPPER.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
         MAPPER.registerModule(module);
+        SMILE_MAPPER.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+        SMILE_MAPPER.registerModule(module);
     }
 
     public static String toJsonString(JsonGeneratorConsumer withConsumer) {
@@ -94,28 +108,83 @@ public class JacksonUtil {
     }
 
     /**
-     * Creates a record from an object
+     * Creates a record from an object using JSON
      */
     public static Record toRecord(String key, Object info) {
+        return toRecord(key, info, RecordFormat.JSON);
+    }
+
+    /**
+     * Creates a record from an object using the specified format
+     *
+     * @since 3.5
+     */
+    public static Record toRecord(String key, Object info, RecordFormat format) {
         try {
-            return Record.of(key, MAPPER.writeValueAsBytes(info));
+            return Record.of(key, format.getMapper().writeValueAsBytes(info));
         } catch (JsonProcessingException e) {
             throw new NuxeoException("Unable to serialize properties for: " + key, e);
         }
     }
 
     /**
-     * Creates a record from a Type
+     * Creates a record from a Type, the format of the data (JSON or Smile) is detected.
      */
     public static <T> T fromRecord(Record record, Class<T> valueType) {
 
         try {
-            return MAPPER.readValue(record.getData(), valueType);
+            return mapperFor(record.getData()).readValue(record.getData(), valueType);
         } catch (IOException e) {
             throw new NuxeoException("Unable to read record data for : " + record.getKey(), e);
         }
     }
 
+    /**
+     * Returns the mapper able to read the data, Smile if the data starts with the Smile header, JSON otherwise.
+     *
+     * @since 3.5
+     */
+    public static ObjectMapper mapperFor(byte[] data) {
+        if (data != null && data.length >= SMILE_HEADER.length && data[0] == SMILE_HEADER[0]
+                && data[1] == SMILE_HEADER[1] && data[2] == SMILE_HEADER[2]) {
+            return SMILE_MAPPER;
+        }
+        return MAPPER;
+    }
+
+    /**
+     * The formats used to serialize record data
+     *
+     * @since 3.5
+     */
+    public enum RecordFormat {
+        JSON(MAPPER), SMILE(SMILE_MAPPER);
+
+        private final ObjectMapper mapper;
+
+        RecordFormat(ObjectMapper mapper) {
+            this.mapper = mapper;
+        }
+
+        public ObjectMapper getMapper() {
+            return mapper;
+        }
+
+        /**
+         * Gets the format from an option value, defaults to JSON.
+         */
+        public static RecordFormat of(String value) {
+            if (StringUtils.isBlank(value)) {
+                return JSON;
+            }
+            try {
+                return RecordFormat.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new NuxeoException("Unknown record format: " + value, e);
+            }
+        }
+    }
+
     /**
      * A Consumer of JsonGenerator that throws an IOException
      */
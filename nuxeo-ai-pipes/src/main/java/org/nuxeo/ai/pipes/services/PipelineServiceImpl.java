@@ -18,6 +18,11 @@
  */
 package org.nuxeo.ai.pipes.services;
 
+import static org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer.BUFFERED_CONF_VAR;
+import static org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer.BUFFER_MAX_DELAY_CONF_VAR;
+import static org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer.BUFFER_SIZE_CONF_VAR;
+import static org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer.DEFAULT_BUFFER_MAX_DELAY_MS;
+import static org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer.DEFAULT_BUFFER_SIZE;
 import static org.nuxeo.ai.pipes.events.DirtyEventListener.DIRTY_EVENT_NAME;
 
 import java.util.ArrayList;
@@ -29,6 +34,7 @@ import java.util.function.Consumer;
 import java.util.function.Function;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer;
 import org.nuxeo.ai.pipes.consumers.LogAppenderConsumer;
 import org.nuxeo.ai.pipes.events.DirtyEventListener;
 import org.nuxeo.ai.pipes.events.DynamicEventListenerDescriptor;
@@ -194,14 +200,23 @@ public class PipelineServiceImpl extends DefaultComponent implements PipelineSer
     }
 
     /**
-     * Create a <code>LogAppenderConsumer</code> for the specified log/stream</code>
+     * Create a <code>LogAppenderConsumer</code> for the specified log/stream</code>, the records are buffered until the
+     * end of the transaction if {@value BufferedLogAppenderConsumer#BUFFERED_CONF_VAR} is true.
      */
     protected LogAppenderConsumer addLogConsumer(String logName, int size) {
         LogManager manager = Framework.getService(StreamService.class).getLogManager();
         Name log = Name.ofUrn(logName);
         manager.createIfNotExists(log, size);
         CloseableLogAppender<Record> appender = (CloseableLogAppender) manager.getAppender(log);
-        LogAppenderConsumer consumer = new LogAppenderConsumer(appender);
+        LogAppenderConsumer consumer;
+        if (Boolean.parseBoolean(Framework.getProperty(BUFFERED_CONF_VAR, "false"))) {
+            consumer = new BufferedLogAppenderConsumer(appender,
+                    Integer.parseInt(Framework.getProperty(BUFFER_SIZE_CONF_VAR, String.valueOf(DEFAULT_BUFFER_SIZE))),
+                    Long.parseLong(Framework.getProperty(BUFFER_MAX_DELAY_CONF_VAR,
+                            String.valueOf(DEFAULT_BUFFER_MAX_DELAY_MS))));
+        } else {
+            consumer = new LogAppenderConsumer(appender);
+        }
         logAppenderConsumers.put(logName, consumer);
         return consumer;
     }
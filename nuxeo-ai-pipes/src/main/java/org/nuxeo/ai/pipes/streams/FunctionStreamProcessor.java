@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -36,8 +37,10 @@ import org.nuxeo.lib.stream.computation.Topology;
 import org.nuxeo.runtime.metrics.MetricsService;
 import org.nuxeo.runtime.metrics.NuxeoMetricSet;
 
+import io.dropwizard.metrics5.Histogram;
 import io.dropwizard.metrics5.MetricRegistry;
 import io.dropwizard.metrics5.SharedMetricRegistries;
+import io.dropwizard.metrics5.Timer;
 
 /**
  * A stream processor using a Function.
@@ -138,7 +141,10 @@ public class FunctionStreamProcessor {
             metrics.called();
             log.debug("Processing record {}.", record);
             try {
-                Optional<Record> applied = function.apply(record);
+                Optional<Record> applied;
+                try (Timer.Context ignored = metrics.getFunctionTimer().time()) {
+                    applied = function.apply(record);
+                }
                 applied.ifPresent(rec -> writeToStreams(context, rec));
                 context.askForCheckpoint();
             } catch (NuxeoException e) {
@@ -159,48 +165,70 @@ public class FunctionStreamProcessor {
         protected void writeToStreams(ComputationContext context, Record record) {
             if (record != null && !metadata.outputStreams().isEmpty()) {
                 metrics.produced();
+                metrics.getRecordSize().update(record.getData().length);
                 metadata.outputStreams().forEach(o -> context.produceRecord(o, record));
             }
         }
     }
 
     /**
-     * Metrics about the function
+     * Metrics about the function. Counters are striped so they can be updated concurrently by the computation threads.
      */
     public static class FunctionMetrics extends NuxeoMetricSet {
 
-        protected long called = 0;
+        protected final LongAdder called = new LongAdder();
 
-        protected long errors = 0;
+        protected final LongAdder errors = new LongAdder();
 
-        protected long produced = 0;
+        protected final LongAdder produced = new LongAdder();
+
+        protected final Timer functionTimer;
+
+        protected final Histogram recordSize;
 
         public FunctionMetrics(String name) {
             super("nuxeo", "ai", "streams", "func", name);
-            this.putGauge(() -> called, "called");
-            this.putGauge(() -> errors, "errors");
-            this.putGauge(() -> produced, "produced");
+            this.putGauge(called::sum, "called");
+            this.putGauge(errors::sum, "errors");
+            this.putGauge(produced::sum, "produced");
+            MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+            this.functionTimer = registry.timer(MetricRegistry.name("nuxeo.ai.streams.func", name, "functionTime"));
+            this.recordSize = registry.histogram(MetricRegistry.name("nuxeo.ai.streams.func", name, "recordSize"));
         }
 
         /**
          * Increment called
          */
         public void called() {
-            called++;
+            called.increment();
         }
 
         /**
          * Increment errors
          */
         public void error() {
-            errors++;
+            errors.increment();
         }
 
         /**
          * Increment produced
          */
         public void produced() {
-            produced++;
+            produced.increment();
+        }
+
+        /**
+         * Time spent applying the function to a record
+         */
+        public Timer getFunctionTimer() {
+            return functionTimer;
+        }
+
+        /**
+         * Size in bytes of the produced records
+         */
+        public Histogram getRecordSize() {
+            return recordSize;
         }
     }
 
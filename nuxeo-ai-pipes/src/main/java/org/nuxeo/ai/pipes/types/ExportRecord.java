@@ -37,6 +37,8 @@ public class ExportRecord implements Serializable {
 
     protected boolean isTraining;
 
+    protected boolean isEndOfBatch;
+
     public static ExportRecord of(String id, String cmdId, byte[] data) {
         ExportRecord rec = new ExportRecord();
         rec.setId(id);
@@ -56,6 +58,19 @@ public class ExportRecord implements Serializable {
         return rec;
     }
 
+    /**
+     * Makes the record following all the records of a batch, it carries no data.
+     */
+    public static ExportRecord endOfBatch(String id, String cmdId) {
+        ExportRecord rec = new ExportRecord();
+        rec.setId(id);
+        rec.setCommandId(cmdId);
+        rec.setEndOfBatch(true);
+        rec.setData(new byte[0]);
+
+        return rec;
+    }
+
     public ExportRecord() {
     }
 
@@ -99,10 +114,18 @@ public class ExportRecord implements Serializable {
         isTraining = training;
     }
 
+    public boolean isEndOfBatch() {
+        return isEndOfBatch;
+    }
+
+    public void setEndOfBatch(boolean endOfBatch) {
+        isEndOfBatch = endOfBatch;
+    }
+
     @Override
     public String toString() {
         return "ExportRecord{" + "id='" + id + '\'' + ", commandId='" + commandId + '\'' + ", isFailed=" + isFailed
-                + ", isTraining=" + isTraining + '}';
+                + ", isTraining=" + isTraining + ", isEndOfBatch=" + isEndOfBatch + '}';
     }
 
     @Override
@@ -114,13 +137,14 @@ public class ExportRecord implements Serializable {
             return false;
         }
         ExportRecord that = (ExportRecord) o;
-        return isFailed == that.isFailed && isTraining == that.isTraining && Objects.equals(id, that.id)
-                && Objects.equals(commandId, that.commandId) && Arrays.equals(data, that.data);
+        return isFailed == that.isFailed && isTraining == that.isTraining && isEndOfBatch == that.isEndOfBatch
+                && Objects.equals(id, that.id) && Objects.equals(commandId, that.commandId)
+                && Arrays.equals(data, that.data);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(id, commandId, isFailed, isTraining);
+        int result = Objects.hash(id, commandId, isFailed, isTraining, isEndOfBatch);
         if (data != null) {
             result = 31 * result + Arrays.hashCode(data);
         }
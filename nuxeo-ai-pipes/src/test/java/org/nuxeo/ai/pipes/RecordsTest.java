@@ -19,11 +19,13 @@
 package org.nuxeo.ai.pipes;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
 import static junit.framework.TestCase.fail;
 import static org.junit.Assert.assertNotNull;
 import static org.nuxeo.ai.pipes.events.EventPipesTest.TEST_MIME_TYPE;
 import static org.nuxeo.ai.pipes.events.EventPipesTest.getTestEvent;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.MAPPER;
+import static org.nuxeo.ai.pipes.services.JacksonUtil.SMILE_MAPPER;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.fromRecord;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.toJsonString;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.toRecord;
@@ -40,6 +42,8 @@ import org.apache.commons.logging.LogFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ai.pipes.functions.PropertiesToStream;
+import org.nuxeo.ai.pipes.services.JacksonUtil;
+import org.nuxeo.ai.pipes.services.JacksonUtil.RecordFormat;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
 import org.nuxeo.ai.sdk.objects.PropertyType;
 import org.nuxeo.ecm.core.api.CoreSession;
@@ -94,6 +98,42 @@ public class RecordsTest {
         assertEquals(TEST_MIME_TYPE, blob.getMimeType());
     }
 
+    @Test
+    public void testRecordFormats() throws Exception {
+        PropertiesToStream func = new PropertiesToStream();
+        Map<String, String> params = new HashMap<>();
+        params.put("blobProperties", "file:content");
+        params.put("blobPropertiesType", "txt");
+        params.put("customProperties", "dc:creator");
+        func.init(params);
+        Record json = ((List<Record>) func.apply(getTestEvent(session))).get(0);
+
+        params.put(PropertiesToStream.RECORD_FORMAT, "smile");
+        func.init(params);
+        Record smile = ((List<Record>) func.apply(getTestEvent(session))).get(0);
+        assertEquals(SMILE_MAPPER, JacksonUtil.mapperFor(smile.getData()));
+        assertEquals(MAPPER, JacksonUtil.mapperFor(json.getData()));
+        assertTrue(smile.getData().length < json.getData().length);
+
+        // Both formats are read transparently
+        BlobTextFromDocument fromJson = fromRecord(json, BlobTextFromDocument.class);
+        BlobTextFromDocument fromSmile = fromRecord(smile, BlobTextFromDocument.class);
+        assertEquals(fromJson.getId(), fromSmile.getId());
+        assertEquals("Administrator", fromSmile.getProperties().get("dc:creator"));
+        ManagedBlob blob = fromSmile.computePropertyBlobs().get(new PropertyType("file:content", "txt"));
+        assertNotNull(blob);
+        assertEquals(TEST_MIME_TYPE, blob.getMimeType());
+
+        assertEquals(RecordFormat.JSON, RecordFormat.of(null));
+        assertEquals(RecordFormat.SMILE, RecordFormat.of(" Smile"));
+        try {
+            RecordFormat.of("xml");
+            fail();
+        } catch (NuxeoException e) {
+            assertEquals("Unknown record format: xml", e.getMessage());
+        }
+    }
+
     @Test(expected = NuxeoException.class)
     public void testToRecord() throws Exception {
         toRecord("akey", getTestEvent(session));
@@ -21,11 +21,14 @@ package org.nuxeo.ai.pipes.events;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.fromRecord;
 import static org.nuxeo.ai.pipes.services.JacksonUtil.toRecord;
 
 import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +37,7 @@ import javax.inject.Inject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ai.pipes.PipesTestConfigFeature;
+import org.nuxeo.ai.pipes.consumers.BufferedLogAppenderConsumer;
 import org.nuxeo.ai.pipes.consumers.LogAppenderConsumer;
 import org.nuxeo.ai.pipes.types.BlobTextFromDocument;
 import org.nuxeo.ai.sdk.objects.PropertyType;
@@ -50,10 +54,19 @@ import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
 import org.nuxeo.ecm.core.event.impl.EventContextImpl;
 import org.nuxeo.ecm.core.event.impl.EventServiceImpl;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.log.LogAppender;
+import org.nuxeo.lib.stream.log.LogManager;
+import org.nuxeo.lib.stream.log.LogTailer;
+import org.nuxeo.lib.stream.log.Name;
+import org.nuxeo.lib.stream.log.internals.CloseableLogAppender;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.metrics.NuxeoMetricSet;
+import org.nuxeo.runtime.stream.StreamService;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
 
 import io.dropwizard.metrics5.Gauge;
 import io.dropwizard.metrics5.Metric;
@@ -114,6 +127,82 @@ public class EventPipesTest {
         assertNotNull("toString shouldn't throw a null pointer even if the appender is null", consumer.toString());
     }
 
+    @Test
+    public void testBufferedConsumer() throws Exception {
+        LogManager manager = Framework.getService(StreamService.class).getLogManager();
+        Name logName = Name.ofUrn("test/buffered-appender");
+        manager.createIfNotExists(logName, 1);
+        CloseableLogAppender<Record> appender = (CloseableLogAppender) manager.getAppender(logName);
+        BufferedLogAppenderConsumer consumer = new BufferedLogAppenderConsumer(appender, 3, 60_000);
+        try (LogTailer<Record> tailer = manager.createTailer(Name.ofUrn("test/buffered-group"), logName)) {
+            // The records are only appended when the transaction commits
+            consumer.accept(toRecord("a", "first"));
+            consumer.accept(toRecord("b", "second"));
+            assertEquals(2, consumer.getDepth());
+            assertNull(tailer.read(Duration.ofMillis(200)));
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+            assertEquals(0, consumer.getDepth());
+            assertEquals("a", tailer.read(Duration.ofSeconds(1)).message().getKey());
+            assertEquals("b", tailer.read(Duration.ofSeconds(1)).message().getKey());
+
+            // The records of a rolled back transaction are discarded
+            consumer.accept(toRecord("c", "rolled back"));
+            TransactionHelper.setTransactionRollbackOnly();
+            TransactionHelper.commitOrRollbackTransaction();
+            TransactionHelper.startTransaction();
+            assertEquals(0, consumer.getDepth());
+            assertNull(tailer.read(Duration.ofMillis(200)));
+
+            // A full buffer is appended without waiting for the commit
+            consumer.accept(toRecord("d", "1"));
+            consumer.accept(toRecord("e", "2"));
+            consumer.accept(toRecord("f", "3"));
+            assertEquals(0, consumer.getDepth());
+            assertEquals("d", tailer.read(Duration.ofSeconds(1)).message().getKey());
+            assertEquals("e", tailer.read(Duration.ofSeconds(1)).message().getKey());
+            assertEquals("f", tailer.read(Duration.ofSeconds(1)).message().getKey());
+
+            // Without a transaction the records are appended directly
+            TransactionHelper.commitOrRollbackTransaction();
+            try {
+                consumer.accept(toRecord("g", "no transaction"));
+                assertEquals("g", tailer.read(Duration.ofSeconds(1)).message().getKey());
+            } finally {
+                TransactionHelper.startTransaction();
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBufferedConsumerAppendFailure() throws Exception {
+        LogManager manager = Framework.getService(StreamService.class).getLogManager();
+        Name logName = Name.ofUrn("test/failing-appender");
+        manager.createIfNotExists(logName, 1);
+        CloseableLogAppender<Record> appender = (CloseableLogAppender) manager.getAppender(logName);
+        LogAppender<Record> failing = (LogAppender<Record>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { LogAppender.class }, (proxy, method, args) -> {
+                    if ("append".equals(method.getName())) {
+                        throw new IllegalStateException("Unable to append");
+                    }
+                    return method.invoke(appender, args);
+                });
+        BufferedLogAppenderConsumer consumer = new BufferedLogAppenderConsumer(appender, 3, 60_000) {
+            @Override
+            protected LogAppender<Record> getAppender() {
+                return failing;
+            }
+        };
+
+        // The failure is logged, it doesn't reach the committing thread
+        consumer.accept(toRecord("a", "first"));
+        consumer.accept(toRecord("b", "second"));
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertEquals(0, consumer.getDepth());
+    }
+
     @Test
     public void testDocEventToStream() throws Exception {
         DocEventToStream doc2stream = new DocEventToStream();
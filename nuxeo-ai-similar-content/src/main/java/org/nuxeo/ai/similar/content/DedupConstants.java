@@ -38,4 +38,8 @@ public class DedupConstants {
     public static final String SIMILAR_DOCUMENTS_FOUND_EVENT = "similarDocumentsFound";
 
     public static final String SIMILAR_DOCUMENT_IDS_PARAM = "similarIds";
+
+    public static final String CONF_RESOLVER_TRANSACTION_SIZE = "nuxeo.ai.similar.content.resolver.transaction.size";
+
+    public static final String DEFAULT_RESOLVER_TRANSACTION_SIZE = "10";
 }
@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright 2006-2021 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *
+ * Contributors:
+ *    Andrei Nechaev
+ *
+ */
+package org.nuxeo.ai.similar.content.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+
+/**
+ * Memoizes the permission and group checks of the {@link ResultsFilter}s evaluated for a request or a batch, so
+ * documents tested against several filters and rules only ask the session once per principal and document.
+ * <p>
+ * A context must not outlive the request or batch it was created for, the permissions it holds may change afterwards.
+ */
+public class FilterContext {
+
+    protected final Map<String, Boolean> permissions = new HashMap<>();
+
+    protected final Map<String, Boolean> groups = new HashMap<>();
+
+    public boolean hasPermission(CoreSession session, DocumentModel doc, String permission) {
+        String key = session.getPrincipal().getName() + ':' + doc.getRef() + ':' + permission;
+        return permissions.computeIfAbsent(key, k -> session.hasPermission(doc.getRef(), permission));
+    }
+
+    public boolean isMemberOf(NuxeoPrincipal principal, String group) {
+        String key = principal.getName() + ':' + group;
+        return groups.computeIfAbsent(key, k -> principal.isMemberOf(group));
+    }
+}
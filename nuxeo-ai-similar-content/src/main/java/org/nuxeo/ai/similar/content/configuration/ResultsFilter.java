@@ -21,6 +21,10 @@
 package org.nuxeo.ai.similar.content.configuration;
 
 import java.io.Serializable;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,10 +34,17 @@ import org.nuxeo.common.xmap.annotation.XObject;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.NuxeoPrincipal;
+import org.nuxeo.ecm.core.schema.DocumentType;
+import org.nuxeo.ecm.core.schema.SchemaManager;
 import org.nuxeo.ecm.platform.actions.DefaultActionFilter;
+import org.nuxeo.runtime.api.Framework;
 
 /**
  * File was extracted from {@link DefaultActionFilter} with some minor changes to fit the requirements
+ * <p>
+ * The rules are compiled on first use: the document types matching the types, facets and schemas of each rule are
+ * resolved once against the {@link SchemaManager}, so checking them is a lookup in a bitset. The permission and group
+ * checks are memoized in a {@link FilterContext}.
  */
 @XObject("filter")
 public class ResultsFilter implements Cloneable, Serializable {
@@ -53,6 +64,8 @@ public class ResultsFilter implements Cloneable, Serializable {
     @XNodeList(value = "rule", type = String[].class, componentType = ResultsRule.class)
     protected ResultsRule[] rules;
 
+    protected transient volatile CompiledRules compiled;
+
     public ResultsFilter() {
         this(null, null, false);
     }
@@ -76,6 +89,13 @@ public class ResultsFilter implements Cloneable, Serializable {
     }
 
     public boolean accept(DocumentModel doc) {
+        return accept(doc, new FilterContext());
+    }
+
+    /**
+     * Same as {@link #accept(DocumentModel)}, the permission and group checks are memoized in the context
+     */
+    public boolean accept(DocumentModel doc, FilterContext context) {
         // no context: reject
         if (doc == null) {
             log.debug("#accept: no context available: action filtered");
@@ -86,10 +106,13 @@ public class ResultsFilter implements Cloneable, Serializable {
             return true;
         }
 
+        CompiledRules compiledRules = getCompiledRules();
         boolean existsGrantRule = false;
         boolean grantApply = false;
-        for (ResultsRule rule : rules) {
-            boolean ruleApplies = checkRule(rule, doc);
+        for (int i = 0; i < rules.length; i++) {
+            ResultsRule rule = rules[i];
+            boolean ruleApplies = compiledRules == null ? checkRule(rule, doc)
+                    : compiledRules.checkRule(i, doc, context);
             if (!rule.grant) {
                 if (ruleApplies) {
                     log.debug("#accept: denying rule applies => action filtered");
@@ -123,7 +146,6 @@ public class ResultsFilter implements Cloneable, Serializable {
             log.debug("#checkRule: checking rule {}", rule);
         }
 
-        // TODO: for optimization reasons cache should be used; see org.nuxeo.ecm.platform.actions.DefaultActionFilter
         return (rule.facets == null || rule.facets.length == 0 || checkFacets(doc, rule.facets)) && (rule.types == null
                 || rule.types.length == 0 || checkTypes(doc, rule.types)) && (rule.schemas == null
                 || rule.schemas.length == 0 || checkSchemas(doc, rule.schemas)) && (rule.permissions == null
@@ -131,6 +153,24 @@ public class ResultsFilter implements Cloneable, Serializable {
                 || rule.groups.length == 0 || checkGroups(doc, rule.groups));
     }
 
+    /**
+     * Gets the compiled rules, compiling them if the schema manager changed. Returns null if there is no schema
+     * manager.
+     */
+    protected CompiledRules getCompiledRules() {
+        SchemaManager schemaManager = Framework.getRuntime() == null ? null
+                : Framework.getService(SchemaManager.class);
+        if (schemaManager == null) {
+            return null;
+        }
+        CompiledRules compiledRules = compiled;
+        if (compiledRules == null || compiledRules.schemaManager != schemaManager) {
+            compiledRules = new CompiledRules(schemaManager);
+            compiled = compiledRules;
+        }
+        return compiledRules;
+    }
+
     /**
      * Returns true if document has one of the given facets, else false.
      *
@@ -268,6 +308,45 @@ public class ResultsFilter implements Cloneable, Serializable {
         return false;
     }
 
+    /**
+     * Same as {@link #checkPermissions(DocumentModel, String[])}, memoized in the context
+     */
+    protected final boolean checkPermissions(DocumentModel doc, String[] permissions, FilterContext context) {
+        CoreSession session = doc.getCoreSession();
+        if (session == null) {
+            log.debug("#checkPermissions: no core session => return false");
+            return false;
+        }
+
+        for (String permission : permissions) {
+            if (context.hasPermission(session, doc, permission)) {
+                log.debug("#checkPermissions: return true for permission {}", permission);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link #checkGroups(DocumentModel, String[])}, memoized in the context
+     */
+    protected final boolean checkGroups(DocumentModel doc, String[] groups, FilterContext context) {
+        CoreSession session = doc.getCoreSession();
+        if (session == null) {
+            log.debug("#checkGroups: no core session => return false");
+            return false;
+        }
+
+        NuxeoPrincipal principal = session.getPrincipal();
+        for (String group : groups) {
+            if (context.isMemberOf(principal, group)) {
+                log.debug("#checkGroups: return true for group {}", group);
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean getAppend() {
         return append;
     }
@@ -348,4 +427,82 @@ public class ResultsFilter implements Cloneable, Serializable {
         }
         return true;
     }
+
+    /**
+     * The rules resolved against the document types of a schema manager
+     */
+    protected class CompiledRules {
+
+        protected final SchemaManager schemaManager;
+
+        protected final Map<String, Integer> typeIndex = new HashMap<>();
+
+        // For each rule, the document types matching its types, facets and schemas; null if the rule has none
+        protected final BitSet[] types;
+
+        protected final BitSet[] facets;
+
+        protected final BitSet[] schemas;
+
+        protected CompiledRules(SchemaManager schemaManager) {
+            this.schemaManager = schemaManager;
+            DocumentType[] documentTypes = schemaManager.getDocumentTypes();
+            for (int i = 0; i < documentTypes.length; i++) {
+                typeIndex.put(documentTypes[i].getName(), i);
+            }
+            types = new BitSet[rules.length];
+            facets = new BitSet[rules.length];
+            schemas = new BitSet[rules.length];
+            for (int i = 0; i < rules.length; i++) {
+                ResultsRule rule = rules[i];
+                types[i] = resolve(documentTypes, rule.types, (type, name) -> type.getName().equals(name));
+                facets[i] = resolve(documentTypes, rule.facets, DocumentType::hasFacet);
+                schemas[i] = resolve(documentTypes, rule.schemas, DocumentType::hasSchema);
+            }
+        }
+
+        protected BitSet resolve(DocumentType[] documentTypes, String[] names,
+                BiPredicate<DocumentType, String> matches) {
+            if (names == null || names.length == 0) {
+                return null;
+            }
+            BitSet bits = new BitSet(documentTypes.length);
+            for (int i = 0; i < documentTypes.length; i++) {
+                for (String name : names) {
+                    if (matches.test(documentTypes[i], name)) {
+                        bits.set(i);
+                        break;
+                    }
+                }
+            }
+            return bits;
+        }
+
+        /**
+         * Checks the rule, the cheapest checks first. Facets and schemas not held by the document type are looked up
+         * on the document as they can be added to the document itself.
+         */
+        protected boolean checkRule(int index, DocumentModel doc, FilterContext context) {
+            ResultsRule rule = rules[index];
+            Integer type = typeIndex.get(doc.getType());
+            if (type == null) {
+                // Unknown type, not compiled
+                return ResultsFilter.this.checkRule(rule, doc);
+            }
+            if (types[index] != null && !types[index].get(type)) {
+                return false;
+            }
+            if (facets[index] != null && !facets[index].get(type) && !checkFacets(doc, rule.facets)) {
+                return false;
+            }
+            if (schemas[index] != null && !schemas[index].get(type) && !checkSchemas(doc, rule.schemas)) {
+                return false;
+            }
+            if (rule.groups != null && rule.groups.length > 0 && !checkGroups(doc, rule.groups, context)) {
+                return false;
+            }
+            return rule.permissions == null || rule.permissions.length == 0
+                    || checkPermissions(doc, rule.permissions, context);
+        }
+    }
 }
@@ -34,6 +34,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.nuxeo.ai.similar.content.configuration.FilterContext;
 import org.nuxeo.ai.similar.content.services.SimilarContentService;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -56,10 +57,12 @@ public class DocumentIndexedListener implements PostCommitEventListener {
 
     @Override
     public void handleEvent(EventBundle bundle) {
-        bundle.forEach(this::handleEvent);
+        // the documents of a bundle share the memoized permission and group checks
+        FilterContext context = new FilterContext();
+        bundle.forEach(event -> handleEvent(event, context));
     }
 
-    protected void handleEvent(Event event) {
+    protected void handleEvent(Event event, FilterContext context) {
         if (!(event.getContext() instanceof DocumentEventContext)) {
             return;
         }
@@ -68,7 +71,7 @@ public class DocumentIndexedListener implements PostCommitEventListener {
         DocumentModel doc = ctx.getSourceDocument();
         SimilarContentService scs = Framework.getService(SimilarContentService.class);
         String configuration = Framework.getProperty(CONF_DEDUPLICATION_CONFIGURATION, DEFAULT_CONFIGURATION);
-        if (!scs.test(configuration, doc)) {
+        if (!scs.test(configuration, doc, context)) {
             log.debug("Document {} doesn't pass the test of '{}' configuration", doc.getId(), configuration);
             return;
         }
@@ -23,76 +23,309 @@ package org.nuxeo.ai.similar.content.pipelines;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
+import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
 import static org.nuxeo.ai.sdk.rest.Common.Headers.SCROLL_ID_HEADER;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.cloud.CloudClient;
 import org.nuxeo.ai.sdk.objects.deduplication.ScrollableResult;
-import org.nuxeo.ai.sdk.objects.deduplication.SimilarTuple;
 import org.nuxeo.ai.sdk.rest.client.API;
 import org.nuxeo.ai.sdk.rest.client.InsightClient;
-import org.nuxeo.ai.similar.content.pojo.SimilarTupleContainer;
+import org.nuxeo.ai.similar.content.pipelines.objects.ScrollState;
+import org.nuxeo.ai.similar.content.pipelines.objects.SimilarTupleRecord;
 import org.nuxeo.ecm.core.api.CoreInstance;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.lib.stream.codec.Codec;
 import org.nuxeo.lib.stream.computation.AbstractComputation;
 import org.nuxeo.lib.stream.computation.ComputationContext;
 import org.nuxeo.lib.stream.computation.Record;
 import org.nuxeo.runtime.api.Framework;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
 
 /**
  * Computation responsible for scrolling through all duplicates available at Insight
+ * <p>
+ * The scroll is processed one page per call: the page is saved with the scroll state in the {@value #SCROLL_KVS_STORE}
+ * key value store, its tuples are emitted, a checkpoint is requested and a timer continues with the next page. The
+ * next page is fetched in the background while the records of the current one are sent, it is only kept in memory.
+ * The records of a page are only sent by the checkpoint that follows the call, so the state moves past the page at the
+ * next call, once they are sent, and the prefetched page is saved as pending then. A scroll left in progress by a
+ * stopped node is resumed from its saved state, a page whose records may not have been sent is emitted again rather
+ * than lost, a prefetched page that was not saved is fetched again.
+ * <p>
+ * A lease in the key value store makes sure a single computation scrolls a repository.
  */
 public class DeduplicationScrollerComputation extends AbstractComputation {
 
     private static final Logger log = LogManager.getLogger(DeduplicationScrollerComputation.class);
 
-    protected static final ObjectMapper LOCAL_OM = new ObjectMapper();
-
     public static final String SCROLLER_COMPUTATION_NAME = "ai/dedup-scroller";
 
+    public static final String SCROLL_KVS_STORE = "aiDedupScrollStore";
+
+    protected static final String STATE_PREFIX = "dedup-scroll:";
+
+    protected static final String OWNER_PREFIX = "dedup-scroll-owner:";
+
+    protected static final long STATE_TTL_SEC = TimeUnit.DAYS.toSeconds(1);
+
+    protected static final long LEASE_TTL_SEC = 60;
+
+    protected final String owner = UUID.randomUUID().toString();
+
+    // The repositories whose pending page was emitted by the previous call, its records are sent by its checkpoint
+    protected final Set<String> emitted = new HashSet<>();
+
+    // The pages fetched in the background by repository, saved as pending once the previous page is sent
+    protected final Map<String, Prefetch> prefetched = new HashMap<>();
+
+    protected volatile ExecutorService prefetcher;
+
     public DeduplicationScrollerComputation(String name) {
         super(name, 1, 1);
     }
 
     @Override
-    public void processRecord(ComputationContext ctx, String stream, Record record) {
-        CloudClient client = Framework.getService(CloudClient.class);
-        Objects.requireNonNull(client);
+    public void init(ComputationContext ctx) {
+        // Resume the scrolls left in progress
+        for (String repo : Framework.getService(RepositoryManager.class).getRepositoryNames()) {
+            if (getStore().get(STATE_PREFIX + repo) != null) {
+                log.info("Resuming the duplicates scroll of repository {}", repo);
+                ctx.setTimer(repo, System.currentTimeMillis());
+            }
+        }
+    }
 
+    @Override
+    public void processRecord(ComputationContext ctx, String stream, Record record) {
         String repo = record.getKey();
         String user = new String(record.getData(), UTF_8);
-        CoreSession session = CoreInstance.getCoreSessionSystem(repo, user);
-        InsightClient insight = client.getClient(session)
-                                      .orElseThrow(() -> new NuxeoException(
-                                              "Could not obtain Insight Client for user " + session.getPrincipal()
-                                                                                                   .getActingUser()));
+        ScrollState state = loadState(repo);
+        if (state != null) {
+            // Its timer emits the next page once the previous one is sent
+            log.info("A duplicates scroll of repository {} is already in progress at page {}", repo, state.getPage());
+            ctx.setTimer(repo, System.currentTimeMillis());
+            return;
+        }
+        state = ScrollState.of(user, repo);
+        saveState(state);
+        if (acquire(repo)) {
+            scroll(ctx, state);
+        } else {
+            ctx.setTimer(repo, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_TTL_SEC));
+            ctx.askForCheckpoint();
+        }
+    }
+
+    @Override
+    public void processTimer(ComputationContext ctx, String repo, long timestamp) {
+        ScrollState state = loadState(repo);
+        if (state == null) {
+            return;
+        }
+        if (!acquire(repo)) {
+            log.debug("The duplicates scroll of repository {} is processed by another computation", repo);
+            ctx.setTimer(repo, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_TTL_SEC));
+            return;
+        }
+        scroll(ctx, state);
+    }
+
+    /**
+     * Emits the next page of the scroll
+     */
+    protected void scroll(ComputationContext ctx, ScrollState state) {
+        String repo = state.getRepository();
+        if (state.hasPendingPage() && emitted.remove(repo)) {
+            // The checkpoint that followed the previous call sent the records of the page
+            state = state.next();
+            saveState(state);
+        }
+        InsightClient insight = getInsightClient(state);
+        if (state.hasPendingPage()) {
+            log.info("Emitting again page {} of the duplicates scroll of repository {}", state.getPage() + 1, repo);
+        } else {
+            ScrollableResult result = nextPage(insight, state);
+            if (result == null || result.getResult() == null || result.getResult().isEmpty()) {
+                log.info("Duplicates scroll of repository {} done, {} tuples in {} pages", repo, state.getTuples(),
+                        state.getPage());
+                release(repo);
+                ctx.askForCheckpoint();
+                return;
+            }
+            String user = state.getUser();
+            List<SimilarTupleRecord> records = result.getResult()
+                                                     .stream()
+                                                     .map(tuple -> SimilarTupleRecord.of(user, repo, tuple))
+                                                     .collect(Collectors.toList());
+            // The page is saved before it is emitted, it is emitted again if its records are not sent
+            state = state.withPendingPage(result.getScrollId(), records);
+            saveState(state);
+        }
+
+        Codec<SimilarTupleRecord> codec = getAvroCodec(SimilarTupleRecord.class);
+        for (SimilarTupleRecord record : state.getPendingPage()) {
+            ctx.produceRecord(OUTPUT_1, record.getClusterKey(), codec.encode(record));
+        }
+        emitted.add(repo);
+        prefetch(insight, repo, state.getPendingScrollId());
+        ctx.askForCheckpoint();
+        ctx.setTimer(repo, System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the page following the state, from the prefetched page if there is one
+     */
+    protected ScrollableResult nextPage(InsightClient insight, ScrollState state) {
+        Prefetch prefetch = prefetched.remove(state.getRepository());
+        if (prefetch == null || !Objects.equals(prefetch.scrollId, state.getScrollId())) {
+            if (prefetch != null) {
+                prefetch.page.cancel(true);
+            }
+            try {
+                return fetch(insight, state.getScrollId());
+            } catch (IOException e) {
+                log.error("Could not execute Dedup API call", e);
+                throw new NuxeoException(e);
+            }
+        }
         try {
-            ScrollableResult result = null;
-            do {
-                Map<String, Serializable> params =
-                        result != null ? singletonMap(SCROLL_ID_HEADER, result.getScrollId()) : emptyMap();
-                result = insight.api(API.Dedup.ALL).call(params);
-                if (result != null) {
-                    List<SimilarTuple> tuples = result.getResult();
-                    for (SimilarTuple tuple : tuples) {
-                        byte[] bytes = LOCAL_OM.writeValueAsBytes(SimilarTupleContainer.of(user, repo, tuple));
-                        ctx.produceRecord(OUTPUT_1, tuple.getDocumentId(), bytes);
-                    }
+            return prefetch.page.join();
+        } catch (CompletionException e) {
+            log.error("Could not execute Dedup API call", e.getCause());
+            throw new NuxeoException(e.getCause());
+        }
+    }
+
+    protected void prefetch(InsightClient insight, String repo, String scrollId) {
+        CompletableFuture<ScrollableResult> page = CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetch(insight, scrollId);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, getPrefetcher());
+        Prefetch previous = prefetched.put(repo, new Prefetch(scrollId, page));
+        if (previous != null) {
+            previous.page.cancel(true);
+        }
+    }
+
+    protected ExecutorService getPrefetcher() {
+        ExecutorService executor = prefetcher;
+        if (executor == null) {
+            synchronized (this) {
+                executor = prefetcher;
+                if (executor == null) {
+                    executor = Executors.newSingleThreadExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, metadata.name() + "-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    prefetcher = executor;
                 }
-            } while (result != null && !result.getResult().isEmpty());
-        } catch (IOException e) {
-            log.error("Could not execute Dedup API call", e);
-            throw new NuxeoException(e);
+            }
         }
+        return executor;
+    }
 
-        ctx.askForCheckpoint();
+    protected ScrollableResult fetch(InsightClient insight, String scrollId) throws IOException {
+        Map<String, Serializable> params = scrollId != null ? singletonMap(SCROLL_ID_HEADER, scrollId) : emptyMap();
+        return insight.api(API.Dedup.ALL).call(params);
+    }
+
+    protected InsightClient getInsightClient(ScrollState state) {
+        CloudClient client = Framework.getService(CloudClient.class);
+        Objects.requireNonNull(client);
+        CoreSession session = CoreInstance.getCoreSessionSystem(state.getRepository(), state.getUser());
+        return client.getClient(session)
+                     .orElseThrow(() -> new NuxeoException(
+                             "Could not obtain Insight Client for user " + session.getPrincipal().getActingUser()));
+    }
+
+    /**
+     * Takes or renews the lease on the scroll of the repository
+     *
+     * @return true if this computation holds the lease
+     */
+    protected boolean acquire(String repo) {
+        KeyValueStore store = getStore();
+        String key = OWNER_PREFIX + repo;
+        if (owner.equals(store.getString(key))) {
+            store.put(key, owner, LEASE_TTL_SEC);
+            return true;
+        }
+        return store.compareAndSet(key, null, owner, LEASE_TTL_SEC);
+    }
+
+    protected void release(String repo) {
+        emitted.remove(repo);
+        Prefetch prefetch = prefetched.remove(repo);
+        if (prefetch != null) {
+            prefetch.page.cancel(true);
+        }
+        KeyValueStore store = getStore();
+        store.put(STATE_PREFIX + repo, (byte[]) null);
+        store.put(OWNER_PREFIX + repo, (String) null);
+    }
+
+    protected ScrollState loadState(String repo) {
+        byte[] bytes = getStore().get(STATE_PREFIX + repo);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return getAvroCodec(ScrollState.class).decode(bytes);
+    }
+
+    protected void saveState(ScrollState state) {
+        byte[] bytes = getAvroCodec(ScrollState.class).encode(state);
+        getStore().put(STATE_PREFIX + state.getRepository(), bytes, STATE_TTL_SEC);
+    }
+
+    protected KeyValueStore getStore() {
+        return Framework.getService(KeyValueService.class).getKeyValueStore(SCROLL_KVS_STORE);
+    }
+
+    @Override
+    public void destroy() {
+        prefetched.values().forEach(prefetch -> prefetch.page.cancel(true));
+        prefetched.clear();
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    /**
+     * A page being fetched in the background
+     */
+    protected static class Prefetch {
+
+        protected final String scrollId;
+
+        protected final CompletableFuture<ScrollableResult> page;
+
+        protected Prefetch(String scrollId, CompletableFuture<ScrollableResult> page) {
+            this.scrollId = scrollId;
+            this.page = page;
+        }
     }
 }
@@ -20,10 +20,26 @@
  */
 package org.nuxeo.ai.similar.content.pipelines;
 
-import java.io.IOException;
+import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
+import static org.nuxeo.ai.similar.content.DedupConstants.CONF_RESOLVER_TRANSACTION_SIZE;
+import static org.nuxeo.ai.similar.content.DedupConstants.DEFAULT_RESOLVER_TRANSACTION_SIZE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.apache.commons.lang3.StringUtils;
-import org.nuxeo.ai.sdk.objects.deduplication.SimilarTuple;
-import org.nuxeo.ai.similar.content.pojo.SimilarTupleContainer;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.nuxeo.ai.similar.content.pipelines.objects.SimilarTupleRecord;
 import org.nuxeo.ai.similar.content.services.SimilarContentService;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
@@ -32,57 +48,224 @@ import org.nuxeo.ecm.core.api.CoreInstance;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.NuxeoException;
-import org.nuxeo.lib.stream.computation.AbstractComputation;
+import org.nuxeo.lib.stream.codec.Codec;
+import org.nuxeo.lib.stream.computation.AbstractBatchComputation;
 import org.nuxeo.lib.stream.computation.ComputationContext;
 import org.nuxeo.lib.stream.computation.Record;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.transaction.TransactionHelper;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Computation responsible for dealing with duplicates
+ * <p>
+ * Insight sends a tuple for each member of a group of duplicates. The tuples of a batch, set by the
+ * <code>batchCapacity</code> and <code>batchThreshold</code> of the computation policy, are merged into clusters so the
+ * resolution operation runs once per cluster. The clusters are resolved by transactions of
+ * {@value org.nuxeo.ai.similar.content.DedupConstants#CONF_RESOLVER_TRANSACTION_SIZE} clusters.
+ * <p>
+ * The clusters committed while processing a batch are remembered until the batch completes, so when a failing cluster
+ * makes the computation policy retry the batch only the clusters that were not resolved are resolved again.
  */
-public class DuplicateResolverComputation extends AbstractComputation {
+public class DuplicateResolverComputation extends AbstractBatchComputation {
 
-    protected static final ObjectMapper LOCAL_OM = new ObjectMapper();
+    private static final Logger log = LogManager.getLogger(DuplicateResolverComputation.class);
 
     public static final String RESOLVER_COMPUTE_NAME = "ai/dedup-resolver";
 
+    // Keys of the clusters of the current batch whose resolution was committed
+    protected final Set<String> resolved = new HashSet<>();
+
     public DuplicateResolverComputation(String name) {
         super(name, 1, 0);
     }
 
     @Override
-    public void processRecord(ComputationContext ctx, String s, Record record) {
-        SimilarTupleContainer container;
+    protected void batchProcess(ComputationContext ctx, String inputStream, List<Record> records) {
+        SimilarContentService scs = Framework.getService(SimilarContentService.class);
+        String oid = scs.getOperationID();
+        if (StringUtils.isEmpty(oid)) {
+            throw new NuxeoException("No Deduplication operation is registered");
+        }
+
+        // Tuples can only be in the same cluster if they share the session and xpath
+        Codec<SimilarTupleRecord> codec = getAvroCodec(SimilarTupleRecord.class);
+        Map<List<String>, Clusters> groups = new LinkedHashMap<>();
+        for (Record record : records) {
+            SimilarTupleRecord tuple = codec.decode(record.getData());
+            List<String> group = Arrays.asList(tuple.getRepository(), tuple.getUser(), tuple.getXpath());
+            groups.computeIfAbsent(group, k -> new Clusters()).add(tuple);
+        }
+
+        int transactionSize = Math.max(1, Integer.parseInt(
+                Framework.getProperty(CONF_RESOLVER_TRANSACTION_SIZE, DEFAULT_RESOLVER_TRANSACTION_SIZE)));
+        groups.forEach((group, clusters) -> {
+            CoreSession session = CoreInstance.getCoreSessionSystem(group.get(0), group.get(1));
+            String xpath = group.get(2);
+            List<Cluster> all = clusters.get()
+                                        .stream()
+                                        .filter(cluster -> !resolved.contains(resolvedKey(session, xpath, cluster)))
+                                        .collect(Collectors.toList());
+            log.debug("Resolving {} clusters of duplicates from {} tuples", all.size(), clusters.size());
+            for (int start = 0; start < all.size(); start += transactionSize) {
+                resolve(session, oid, xpath, all.subList(start, Math.min(start + transactionSize, all.size())));
+            }
+        });
+        resolved.clear();
+        ctx.askForCheckpoint();
+    }
+
+    @Override
+    public void batchFailure(ComputationContext ctx, String inputStream, List<Record> records) {
+        log.warn("Failed to resolve the duplicates of a batch of {} tuples", records.size());
+        resolved.clear();
+    }
+
+    /**
+     * Resolves the clusters in a single transaction. If it fails, each cluster is resolved in its own transaction so a
+     * bad cluster doesn't prevent the others from being resolved. The failure of a single cluster is thrown, so the
+     * batch is retried according to the computation policy, the committed clusters are not resolved again.
+     */
+    protected void resolve(CoreSession session, String oid, String xpath, List<Cluster> clusters) {
         try {
-            container = LOCAL_OM.readValue(record.getData(), SimilarTupleContainer.class);
-        } catch (IOException e) {
+            TransactionHelper.runInNewTransaction(() -> clusters.forEach(c -> resolve(session, oid, xpath, c)));
+            clusters.forEach(c -> resolved.add(resolvedKey(session, xpath, c)));
+            return;
+        } catch (NuxeoException e) {
+            if (clusters.size() == 1) {
+                log.error("Could not resolve the duplicates of document {}", clusters.get(0).documentId, e);
+                throw e;
+            }
+            log.warn("Could not resolve {} clusters of duplicates together, resolving them one by one",
+                    clusters.size(), e);
+        }
+        NuxeoException failure = null;
+        for (Cluster cluster : clusters) {
+            try {
+                resolve(session, oid, xpath, Collections.singletonList(cluster));
+            } catch (NuxeoException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    protected String resolvedKey(CoreSession session, String xpath, Cluster cluster) {
+        return session.getRepositoryName() + ':' + xpath + ':' + cluster.documentId;
+    }
+
+    protected void resolve(CoreSession session, String oid, String xpath, Cluster cluster) {
+        if (!session.exists(new IdRef(cluster.documentId))) {
+            log.debug("Document {} was removed, its duplicates are not resolved", cluster.documentId);
+            return;
+        }
+
+        OperationContext opCtx = new OperationContext(session);
+        opCtx.setInput(new IdRef(cluster.documentId));
+        opCtx.put("similar", cluster.similar);
+        opCtx.put("xpath", xpath);
+        try {
+            Framework.getService(AutomationService.class).run(opCtx, oid);
+        } catch (OperationException e) {
             throw new NuxeoException(e);
         }
+    }
 
-        SimilarTuple tuple = container.getTuple();
+    /**
+     * A document and its duplicates
+     */
+    protected static class Cluster {
 
-        OperationContext opCtx = new OperationContext();
-        opCtx.setInput(new IdRef(tuple.getDocumentId()));
-        opCtx.put("similar", tuple.getSimilarDocuments());
-        opCtx.put("xpath", tuple.getXpath());
+        protected final String documentId;
 
-        SimilarContentService scs = Framework.getService(SimilarContentService.class);
-        String oid = scs.getOperationID();
-        if (StringUtils.isEmpty(oid)) {
-            throw new NuxeoException("No Deduplication operation is registered");
+        protected final Set<Pair<String, String>> similar;
+
+        protected Cluster(String documentId, Set<Pair<String, String>> similar) {
+            this.documentId = documentId;
+            this.similar = similar;
         }
+    }
 
-        AutomationService automation = Framework.getService(AutomationService.class);
-        CoreSession session = CoreInstance.getCoreSessionSystem(container.getRepository(), container.getUser());
-        opCtx.setCoreSession(session);
-        TransactionHelper.runInNewTransaction(() -> {
-            try {
-                automation.run(opCtx, oid);
-            } catch (OperationException e) {
-                throw new NuxeoException(e);
+    /**
+     * Merges tuples sharing documents into clusters with a union-find over the document ids
+     */
+    protected static class Clusters {
+
+        protected final Map<String, String> parents = new HashMap<>();
+
+        protected final Map<String, String> xpaths = new LinkedHashMap<>();
+
+        protected final List<String> documentIds = new ArrayList<>();
+
+        protected int size;
+
+        public void add(SimilarTupleRecord tuple) {
+            size++;
+            String documentId = tuple.getDocumentId();
+            documentIds.add(documentId);
+            xpaths.putIfAbsent(documentId, tuple.getXpath());
+            parents.putIfAbsent(documentId, documentId);
+            for (Pair<String, String> similar : tuple.getSimilarDocuments()) {
+                xpaths.putIfAbsent(similar.getLeft(), similar.getRight());
+                parents.putIfAbsent(similar.getLeft(), similar.getLeft());
+                union(documentId, similar.getLeft());
             }
-        });
+        }
+
+        protected String find(String id) {
+            String root = id;
+            while (!root.equals(parents.get(root))) {
+                root = parents.get(root);
+            }
+            // Path compression
+            while (!id.equals(root)) {
+                String parent = parents.get(id);
+                parents.put(id, root);
+                id = parent;
+            }
+            return root;
+        }
+
+        protected void union(String a, String b) {
+            String rootA = find(a);
+            String rootB = find(b);
+            if (!rootA.equals(rootB)) {
+                parents.put(rootB, rootA);
+            }
+        }
+
+        /**
+         * @return the number of tuples added
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gets the clusters, each one is resolved on the first of its documents received as a tuple
+         */
+        public List<Cluster> get() {
+            Map<String, String> representatives = new LinkedHashMap<>();
+            for (String documentId : documentIds) {
+                representatives.putIfAbsent(find(documentId), documentId);
+            }
+            Map<String, Set<Pair<String, String>>> similar = new HashMap<>();
+            xpaths.forEach((id, xpath) -> {
+                String representative = representatives.get(find(id));
+                if (!id.equals(representative)) {
+                    similar.computeIfAbsent(representative, k -> new LinkedHashSet<>()).add(Pair.of(id, xpath));
+                }
+            });
+            List<Cluster> clusters = new ArrayList<>(representatives.size());
+            representatives.values()
+                           .forEach(id -> clusters.add(
+                                   new Cluster(id, similar.getOrDefault(id, Collections.emptySet()))));
+            return clusters;
+        }
     }
 }
@@ -26,8 +26,12 @@ import static org.nuxeo.ecm.core.bulk.action.computation.AbstractBulkComputation
 
 import java.io.IOException;
 import java.time.Instant;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.sdk.rest.exception.InvalidParametersException;
@@ -36,6 +40,7 @@ import org.nuxeo.ai.similar.content.services.SimilarContentService;
 import org.nuxeo.ecm.core.api.CoreInstance;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
 import org.nuxeo.ecm.core.api.IdRef;
 import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.bulk.BulkService;
@@ -44,16 +49,21 @@ import org.nuxeo.ecm.core.bulk.message.BulkStatus;
 import org.nuxeo.ecm.platform.audit.api.AuditLogger;
 import org.nuxeo.ecm.platform.audit.api.LogEntry;
 import org.nuxeo.lib.stream.codec.Codec;
-import org.nuxeo.lib.stream.computation.AbstractComputation;
+import org.nuxeo.lib.stream.computation.AbstractBatchComputation;
 import org.nuxeo.lib.stream.computation.ComputationContext;
 import org.nuxeo.lib.stream.computation.Record;
 import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.transaction.TransactionHelper;
 
 /**
- * Computation responsible for sending given document to index
+ * Computation responsible for sending given documents to index.
+ * <p>
+ * Records are processed by batches, the size of a batch is set by the <code>batchCapacity</code> and
+ * <code>batchThreshold</code> of the computation policy. Each batch is indexed in a single transaction: the facets of
+ * the indexed documents are saved together, the bulk status gets one delta per command and the audit entries are
+ * written at once.
  */
-public class IndexComputation extends AbstractComputation {
+public class IndexComputation extends AbstractBatchComputation {
 
     private static final Logger log = LogManager.getLogger(IndexComputation.class);
 
@@ -63,65 +73,110 @@ public class IndexComputation extends AbstractComputation {
         super(INDEX_COMPUTATION_NAME, 1, 1);
     }
 
-    protected static void reportStatus(ComputationContext ctx, BulkStatus status, BulkStatus delta, boolean success) {
+    protected static void reportStatus(ComputationContext ctx, BulkStatus delta, long processed, long errors) {
         delta.setProcessingEndTime(Instant.now());
-        delta.setProcessed(1);
-        delta.setErrorCount(success ? 0 : 1);
+        delta.setProcessed(processed);
+        delta.setErrorCount(errors);
         updateStatus(ctx, delta);
     }
 
     @Override
-    public void processRecord(ComputationContext ctx, String in, Record record) {
-        Codec<IndexRecord> codec = getAvroCodec(IndexRecord.class);
-        IndexRecord ir = codec.decode(record.getData());
-
+    protected void batchProcess(ComputationContext ctx, String inputStream, List<Record> records) {
         BulkService service = Framework.getService(BulkService.class);
-        BulkCommand command = service.getCommand(ir.getCommandId());
+        for (Map.Entry<String, List<IndexRecord>> entry : byCommand(records).entrySet()) {
+            String commandId = entry.getKey();
+            List<IndexRecord> irs = entry.getValue();
+            BulkCommand command = service.getCommand(commandId);
+            BulkStatus status = service.getStatus(commandId);
+            BulkStatus delta = BulkStatus.deltaOf(commandId);
+            if (status.getProcessingStartTime() == null) {
+                delta.setProcessingStartTime(Instant.now());
+            }
+
+            int indexed = TransactionHelper.runInTransaction(() -> index(command, irs));
+            reportStatus(ctx, delta, irs.size(), irs.size() - indexed);
+        }
 
-        TransactionHelper.runInTransaction(() -> {
-            CoreSession session = CoreInstance.getCoreSession(command.getRepository());
+        ctx.askForCheckpoint();
+    }
+
+    @Override
+    public void batchFailure(ComputationContext ctx, String inputStream, List<Record> records) {
+        log.warn("Failed to index a batch of {} documents", records.size());
+        // Count the documents as errors so the command can still complete
+        byCommand(records).forEach((commandId, irs) -> reportStatus(ctx, BulkStatus.deltaOf(commandId), irs.size(),
+                irs.size()));
+    }
+
+    protected static Map<String, List<IndexRecord>> byCommand(List<Record> records) {
+        Codec<IndexRecord> codec = getAvroCodec(IndexRecord.class);
+        Map<String, List<IndexRecord>> byCommand = new LinkedHashMap<>();
+        for (Record record : records) {
+            IndexRecord ir = codec.decode(record.getData());
+            byCommand.computeIfAbsent(ir.getCommandId(), k -> new ArrayList<>()).add(ir);
+        }
+        return byCommand;
+    }
+
+    /**
+     * Indexes the documents of a command
+     *
+     * @return the number of documents indexed
+     */
+    protected static int index(BulkCommand command, List<IndexRecord> records) {
+        CoreSession session = CoreInstance.getCoreSession(command.getRepository());
+        Map<String, List<DocumentRef>> byXpath = new LinkedHashMap<>();
+        for (IndexRecord ir : records) {
             IdRef ref = new IdRef(ir.getDocId());
-            if (!session.exists(ref)) {
+            if (session.exists(ref)) {
+                byXpath.computeIfAbsent(ir.getXpath(), k -> new ArrayList<>()).add(ref);
+            } else {
                 log.error("Cannot index document {}; provided document was removed", ir.getDocId());
             }
+        }
 
-            DocumentModel document = session.getDocument(ref);
-            BulkStatus status = service.getStatus(ir.getCommandId());
-            BulkStatus delta = BulkStatus.deltaOf(ir.getCommandId());
-            if (status.getProcessingStartTime() == null) {
-                delta.setProcessingStartTime(Instant.now());
-            }
-
-            SimilarContentService scs = Framework.getService(SimilarContentService.class);
+        SimilarContentService scs = Framework.getService(SimilarContentService.class);
+        AuditLogger audit = Framework.getService(AuditLogger.class);
+        List<LogEntry> entries = new ArrayList<>(records.size());
+        int indexed = 0;
+        for (Map.Entry<String, List<DocumentRef>> entry : byXpath.entrySet()) {
+            String xpath = entry.getKey();
+            List<DocumentModel> documents = session.getDocuments(entry.getValue().toArray(new DocumentRef[0]));
             try {
-                boolean success = scs.index(document, ir.getXpath());
-                reportStatus(ctx, status, delta, success);
-                storeAudit(ir, command.getUsername(), document);
+                Set<String> ids = scs.index(session, documents, xpath);
+                indexed += ids.size();
             } catch (IOException | InvalidParametersException e) {
-                log.error("An error occurred during Insight API for document {}", ir.getDocId(), e);
+                log.error("An error occurred during Insight API for documents {}", entry.getValue(), e);
                 throw new NuxeoException(e);
             }
-        });
+            if (audit != null) {
+                documents.forEach(doc -> entries.add(newAuditEntry(audit, xpath, command.getUsername(), doc)));
+            }
+        }
+        storeAudit(audit, entries);
+        return indexed;
+    }
 
-        ctx.askForCheckpoint();
+    protected static LogEntry newAuditEntry(AuditLogger audit, String xpath, String username,
+            DocumentModel document) {
+        LogEntry logEntry = audit.newLogEntry();
+        logEntry.setCategory("AI");
+        logEntry.setEventId(INDEX_COMPUTATION_NAME);
+        logEntry.setComment("Document " + document.getId() + " indexed for similar content; xpath: " + xpath + "; user "
+                + username);
+        logEntry.setDocUUID(document.getId());
+        logEntry.setDocPath(document.getPathAsString());
+        logEntry.setPrincipalName(username);
+        logEntry.setRepositoryId(document.getRepositoryName());
+        logEntry.setEventDate(new Date());
+        return logEntry;
     }
 
-    protected static void storeAudit(IndexRecord ir, String username, DocumentModel document) {
-        AuditLogger audit = Framework.getService(AuditLogger.class);
+    protected static void storeAudit(AuditLogger audit, List<LogEntry> entries) {
         if (audit != null) {
-            LogEntry logEntry = audit.newLogEntry();
-            logEntry.setCategory("AI");
-            logEntry.setEventId(INDEX_COMPUTATION_NAME);
-            logEntry.setComment(
-                    "Document " + document.getId() + " indexed for similar content; xpath: " + ir.getXpath() + "; user "
-                            + username);
-            logEntry.setDocUUID(document.getId());
-            logEntry.setDocPath(document.getPathAsString());
-            logEntry.setPrincipalName(username);
-            logEntry.setRepositoryId(document.getRepositoryName());
-            logEntry.setEventDate(new Date());
-
-            audit.addLogEntries(Collections.singletonList(logEntry));
+            if (!entries.isEmpty()) {
+                audit.addLogEntries(entries);
+            }
         } else {
             log.warn("Audit Logger is not available");
         }
@@ -0,0 +1,129 @@
+/*
+ * (C) Copyright 2006-2021 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *
+ * Contributors:
+ *    Andrei Nechaev
+ *
+ */
+
+package org.nuxeo.ai.similar.content.pipelines.objects;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.avro.reflect.Nullable;
+
+/**
+ * POJO for the progress of a duplicates scroll, saved between two pages so the scroll can be resumed. The page being
+ * emitted is kept in the state until its records are sent, a scroll resumed with a pending page emits it again.
+ */
+public class ScrollState implements Serializable {
+
+    private static final long serialVersionUID = -2931066845213772036L;
+
+    protected String user;
+
+    protected String repository;
+
+    @Nullable
+    protected String scrollId;
+
+    protected long page;
+
+    protected long tuples;
+
+    @Nullable
+    protected String pendingScrollId;
+
+    protected List<SimilarTupleRecord> pending = new ArrayList<>();
+
+    public ScrollState() {
+    }
+
+    public static ScrollState of(String user, String repository) {
+        ScrollState state = new ScrollState();
+        state.user = user;
+        state.repository = repository;
+        return state;
+    }
+
+    /**
+     * @param scrollId the scroll id returned with the page
+     * @return the state with the page to emit
+     */
+    public ScrollState withPendingPage(String scrollId, List<SimilarTupleRecord> records) {
+        ScrollState state = of(user, repository);
+        state.scrollId = this.scrollId;
+        state.page = page;
+        state.tuples = tuples;
+        state.pendingScrollId = scrollId;
+        state.pending = new ArrayList<>(records);
+        return state;
+    }
+
+    /**
+     * @return the state after the pending page, once its records are sent
+     */
+    public ScrollState next() {
+        ScrollState state = of(user, repository);
+        state.scrollId = pendingScrollId;
+        state.page = page + 1;
+        state.tuples = tuples + pending.size();
+        return state;
+    }
+
+    public boolean hasPendingPage() {
+        return pending != null && !pending.isEmpty();
+    }
+
+    /**
+     * @return the records of the page being emitted
+     */
+    public List<SimilarTupleRecord> getPendingPage() {
+        return pending == null ? Collections.emptyList() : Collections.unmodifiableList(pending);
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    /**
+     * @return the scroll id to use for the next page, null for the first page
+     */
+    public String getScrollId() {
+        return scrollId;
+    }
+
+    /**
+     * @return the scroll id returned with the pending page, to use for the page after it
+     */
+    public String getPendingScrollId() {
+        return pendingScrollId;
+    }
+
+    public long getPage() {
+        return page;
+    }
+
+    public long getTuples() {
+        return tuples;
+    }
+}
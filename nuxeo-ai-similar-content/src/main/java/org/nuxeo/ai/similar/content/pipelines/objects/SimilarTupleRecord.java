@@ -0,0 +1,116 @@
+/*
+ * (C) Copyright 2006-2021 Nuxeo (http://nuxeo.com/) and others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ *
+ * Contributors:
+ *    Andrei Nechaev
+ *
+ */
+
+package org.nuxeo.ai.similar.content.pipelines.objects;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.avro.reflect.Nullable;
+import org.apache.commons.lang3.tuple.Pair;
+import org.nuxeo.ai.sdk.objects.deduplication.SimilarTuple;
+
+/**
+ * POJO for passing a {@link SimilarTuple} with required meta through Streams, encoded with the Avro codec
+ */
+public class SimilarTupleRecord implements Serializable {
+
+    private static final long serialVersionUID = 4526357741893641527L;
+
+    protected String user;
+
+    protected String repository;
+
+    protected String documentId;
+
+    @Nullable
+    protected String xpath;
+
+    protected List<String> similarIds;
+
+    protected List<String> similarXpaths;
+
+    public SimilarTupleRecord() {
+    }
+
+    public static SimilarTupleRecord of(String user, String repository, SimilarTuple tuple) {
+        return of(user, repository, tuple.getDocumentId(), tuple.getXpath(), tuple.getSimilarDocuments());
+    }
+
+    public static SimilarTupleRecord of(String user, String repository, String documentId, String xpath,
+            Set<Pair<String, String>> similarDocuments) {
+        SimilarTupleRecord record = new SimilarTupleRecord();
+        record.user = user;
+        record.repository = repository;
+        record.documentId = documentId;
+        record.xpath = xpath;
+        record.similarIds = new ArrayList<>(similarDocuments.size());
+        record.similarXpaths = new ArrayList<>(similarDocuments.size());
+        for (Pair<String, String> similar : similarDocuments) {
+            record.similarIds.add(similar.getLeft());
+            record.similarXpaths.add(similar.getRight());
+        }
+        return record;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getXpath() {
+        return xpath;
+    }
+
+    /**
+     * @return the smallest id among the document and its similar documents. The tuples Insight sends for the members of
+     * a group of duplicates share it, it keys their records so the whole group is in the same partition.
+     */
+    public String getClusterKey() {
+        String key = documentId;
+        for (String id : similarIds) {
+            if (id.compareTo(key) < 0) {
+                key = id;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the similar documents as pairs of document id and xpath
+     */
+    public Set<Pair<String, String>> getSimilarDocuments() {
+        Set<Pair<String, String>> similar = new LinkedHashSet<>(similarIds.size());
+        for (int i = 0; i < similarIds.size(); i++) {
+            similar.add(Pair.of(similarIds.get(i), similarXpaths.get(i)));
+        }
+        return similar;
+    }
+}
@@ -23,7 +23,9 @@ package org.nuxeo.ai.similar.content.services;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import org.nuxeo.ai.bulk.BulkProgressStatus;
+import org.nuxeo.ai.similar.content.configuration.FilterContext;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
@@ -40,7 +42,17 @@ public interface SimilarContentService {
      * @param doc    {@link DocumentModel} Document to test
      * @return true if the Document allowed, false otherwise
      */
-    boolean test(String config, DocumentModel doc);
+    default boolean test(String config, DocumentModel doc) {
+        return test(config, doc, new FilterContext());
+    }
+
+    /**
+     * Same as {@link #test(String, DocumentModel)}, the permission and group checks are memoized in the context so
+     * the documents of a request or an event bundle can share it.
+     *
+     * @since 3.5
+     */
+    boolean test(String config, DocumentModel doc, FilterContext context);
 
     /**
      * Tests given Document against all available configurations; see {@link org.nuxeo.ai.similar.content.configuration.DeduplicationDescriptor}
@@ -48,7 +60,16 @@ public interface SimilarContentService {
      * @param doc {@link DocumentModel} Document to test
      * @return true if the Document allowed, false otherwise
      */
-    boolean anyMatch(DocumentModel doc);
+    default boolean anyMatch(DocumentModel doc) {
+        return anyMatch(doc, new FilterContext());
+    }
+
+    /**
+     * Same as {@link #anyMatch(DocumentModel)}, the permission and group checks are memoized in the context.
+     *
+     * @since 3.5
+     */
+    boolean anyMatch(DocumentModel doc, FilterContext context);
 
     /**
      * @return name of a Nuxeo Operation that shall be used for deduplication resolution
@@ -91,6 +112,18 @@ public interface SimilarContentService {
      */
     boolean index(DocumentModel doc, String xpath) throws IOException;
 
+    /**
+     * Send given {@link DocumentModel}[s] for indexing, the deduplication facet of the indexed documents is saved in
+     * one go
+     *
+     * @param session {@link CoreSession} of the documents
+     * @param docs    list of {@link DocumentModel} to index
+     * @param xpath   {@link String} xpath to use for indexing
+     * @return the ids of the documents successfully indexed
+     * @throws IOException in case of processing issues
+     */
+    Set<String> index(CoreSession session, List<DocumentModel> docs, String xpath) throws IOException;
+
     /**
      * Find Similar {@link DocumentModel}[s] for the provided {@link Blob}
      *
@@ -30,7 +30,7 @@ import static org.nuxeo.ai.sdk.rest.Common.UID;
 import static org.nuxeo.ai.sdk.rest.Common.XPATH_PARAM;
 import static org.nuxeo.ai.similar.content.DedupConstants.DEDUPLICATION_FACET;
 import static org.nuxeo.ai.similar.content.pipelines.IndexAction.INDEX_ACTION_NAME;
-import static org.nuxeo.ai.similar.content.utils.PictureUtils.resize;
+import static org.nuxeo.ai.similar.content.utils.PictureUtils.resizeBlob;
 import static org.nuxeo.ecm.core.bulk.BulkServiceImpl.STATUS_PREFIX;
 import static org.nuxeo.ecm.core.bulk.message.BulkStatus.State.RUNNING;
 import static org.nuxeo.ecm.core.bulk.message.BulkStatus.State.SCHEDULED;
@@ -41,6 +41,7 @@ import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
@@ -48,6 +49,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 import org.apache.avro.message.MissingSchemaException;
@@ -56,10 +58,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.nuxeo.ai.bulk.BulkProgressStatus;
 import org.nuxeo.ai.cloud.CloudClient;
+import org.nuxeo.ai.cloud.StreamingTensorInstances;
+import org.nuxeo.ai.cloud.StreamingTensorInstances.Instance;
 import org.nuxeo.ai.sdk.objects.TensorInstances;
 import org.nuxeo.ai.sdk.rest.client.API;
 import org.nuxeo.ai.sdk.rest.client.InsightClient;
 import org.nuxeo.ai.similar.content.configuration.DeduplicationDescriptor;
+import org.nuxeo.ai.similar.content.configuration.FilterContext;
 import org.nuxeo.ai.similar.content.configuration.OperationDescriptor;
 import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.ConcurrentUpdateException;
@@ -127,20 +132,21 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
     }
 
     @Override
-    public boolean test(String config, DocumentModel doc) {
+    public boolean test(String config, DocumentModel doc, FilterContext context) {
         if (!dedupDescriptors.containsKey(config)) {
             log.warn("No such configuration: {}", config);
             return false;
         }
 
-        return Stream.of(dedupDescriptors.get(config).getFilters()).allMatch(filter -> filter.accept(doc));
+        return Stream.of(dedupDescriptors.get(config).getFilters()).allMatch(filter -> filter.accept(doc, context));
     }
 
     @Override
-    public boolean anyMatch(DocumentModel doc) {
+    public boolean anyMatch(DocumentModel doc, FilterContext context) {
         return dedupDescriptors.values()
                                .stream()
-                               .anyMatch(d -> Arrays.stream(d.getFilters()).allMatch(filter -> filter.accept(doc)));
+                               .anyMatch(d -> Arrays.stream(d.getFilters())
+                                                    .allMatch(filter -> filter.accept(doc, context)));
     }
 
     @Override
@@ -216,7 +222,50 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
     public boolean index(DocumentModel doc, String xpath) throws IOException {
         CoreSession session = doc.getCoreSession();
         InsightClient client = getInsightClient(session);
+        if (!sendToIndex(client, doc, xpath)) {
+            return false;
+        }
+
+        if (!doc.isImmutable()) {
+            addDeduplicationFacet(session, doc, xpath);
+            fireEvent(session, doc);
+            return true;
+        }
+
+        log.warn("Document {} is immutable, cannot add facet", doc.getId());
+        return false;
+    }
+
+    @Override
+    public Set<String> index(CoreSession session, List<DocumentModel> docs, String xpath) throws IOException {
+        InsightClient client = getInsightClient(session);
+        List<DocumentModel> indexed = new ArrayList<>(docs.size());
+        for (DocumentModel doc : docs) {
+            if (!sendToIndex(client, doc, xpath)) {
+                continue;
+            }
+            if (doc.isImmutable()) {
+                log.warn("Document {} is immutable, cannot add facet", doc.getId());
+                continue;
+            }
+            setDeduplicationFacet(doc, xpath);
+            indexed.add(doc);
+        }
 
+        if (indexed.isEmpty()) {
+            return Collections.emptySet();
+        }
+        session.saveDocuments(indexed.toArray(new DocumentModel[0]));
+        indexed.forEach(doc -> fireEvent(session, doc));
+        return indexed.stream().map(DocumentModel::getId).collect(Collectors.toSet());
+    }
+
+    /**
+     * Sends the blob of the document to the Insight index
+     *
+     * @return true if the blob was indexed
+     */
+    protected boolean sendToIndex(InsightClient client, DocumentModel doc, String xpath) throws IOException {
         HashMap<String, Serializable> params = new HashMap<>();
         params.put(UID, doc.getId());
         params.put(XPATH_PARAM, xpath);
@@ -239,15 +288,7 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
             log.error("Couldn't trigger dedup index - [docId={}, xpath={}]", doc.getId(), xpath);
             return false;
         }
-
-        if (!doc.isImmutable()) {
-            addDeduplicationFacet(session, doc, xpath);
-            fireEvent(session, doc);
-            return true;
-        }
-
-        log.warn("Document {} is immutable, cannot add facet", doc.getId());
-        return false;
+        return true;
     }
 
     @Override
@@ -312,6 +353,14 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
     }
 
     protected void addDeduplicationFacet(CoreSession session, DocumentModel doc, String xpath) {
+        setDeduplicationFacet(doc, xpath);
+        session.saveDocument(doc);
+    }
+
+    /**
+     * Adds the deduplication facet and its history to the document without saving it
+     */
+    protected void setDeduplicationFacet(DocumentModel doc, String xpath) {
         List<Map<String, Object>> history = new ArrayList<>(1);
         doc.addFacet(DEDUPLICATION_FACET);
         Map<String, Object> entry = new HashMap<>();
@@ -320,7 +369,6 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
         entry.put("date", new GregorianCalendar());
         history.add(entry);
         doc.setPropertyValue("dedup:history", (Serializable) history);
-        session.saveDocument(doc);
     }
 
     protected void fireEvent(CoreSession session, DocumentModel doc) {
@@ -358,9 +406,7 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
             return null;
         }
 
-        Map<String, TensorInstances.Tensor> props = new HashMap<>();
-        props.put(xpath, TensorInstances.Tensor.image(resize(blob)));
-        return new TensorInstances(null, singletonList(props));
+        return new StreamingTensorInstances(null, singletonList(new Instance().image(xpath, resizeBlob(blob))));
     }
 
     @Nullable
@@ -385,9 +431,7 @@ public class SimilarServiceComponent extends DefaultComponent implements Similar
             }
         }
 
-        Map<String, TensorInstances.Tensor> props = new HashMap<>();
-        props.put(xpath, TensorInstances.Tensor.image(resize(blob)));
-        return new TensorInstances(doc.getId(), singletonList(props));
+        return new StreamingTensorInstances(doc.getId(), singletonList(new Instance().image(xpath, resizeBlob(blob))));
     }
 
     @Nullable
@@ -47,6 +47,18 @@ public final class PictureUtils {
     }
 
     public static String resize(Blob blob, long max) {
+        Blob resized = resizeBlob(blob, max);
+        return resized == null ? null : base64EncodeBlob(resized);
+    }
+
+    public static Blob resizeBlob(Blob blob) {
+        return resizeBlob(blob, MAX_SIZE_BYTES);
+    }
+
+    /**
+     * Resizes the image so it fits in max bytes once base64 encoded, the image is returned as is if it is small enough.
+     */
+    public static Blob resizeBlob(Blob blob, long max) {
         assert max > 0;
         if (blob != null) {
             long size = blob.getLength();
@@ -60,10 +72,8 @@ public final class PictureUtils {
                 blob = EnrichmentUtils.convertImageBlob(DEFAULT_CONVERTER, blob, width, height, info.getDepth(),
                         info.getFormat());
             }
-
-            return base64EncodeBlob(blob);
         }
 
-        return null;
+        return blob;
     }
 }
@@ -21,25 +21,41 @@
 
 package org.nuxeo.ai.similar.content.pipelines;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.okJson;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.nuxeo.ai.bulk.ExportHelper.getAvroCodec;
 import static org.nuxeo.ai.sdk.rest.Common.Headers.SCROLL_ID_HEADER;
 import static org.nuxeo.ai.similar.content.DedupConstants.CONF_LISTENER_ENABLE;
 import static org.nuxeo.ai.similar.content.pipelines.DeduplicationScrollerComputation.SCROLLER_COMPUTATION_NAME;
+import static org.nuxeo.ai.similar.content.pipelines.DeduplicationScrollerComputation.SCROLL_KVS_STORE;
+import static org.nuxeo.ai.similar.content.pipelines.DeduplicationScrollerComputation.STATE_PREFIX;
 import static org.nuxeo.ai.similar.content.pipelines.DuplicateResolverComputation.RESOLVER_COMPUTE_NAME;
 import static org.nuxeo.ai.similar.content.pipelines.DuplicationPipeline.PIPELINE_NAME;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.inject.Inject;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ai.similar.content.operation.ProcessDuplicates;
+import org.nuxeo.ai.similar.content.pipelines.objects.ScrollState;
+import org.nuxeo.ai.similar.content.pipelines.objects.SimilarTupleRecord;
 import org.nuxeo.ecm.automation.AutomationService;
 import org.nuxeo.ecm.automation.OperationContext;
 import org.nuxeo.ecm.automation.OperationException;
@@ -47,11 +63,18 @@ import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
 import org.nuxeo.ecm.core.bulk.CoreBulkFeature;
 import org.nuxeo.ecm.core.test.annotations.Granularity;
 import org.nuxeo.ecm.core.test.annotations.RepositoryConfig;
+import org.nuxeo.lib.stream.codec.Codec;
+import org.nuxeo.lib.stream.computation.ComputationContext;
+import org.nuxeo.lib.stream.computation.Record;
+import org.nuxeo.lib.stream.computation.internals.ComputationContextImpl;
 import org.nuxeo.lib.stream.log.LogManager;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
 import org.nuxeo.runtime.stream.StreamService;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
@@ -158,6 +181,151 @@ public class DeduplicationPipelineTest {
         assertThat(session.exists(base.getRef())).isTrue();
         // 5 documents previously created now removed by the dedup pipeline
         assertThat(ids.stream().noneMatch(id -> session.exists(new IdRef(id)))).isTrue();
+        // The second page was prefetched while the first one was emitted, it is not fetched again
+        wireMockRule.verify(1, getRequestedFor(urlPathMatching(".*/similars")).withHeader(SCROLL_ID_HEADER,
+                new EqualToPattern("testScrollId", false)));
+    }
+
+    @Test
+    public void shouldResumeScrollFromSavedState() throws OperationException, InterruptedException {
+        DocumentModel base = session.createDocument(session.createDocumentModel("/", "base_doc", "File"));
+        DocumentModel doc = session.createDocument(session.createDocumentModel("/", "doc", "File"));
+        txf.nextTransaction();
+
+        String firstPage = "{\"scrollId\": \"testScrollId\", \"result\": [{\"documentId\": \"" + base.getId()
+                + "\", \"xpath\": \"file:content\", \"similarDocuments\": [{\"" + doc.getId()
+                + "\": \"file:content\"}]}]}";
+        stubFor(WireMock.get("/api/v1/ai/dedup/mockTestProject/similars")
+                        .withHeader(SCROLL_ID_HEADER, StringValuePattern.ABSENT)
+                        .willReturn(okJson(firstPage)));
+        stubFor(WireMock.get("/api/v1/ai/dedup/mockTestProject/similars")
+                        .withHeader(SCROLL_ID_HEADER, new EqualToPattern("testScrollId", false))
+                        .willReturn(okJson("{\"scrollId\": \"testScrollId\", \"result\": []}")));
+
+        // The first page was already emitted before the node stopped
+        String repo = session.getRepositoryName();
+        String user = session.getPrincipal().getActingUser();
+        SimilarTupleRecord emitted = SimilarTupleRecord.of(user, repo, base.getId(), "file:content",
+                Collections.singleton(Pair.of(doc.getId(), "file:content")));
+        ScrollState state = ScrollState.of(user, repo)
+                                       .withPendingPage("testScrollId", Collections.singletonList(emitted))
+                                       .next();
+        KeyValueStore store = Framework.getService(KeyValueService.class).getKeyValueStore(SCROLL_KVS_STORE);
+        store.put(STATE_PREFIX + repo, getAvroCodec(ScrollState.class).encode(state), 60);
+
+        as.run(new OperationContext(session), ProcessDuplicates.ID);
+        txf.nextTransaction();
+
+        long deadline = System.currentTimeMillis() + Duration.ofSeconds(10).toMillis();
+        while (store.get(STATE_PREFIX + repo) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(store.get(STATE_PREFIX + repo)).isNull();
+        LogManager manager = Framework.getService(StreamService.class).getLogManager();
+        awaitPipeline(manager, RESOLVER_COMPUTE_NAME, Duration.ofSeconds(10));
+
+        // The scroll resumed after the first page, its duplicates were not resolved again
+        assertThat(session.exists(doc.getRef())).isTrue();
+    }
+
+    @Test
+    public void shouldEmitAgainAPageThatWasNotSent() throws OperationException, InterruptedException {
+        DocumentModel base = session.createDocument(session.createDocumentModel("/", "base_doc", "File"));
+        DocumentModel doc = session.createDocument(session.createDocumentModel("/", "doc", "File"));
+        txf.nextTransaction();
+
+        stubFor(WireMock.get("/api/v1/ai/dedup/mockTestProject/similars")
+                        .withHeader(SCROLL_ID_HEADER, new EqualToPattern("testScrollId", false))
+                        .willReturn(okJson("{\"scrollId\": \"testScrollId\", \"result\": []}")));
+
+        // The node stopped once the first page was fetched, before its records were sent
+        String repo = session.getRepositoryName();
+        String user = session.getPrincipal().getActingUser();
+        SimilarTupleRecord pending = SimilarTupleRecord.of(user, repo, base.getId(), "file:content",
+                Collections.singleton(Pair.of(doc.getId(), "file:content")));
+        ScrollState state = ScrollState.of(user, repo)
+                                       .withPendingPage("testScrollId", Collections.singletonList(pending));
+        KeyValueStore store = Framework.getService(KeyValueService.class).getKeyValueStore(SCROLL_KVS_STORE);
+        store.put(STATE_PREFIX + repo, getAvroCodec(ScrollState.class).encode(state), 60);
+
+        as.run(new OperationContext(session), ProcessDuplicates.ID);
+        txf.nextTransaction();
+
+        long deadline = System.currentTimeMillis() + Duration.ofSeconds(10).toMillis();
+        while (store.get(STATE_PREFIX + repo) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(store.get(STATE_PREFIX + repo)).isNull();
+        LogManager manager = Framework.getService(StreamService.class).getLogManager();
+        awaitPipeline(manager, RESOLVER_COMPUTE_NAME, Duration.ofSeconds(10));
+
+        // The pending page was emitted again instead of being lost, without fetching it again
+        txf.nextTransaction();
+        assertThat(session.exists(base.getRef())).isTrue();
+        assertThat(session.exists(doc.getRef())).isFalse();
+        wireMockRule.verify(0,
+                getRequestedFor(urlPathMatching(".*/similars")).withHeader(SCROLL_ID_HEADER, StringValuePattern.ABSENT));
+    }
+
+    @Test
+    public void shouldResolveEachClusterOnce() {
+        DuplicateResolverComputation.Clusters clusters = new DuplicateResolverComputation.Clusters();
+        clusters.add(tuple("a", "b", "c"));
+        clusters.add(tuple("b", "a", "c"));
+        clusters.add(tuple("c", "a", "b"));
+        clusters.add(tuple("d", "e"));
+        clusters.add(tuple("e", "d"));
+        clusters.add(tuple("f", "c"));
+
+        List<DuplicateResolverComputation.Cluster> resolved = clusters.get();
+        assertThat(clusters.size()).isEqualTo(6);
+        assertThat(resolved).hasSize(2);
+        assertThat(resolved.get(0).documentId).isEqualTo("a");
+        assertThat(resolved.get(0).similar).extracting(Pair::getLeft).containsExactlyInAnyOrder("b", "c", "f");
+        assertThat(resolved.get(1).documentId).isEqualTo("d");
+        assertThat(resolved.get(1).similar).containsExactly(Pair.of("e", "file:content"));
+    }
+
+    @Test
+    public void shouldNotResolveAgainTheClustersOfARetriedBatch() {
+        Map<String, Integer> calls = new HashMap<>();
+        DuplicateResolverComputation computation = new DuplicateResolverComputation(RESOLVER_COMPUTE_NAME) {
+            @Override
+            protected void resolve(CoreSession session, String oid, String xpath, Cluster cluster) {
+                // The cluster of c fails together with a, then alone, and is resolved on retry
+                if (calls.merge(cluster.documentId, 1, Integer::sum) <= 2 && "c".equals(cluster.documentId)) {
+                    throw new NuxeoException("Unable to resolve " + cluster.documentId);
+                }
+            }
+        };
+        Codec<SimilarTupleRecord> codec = getAvroCodec(SimilarTupleRecord.class);
+        List<Record> records = Stream.of(tuple("a", "b"), tuple("c", "d"))
+                                     .map(tuple -> Record.of(tuple.getClusterKey(), codec.encode(tuple)))
+                                     .collect(Collectors.toList());
+        ComputationContext context = new ComputationContextImpl(null);
+
+        assertThatThrownBy(() -> computation.batchProcess(context, "i1", records))
+                .isInstanceOf(NuxeoException.class);
+        assertThat(calls).containsEntry("a", 2).containsEntry("c", 2);
+
+        // The retried batch doesn't replay the committed cluster of a
+        computation.batchProcess(context, "i1", records);
+        assertThat(calls).containsEntry("a", 2).containsEntry("c", 3);
+    }
+
+    @Test
+    public void shouldKeyTheTuplesOfAClusterAlike() {
+        assertThat(tuple("b", "c", "a").getClusterKey()).isEqualTo("a");
+        assertThat(tuple("a", "b", "c").getClusterKey()).isEqualTo("a");
+        assertThat(tuple("c", "a", "b").getClusterKey()).isEqualTo("a");
+        assertThat(tuple("e", "d").getClusterKey()).isEqualTo(tuple("d", "e").getClusterKey());
+    }
+
+    protected SimilarTupleRecord tuple(String documentId, String... similar) {
+        Set<Pair<String, String>> pairs = Arrays.stream(similar)
+                                                .map(id -> Pair.of(id, "file:content"))
+                                                .collect(Collectors.toSet());
+        return SimilarTupleRecord.of("user", "test", documentId, "file:content", pairs);
     }
 
     private void awaitPipeline(LogManager manager, String computation, Duration duration) throws InterruptedException {
@@ -30,11 +30,15 @@ import java.io.Serializable;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.ai.similar.content.configuration.FilterContext;
+import org.nuxeo.ai.similar.content.configuration.ResultsFilter;
+import org.nuxeo.ai.similar.content.configuration.ResultsRule;
 import org.nuxeo.ecm.automation.test.AutomationFeature;
 import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
@@ -101,6 +105,41 @@ public class SimilarContentServiceTest {
 
         assertThat(scs.test("test3", fileDoc)).isTrue();
         assertThat(scs.test("test4", fileDoc)).isFalse();
+
+        // a context shared by several documents and configurations gives the same answers
+        FilterContext context = new FilterContext();
+        assertThat(scs.test("test", fileDoc, context)).isTrue();
+        assertThat(scs.test("test2", fileDoc, context)).isFalse();
+        assertThat(scs.test("test3", fileDoc, context)).isTrue();
+        assertThat(scs.test("test4", fileDoc, context)).isFalse();
+        assertThat(scs.anyMatch(fileDoc, context)).isTrue();
+    }
+
+    @Test
+    public void shouldFilterDocumentsWithCompiledRules() {
+        DocumentModel fileDoc = session.createDocumentModel("/", "TestFile", "File");
+        fileDoc = session.createDocument(fileDoc);
+        DocumentModel folder = session.createDocumentModel("/", "TestFolder", "Folder");
+        folder = session.createDocument(folder);
+        session.save();
+
+        ResultsFilter byFacet = new ResultsFilter("byFacet", new ResultsRule[] {
+                new ResultsRule(true, null, new String[] { "HiddenInNavigation" }, null, null) });
+        ResultsFilter byTypeAndPermission = new ResultsFilter("byTypeAndPermission", new ResultsRule[] {
+                new ResultsRule(true, new String[] { "Read" }, null, new String[] { "File" },
+                        new String[] { "file" }) });
+
+        FilterContext context = new FilterContext();
+        assertThat(byTypeAndPermission.accept(fileDoc, context)).isTrue();
+        assertThat(byTypeAndPermission.accept(fileDoc, context)).isTrue();
+        assertThat(byTypeAndPermission.accept(folder, context)).isFalse();
+
+        // The facet is not held by the type, it is added to the document
+        assertThat(byFacet.accept(fileDoc, context)).isFalse();
+        fileDoc.addFacet("HiddenInNavigation");
+        assertThat(byFacet.accept(fileDoc, context)).isTrue();
+        assertThat(byFacet.accept(folder, context)).isFalse();
+        assertThat(scs.anyMatch(fileDoc)).isTrue();
     }
 
     @Test
@@ -156,4 +195,28 @@ public class SimilarContentServiceTest {
                              .collect(Collectors.toList());
         assertThat(allHaveFacet).hasSize(40);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldIndexBatchOfDocuments() throws IOException {
+        List<DocumentModel> docs = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            DocumentModel doc = session.createDocumentModel("/", "test_batch_" + i, "File");
+            if (i < 5) {
+                doc.setPropertyValue(FILE_CONTENT, (Serializable) Blobs.createBlob("Text blob content #" + i));
+            }
+            docs.add(session.createDocument(doc));
+        }
+
+        txf.nextTransaction();
+
+        Set<String> indexed = scs.index(session, docs, FILE_CONTENT);
+        assertThat(indexed).hasSize(5);
+
+        txf.nextTransaction();
+
+        for (DocumentModel doc : docs) {
+            boolean hasFacet = session.getDocument(doc.getRef()).getFacets().contains(DEDUPLICATION_FACET);
+            assertThat(hasFacet).isEqualTo(indexed.contains(doc.getId()));
+        }
+    }
+}